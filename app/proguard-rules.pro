@@ -24,3 +24,7 @@
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
 -keep class io.codetail.animation.arcanimator.** { *; }
+
+# Used by the instrumented tests only, against the minified debug build
+-keep class ml.matteolobello.quickphoto.utils.MainThreadMonitor { public static *; }
+-keep class ml.matteolobello.quickphoto.utils.ViolationLog { public *; }
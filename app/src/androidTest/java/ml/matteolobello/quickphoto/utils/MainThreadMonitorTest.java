@@ -0,0 +1,120 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ml.matteolobello.quickphoto.activities.MainActivity;
+import ml.matteolobello.quickphoto.pojo.Photo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs what the main thread does when the user picks a photo, applies it and resets the
+ * shortcuts, with the {@link MainThreadMonitor} in strict mode: any blocking call made
+ * there fails the test.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MainThreadMonitorTest {
+
+    @Rule
+    public final ActivityTestRule<MainActivity> mActivityRule = new ActivityTestRule<>(MainActivity.class);
+
+    private Context mContext;
+
+    /**
+     * A photo that doesn't exist, so that the queued job never adds a shortcut.
+     */
+    private Uri mPhotoUri;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mPhotoUri = Uri.parse("content://" + mContext.getPackageName() + ".missing/photo.jpg");
+
+        MainThreadMonitor.getViolationLog().reset();
+        MainThreadMonitor.setStrict(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MainThreadMonitor.setStrict(false);
+        ShortcutHelper.get(mContext).cancelPrerender();
+    }
+
+    @Test
+    public void strictMode_failsBlockingCallsOnTheMainThread() throws Throwable {
+        try {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    long startNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.FILE_IO);
+                    MainThreadMonitor.end(MainThreadMonitor.Operation.FILE_IO, startNs);
+                }
+            });
+            fail("A blocking call on the main thread didn't throw");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("file I/O on the main thread"));
+        }
+
+        assertEquals(1, MainThreadMonitor.getViolationLog().getCount());
+    }
+
+    @Test
+    public void apply_doesNotBlockTheMainThread() throws Throwable {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                ShortcutHelper shortcutHelper = ShortcutHelper.get(mActivityRule.getActivity());
+                shortcutHelper.prerenderShortcut(mPhotoUri);
+                shortcutHelper.addHomeScreenShortcut(new Photo("Test", mPhotoUri));
+            }
+        });
+
+        assertEquals(0, MainThreadMonitor.getViolationLog().getCount());
+    }
+
+    @Test
+    public void hasShortcuts_doesNotBlockTheMainThread() throws Throwable {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                ShortcutHelper.get(mActivityRule.getActivity()).hasShortcuts();
+            }
+        });
+
+        assertEquals(0, MainThreadMonitor.getViolationLog().getCount());
+    }
+
+    /**
+     * Run on the main thread, rethrowing on the test thread what the runnable threw, which
+     * would crash the process otherwise.
+     */
+    private static void runOnMainThread(final Runnable runnable) throws Throwable {
+        final Throwable[] error = new Throwable[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    error[0] = t;
+                }
+            }
+        });
+
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+}
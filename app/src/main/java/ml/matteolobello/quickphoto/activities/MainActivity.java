@@ -1,6 +1,7 @@
 package ml.matteolobello.quickphoto.activities;
 
 import android.Manifest;
+import android.content.ClipData;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -15,8 +16,10 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -24,16 +27,34 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
+import ml.matteolobello.quickphoto.BuildConfig;
 import ml.matteolobello.quickphoto.R;
+import ml.matteolobello.quickphoto.adapters.RecentPhotosAdapter;
 import ml.matteolobello.quickphoto.pojo.Photo;
-import ml.matteolobello.quickphoto.utils.BitmapUtils;
+import ml.matteolobello.quickphoto.utils.BitmapPool;
+import ml.matteolobello.quickphoto.utils.DecodeGovernor;
+import ml.matteolobello.quickphoto.utils.IconCache;
+import ml.matteolobello.quickphoto.utils.MainThreadMonitor;
+import ml.matteolobello.quickphoto.utils.MediaIndex;
+import ml.matteolobello.quickphoto.utils.PipelineMetrics;
+import ml.matteolobello.quickphoto.utils.PreviewLoader;
 import ml.matteolobello.quickphoto.utils.SDKUtils;
 import ml.matteolobello.quickphoto.utils.ShortcutHelper;
+import ml.matteolobello.quickphoto.utils.ShortcutJobQueue;
+import ml.matteolobello.quickphoto.utils.ShortcutNameTemplate;
+import ml.matteolobello.quickphoto.utils.ShortcutRegistry;
+
+public class MainActivity extends AppCompatActivity implements ShortcutJobQueue.Listener {
 
-public class MainActivity extends AppCompatActivity {
+    private static final String TAG = "MainActivity";
 
     /**
      * Result code used when picking the images.
@@ -54,12 +75,23 @@ public class MainActivity extends AppCompatActivity {
     @BindView(R.id.text_input_layout)         protected TextInputLayout   mTextInputLayout;
     @BindView(R.id.select_photo)              protected View              mSelectPhotoView;
     @BindView(R.id.apply)                     protected Button            mApplyButton;
+    @BindView(R.id.recent_photos)             protected RecyclerView      mRecentPhotosView;
 
     /**
      * The current selected Photo object.
      */
     private Photo mSelectedPhoto;
 
+    /**
+     * Loads the preview of the selected Photo in the background.
+     */
+    private PreviewLoader mPreviewLoader;
+
+    /**
+     * The grid of the recent photos, created once the storage permission is granted.
+     */
+    private RecentPhotosAdapter mRecentPhotosAdapter;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -67,7 +99,34 @@ public class MainActivity extends AppCompatActivity {
 
         ButterKnife.bind(this);
 
+        mPreviewLoader = new PreviewLoader(mPreviewImageView);
+
+        // Read by the reset menu item, on the main thread
+        if (SDKUtils.AT_LEAST_NOUGAT) {
+            ShortcutRegistry.preload(this);
+        }
+
         initViews();
+
+        if (ActivityCompat.checkSelfPermission(getApplicationContext(),
+                Manifest.permission.READ_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED) {
+            initRecentPhotos();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mPreviewLoader.cancel();
+
+        if (mRecentPhotosAdapter != null) {
+            mRecentPhotosAdapter.release();
+        }
+
+        if (isFinishing()) {
+            ShortcutHelper.get(this).cancelPrerender();
+        }
     }
 
     @Override
@@ -75,13 +134,41 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
 
         handlePermissions();
+
+        if (mRecentPhotosAdapter != null) {
+            mRecentPhotosAdapter.refreshIfStale();
+        }
+
+        ShortcutJobQueue.get(getApplicationContext()).setListener(this);
     }
 
     @Override
-    public boolean onCreateOptionsMenu(Menu menu) {
-        if (SDKUtils.AT_LEAST_NOUGAT) {
-            getMenuInflater().inflate(R.menu.menu_main, menu);
+    protected void onPause() {
+        super.onPause();
+
+        ShortcutJobQueue.get(getApplicationContext()).setListener(null);
+    }
+
+    @Override
+    public void onShortcutJobFinished(ShortcutJobQueue.Result result) {
+        List<String> createdNames = result.getCreatedNames();
+
+        if (createdNames.isEmpty()) {
+            Toast.makeText(this, R.string.shortcut_failed, Toast.LENGTH_SHORT).show();
+        } else if (result.getRequestedCount() == 1) {
+            Toast.makeText(this, getString(R.string.shortcut_created, createdNames.get(0)), Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, getResources().getQuantityString(R.plurals.shortcuts_created,
+                    createdNames.size(), createdNames.size()), Toast.LENGTH_SHORT).show();
         }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        menu.findItem(R.id.menu_item_reset).setVisible(SDKUtils.AT_LEAST_NOUGAT);
+        menu.findItem(R.id.menu_item_dump_metrics).setVisible(BuildConfig.DEBUG);
 
         return true;
     }
@@ -115,33 +202,113 @@ public class MainActivity extends AppCompatActivity {
                         })
                         .show();
                 break;
+            case R.id.menu_item_dump_metrics:
+                String metrics = PipelineMetrics.toJson().toString();
+                Log.i(TAG, metrics);
+
+                String violations = MainThreadMonitor.getReport();
+                if (!violations.isEmpty()) {
+                    Log.w(TAG, "Main thread violations:\n" + violations);
+                    metrics += "\n\n" + violations;
+                }
+
+                new AlertDialog.Builder(this)
+                        .setTitle(R.string.dump_metrics)
+                        .setMessage(metrics)
+                        .setPositiveButton(R.string.ok, null)
+                        .show();
+                break;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Print the pipeline metrics and the main thread violations with
+     * "adb shell dumpsys activity ml.matteolobello.quickphoto".
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        writer.print(prefix);
+        writer.print("PipelineMetrics: ");
+        writer.println(PipelineMetrics.toJson());
+
+        writer.print(prefix);
+        writer.print("BitmapPool: ");
+        writer.println(BitmapPool.get(getApplicationContext()).getStats());
+
+        writer.print(prefix);
+        writer.print("DecodeGovernor: ");
+        writer.println(DecodeGovernor.get(getApplicationContext()).getStats());
+
+        writer.print(prefix);
+        writer.print("IconCache: ");
+        writer.println(IconCache.get(getApplicationContext()).getStats());
+
+        writer.print(prefix);
+        writer.print("MediaIndex: ");
+        writer.println(MediaIndex.get(getApplicationContext()).getStats());
+
+        if (mRecentPhotosAdapter != null) {
+            writer.print(prefix);
+            writer.print("RecentPhotos: ");
+            writer.println(mRecentPhotosAdapter.getStats());
+        }
+
+        writer.print(prefix);
+        writer.println("Main thread violations:");
+        for (String line : MainThreadMonitor.getReport().split("\n")) {
+            if (!line.isEmpty()) {
+                writer.print(prefix);
+                writer.print("  ");
+                writer.println(line);
+            }
+        }
+    }
+
     @SuppressWarnings("all")
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
         if (requestCode == PICK_IMAGES_RESULT_CODE && resultCode == RESULT_OK && data != null) {
-            Uri uri = data.getData();
-
-            // Add permissions as the Uri we got will be temporary with API19+
+            // Add permissions as the Uris we got will be temporary with API19+
             int takeFlags = data.getFlags() & Intent.FLAG_GRANT_READ_URI_PERMISSION;
-            getApplicationContext().getContentResolver().takePersistableUriPermission(uri, takeFlags);
 
-            mPreviewImageView.setImageBitmap(BitmapUtils.getBitmapFromUri(getApplicationContext(), uri));
+            ClipData clipData = data.getClipData();
+            if (clipData != null && clipData.getItemCount() > 1) {
+                List<Uri> uris = new ArrayList<>(clipData.getItemCount());
+                for (int i = 0; i < clipData.getItemCount(); i++) {
+                    Uri uri = clipData.getItemAt(i).getUri();
+                    takePersistableUriPermission(uri, takeFlags);
+                    uris.add(uri);
+                }
+
+                ShortcutHelper.get(this).cancelPrerender();
+                showNameTemplateDialog(uris);
 
-            if (SDKUtils.AT_LEAST_MARSHMALLOW) {
-                mApplyButton.setForeground(ContextCompat.getDrawable(getApplicationContext(), R.drawable.selectable_item_background));
+                return;
             }
-            mApplyButton.setAlpha(1.0f);
-            mApplyButton.setTextColor(Color.WHITE);
-            mApplyButton.setBackground(new ColorDrawable(ContextCompat.getColor(getApplicationContext(), R.color.colorAccent)));
 
-            mSelectedPhoto = new Photo(uri);
+            Uri uri = clipData != null ? clipData.getItemAt(0).getUri() : data.getData();
+            takePersistableUriPermission(uri, takeFlags);
+
+            selectPhoto(uri);
+        }
+    }
+
+    /**
+     * Keep the permission to read the picked photo, so that its shortcut still works after
+     * a reboot.
+     */
+    private void takePersistableUriPermission(Uri uri, int takeFlags) {
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.BINDER_CALL);
+        try {
+            getApplicationContext().getContentResolver().takePersistableUriPermission(uri, takeFlags);
+        } finally {
+            MainThreadMonitor.end(MainThreadMonitor.Operation.BINDER_CALL, monitorStartNs);
         }
     }
 
@@ -155,6 +322,9 @@ public class MainActivity extends AppCompatActivity {
                 Toast.makeText(this, R.string.permissins_error, Toast.LENGTH_SHORT).show();
 
                 finish();
+            } else if (mRecentPhotosAdapter == null) {
+                MediaIndex.get(this).requestSync();
+                initRecentPhotos();
             }
         }
     }
@@ -199,6 +369,43 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Show the recent photos of the device, so that most photos can be picked without
+     * launching the Document app.
+     */
+    private void initRecentPhotos() {
+        int cellSize = getResources().getDisplayMetrics().widthPixels / RecentPhotosAdapter.SPAN_COUNT;
+
+        mRecentPhotosAdapter = new RecentPhotosAdapter(this, cellSize, new RecentPhotosAdapter.OnPhotoClickListener() {
+            @Override
+            public void onPhotoClick(Uri uri) {
+                selectPhoto(uri);
+            }
+        });
+        mRecentPhotosAdapter.attach(mRecentPhotosView);
+    }
+
+    /**
+     * Select a single photo: show its preview and enable the Apply button.
+     *
+     * @param uri The Uri of the photo.
+     */
+    private void selectPhoto(Uri uri) {
+        mPreviewLoader.load(uri);
+
+        // Render the icon while the user types the name, Apply will only publish it
+        ShortcutHelper.get(this).prerenderShortcut(uri);
+
+        if (SDKUtils.AT_LEAST_MARSHMALLOW) {
+            mApplyButton.setForeground(ContextCompat.getDrawable(getApplicationContext(), R.drawable.selectable_item_background));
+        }
+        mApplyButton.setAlpha(1.0f);
+        mApplyButton.setTextColor(Color.WHITE);
+        mApplyButton.setBackground(new ColorDrawable(ContextCompat.getColor(getApplicationContext(), R.color.colorAccent)));
+
+        mSelectedPhoto = new Photo(uri);
+    }
+
     /**
      * Handle MarshMallow Permissions
      */
@@ -209,12 +416,45 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Let the user choose how to name a batch of photos, then create all the shortcuts.
+     *
+     * @param uris The Uris of the picked photos.
+     */
+    private void showNameTemplateDialog(final List<Uri> uris) {
+        final List<String> templates = new ArrayList<>();
+        final List<String> labels = new ArrayList<>();
+
+        templates.add(ShortcutNameTemplate.TOKEN_NAME);
+        labels.add(getString(R.string.name_template_file_name));
+
+        templates.add(ShortcutNameTemplate.TOKEN_DATE);
+        labels.add(getString(R.string.name_template_date));
+
+        String inputText = mEditText.getText().toString().trim();
+        if (!TextUtils.isEmpty(inputText)) {
+            templates.add(inputText + " " + ShortcutNameTemplate.TOKEN_INDEX);
+            labels.add(getString(R.string.name_template_numbered, inputText));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.name_template_title)
+                .setItems(labels.toArray(new String[labels.size()]), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        ShortcutHelper.get(MainActivity.this).addHomeScreenShortcuts(uris, templates.get(which));
+                    }
+                })
+                .setNegativeButton(R.string.dismiss, null)
+                .show();
+    }
+
     /**
      * Launch default Document app to pick photos.
      */
     private void startPickingPhotos() {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
-        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, false);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         intent.putExtra(Intent.EXTRA_LOCAL_ONLY, true);
         intent.addFlags(Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION);
         intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
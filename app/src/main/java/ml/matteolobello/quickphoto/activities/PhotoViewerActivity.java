@@ -0,0 +1,113 @@
+package ml.matteolobello.quickphoto.activities;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.widget.Toast;
+
+import ml.matteolobello.quickphoto.BuildConfig;
+import ml.matteolobello.quickphoto.R;
+import ml.matteolobello.quickphoto.utils.TileLoader;
+import ml.matteolobello.quickphoto.views.TiledImageView;
+
+/**
+ * The lightweight viewer the shortcuts open, instead of cold-starting a gallery app.
+ * <p>
+ * The EXIF thumbnail is shown as soon as the first few KB of the photo have been read,
+ * replaced by a screen-sized decode, and full resolution tiles are loaded only for the
+ * part of the photo zoomed in on.
+ */
+public class PhotoViewerActivity extends Activity implements TileLoader.Listener {
+
+    private static final String TAG = "PhotoViewerActivity";
+
+    private TiledImageView mImageView;
+    private TileLoader mTileLoader;
+
+    private long mCreateTimeMs;
+    private boolean mFirstPixelLogged;
+
+    /**
+     * Build the Intent showing the given photo.
+     *
+     * @param context  The Context.
+     * @param photoUri The Uri of the photo.
+     * @return The Intent.
+     */
+    public static Intent newIntent(Context context, Uri photoUri) {
+        return new Intent(context, PhotoViewerActivity.class)
+                .setAction(Intent.ACTION_VIEW)
+                .setData(photoUri)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mCreateTimeMs = SystemClock.uptimeMillis();
+
+        Uri photoUri = getIntent().getData();
+        if (photoUri == null) {
+            finish();
+
+            return;
+        }
+
+        setContentView(R.layout.activity_photo_viewer);
+        mImageView = (TiledImageView) findViewById(R.id.photo);
+
+        DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+        mTileLoader = new TileLoader(this, photoUri, this);
+        mTileLoader.start(displayMetrics.widthPixels, displayMetrics.heightPixels);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (mTileLoader != null) {
+            mTileLoader.release();
+        }
+    }
+
+    @Override
+    public void onBoundsLoaded(int width, int height, int orientation, Bitmap preview) {
+        mImageView.setImage(width, height, orientation, mTileLoader);
+
+        if (preview != null) {
+            mImageView.setPreview(preview);
+            logFirstPixel("thumbnail");
+        }
+    }
+
+    @Override
+    public void onBaseLoaded(Bitmap base) {
+        mImageView.setPreview(base);
+        logFirstPixel("base");
+    }
+
+    @Override
+    public void onTileLoaded() {
+        mImageView.onTileLoaded();
+    }
+
+    @Override
+    public void onLoadFailed() {
+        Toast.makeText(this, R.string.photo_load_failed, Toast.LENGTH_SHORT).show();
+        finish();
+    }
+
+    private void logFirstPixel(String source) {
+        if (BuildConfig.DEBUG && !mFirstPixelLogged) {
+            mFirstPixelLogged = true;
+            Log.d(TAG, "First pixel from the " + source + " after "
+                    + (SystemClock.uptimeMillis() - mCreateTimeMs) + " ms");
+        }
+    }
+}
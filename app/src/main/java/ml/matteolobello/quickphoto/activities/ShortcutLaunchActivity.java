@@ -0,0 +1,123 @@
+package ml.matteolobello.quickphoto.activities;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.UriPermission;
+import android.content.pm.ShortcutManager;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import ml.matteolobello.quickphoto.utils.MainThreadMonitor;
+import ml.matteolobello.quickphoto.utils.SDKUtils;
+import ml.matteolobello.quickphoto.utils.ShortcutRegistry;
+
+/**
+ * The target of the shortcuts: for the Nougat icon shortcuts it counts the launch, so that
+ * the most used shortcuts are kept, then it opens the photo in {@link PhotoViewerActivity}
+ * and goes away without any UI.
+ * <p>
+ * The HomeScreen shortcuts are started by the launcher, from its own process, so this
+ * Activity is exported. Any app can start it then, so it only opens the photos the user
+ * picked, see {@link #isShortcutPhoto(Uri)}.
+ */
+public class ShortcutLaunchActivity extends Activity {
+
+    private static final String TAG = "ShortcutLaunchActivity";
+
+    /**
+     * The extra holding the ID of the launched shortcut.
+     */
+    private static final String EXTRA_SHORTCUT_ID = "shortcut_id";
+
+    /**
+     * Build the Intent launching the given photo through this Activity.
+     *
+     * @param context    The Context.
+     * @param shortcutId The ID of the shortcut.
+     * @param photoUri   The Uri of the photo.
+     * @return The shortcut Intent.
+     */
+    public static Intent newIntent(Context context, String shortcutId, Uri photoUri) {
+        return new Intent(context, ShortcutLaunchActivity.class)
+                .setAction(Intent.ACTION_VIEW)
+                .setData(photoUri)
+                .putExtra(EXTRA_SHORTCUT_ID, shortcutId)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+    }
+
+    /**
+     * Build the Intent of a HomeScreen shortcut, launching the given photo through this
+     * Activity.
+     *
+     * @param context  The Context.
+     * @param photoUri The Uri of the photo.
+     * @return The shortcut Intent.
+     */
+    public static Intent newIntent(Context context, Uri photoUri) {
+        return new Intent(context, ShortcutLaunchActivity.class)
+                .setAction(Intent.ACTION_VIEW)
+                .setData(photoUri)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        String shortcutId = getIntent().getStringExtra(EXTRA_SHORTCUT_ID);
+        if (shortcutId != null) {
+            ShortcutRegistry.get(this).recordLaunch(shortcutId);
+
+            if (SDKUtils.AT_LEAST_NOUGAT) {
+                final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.BINDER_CALL);
+                try {
+                    getSystemService(ShortcutManager.class).reportShortcutUsed(shortcutId);
+                } finally {
+                    MainThreadMonitor.end(MainThreadMonitor.Operation.BINDER_CALL, monitorStartNs);
+                }
+            }
+        }
+
+        Uri photoUri = getIntent().getData();
+        if (photoUri != null && isShortcutPhoto(photoUri)) {
+            startActivity(PhotoViewerActivity.newIntent(this, photoUri));
+        } else if (photoUri != null) {
+            Log.w(TAG, "Not opening " + photoUri + ", it isn't a picked photo");
+        }
+
+        finish();
+    }
+
+    /**
+     * Check if the Uri is one a shortcut can point to: a picked photo, which we hold a
+     * persisted permission for, or a MediaStore image, where the validation moves the
+     * shortcuts of the photos whose document went away. Anything else, our own providers
+     * included, must not be opened on behalf of the caller.
+     */
+    private boolean isShortcutPhoto(Uri uri) {
+        if (!"content".equalsIgnoreCase(uri.getScheme())) {
+            return false;
+        }
+
+        if (MediaStore.AUTHORITY.equals(uri.getAuthority()) && uri.getPath() != null
+                && uri.getPath().startsWith(MediaStore.Images.Media.EXTERNAL_CONTENT_URI.getPath())) {
+            return true;
+        }
+
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.BINDER_CALL);
+        try {
+            for (UriPermission permission : getContentResolver().getPersistedUriPermissions()) {
+                if (permission.isReadPermission() && uri.equals(permission.getUri())) {
+                    return true;
+                }
+            }
+        } finally {
+            MainThreadMonitor.end(MainThreadMonitor.Operation.BINDER_CALL, monitorStartNs);
+        }
+
+        return false;
+    }
+}
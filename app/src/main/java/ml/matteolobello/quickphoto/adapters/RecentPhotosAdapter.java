@@ -0,0 +1,211 @@
+package ml.matteolobello.quickphoto.adapters;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.util.Arrays;
+
+import ml.matteolobello.quickphoto.R;
+import ml.matteolobello.quickphoto.utils.PrefetchWindow;
+import ml.matteolobello.quickphoto.utils.RecentPhotosPager;
+import ml.matteolobello.quickphoto.utils.ThumbnailLoader;
+
+/**
+ * The grid of the recent photos of the device.
+ * <p>
+ * Photos are loaded one page at a time as the user scrolls towards the end, and the
+ * thumbnails of the next rows are prefetched in the scroll direction.
+ * Only ids and orientations are kept, so the grid stays light with any number of photos.
+ */
+public class RecentPhotosAdapter extends RecyclerView.Adapter<RecentPhotosAdapter.ViewHolder>
+        implements RecentPhotosPager.Listener {
+
+    /**
+     * The number of columns of the grid.
+     */
+    public static final int SPAN_COUNT = 4;
+
+    /**
+     * The number of rows prefetched ahead of the visible ones.
+     */
+    private static final int PREFETCH_ROWS = 3;
+
+    /**
+     * The next page is loaded when the user gets this close to the end.
+     */
+    private static final int LOAD_THRESHOLD = RecentPhotosPager.PAGE_SIZE / 2;
+
+    /**
+     * Notified when a photo is tapped.
+     */
+    public interface OnPhotoClickListener {
+
+        /**
+         * @param uri The MediaStore Uri of the photo.
+         */
+        void onPhotoClick(Uri uri);
+    }
+
+    private final ThumbnailLoader mThumbnailLoader;
+    private final RecentPhotosPager mPager;
+    private final OnPhotoClickListener mListener;
+    private final int mCellSize;
+
+    private long[] mIds = new long[RecentPhotosPager.PAGE_SIZE];
+    private int[] mOrientations = new int[RecentPhotosPager.PAGE_SIZE];
+    private int mCount;
+
+    private final RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+            int firstVisible = layoutManager.findFirstVisibleItemPosition();
+            int lastVisible = layoutManager.findLastVisibleItemPosition();
+
+            if (lastVisible >= mCount - LOAD_THRESHOLD) {
+                mPager.loadNextPage();
+            }
+
+            PrefetchWindow prefetchWindow = PrefetchWindow.ahead(firstVisible, lastVisible, dy,
+                    PREFETCH_ROWS * SPAN_COUNT, mCount);
+            for (int position = prefetchWindow.getStart(); position < prefetchWindow.getEnd(); position++) {
+                mThumbnailLoader.prefetch(mIds[position]);
+            }
+        }
+    };
+
+    /**
+     * @param context  The Context.
+     * @param cellSize The size of the grid cells, in pixels.
+     * @param listener Notified when a photo is tapped.
+     */
+    public RecentPhotosAdapter(Context context, int cellSize, OnPhotoClickListener listener) {
+        mThumbnailLoader = new ThumbnailLoader(context, cellSize);
+        mPager = new RecentPhotosPager(context, this);
+        mListener = listener;
+        mCellSize = cellSize;
+
+        setHasStableIds(true);
+    }
+
+    /**
+     * Attach the grid, and start loading the first page.
+     *
+     * @param recyclerView The RecyclerView.
+     */
+    public void attach(RecyclerView recyclerView) {
+        recyclerView.setLayoutManager(new GridLayoutManager(recyclerView.getContext(), SPAN_COUNT));
+        recyclerView.setHasFixedSize(true);
+        recyclerView.addOnScrollListener(mScrollListener);
+        recyclerView.setAdapter(this);
+
+        mPager.loadNextPage();
+    }
+
+    /**
+     * Reload the photos if the MediaStore changed while the grid was hidden.
+     */
+    public void refreshIfStale() {
+        if (mPager.isStale()) {
+            mPager.reset();
+            mCount = 0;
+            notifyDataSetChanged();
+
+            mPager.loadNextPage();
+        }
+    }
+
+    /**
+     * Stop loading pages and thumbnails.
+     */
+    public void release() {
+        mPager.release();
+        mThumbnailLoader.release();
+    }
+
+    /**
+     * @return A readable summary of the grid and its thumbnail cache.
+     */
+    public String getStats() {
+        return "photos=" + mCount + " thumbnails={" + mThumbnailLoader.getStats() + "}";
+    }
+
+    @Override
+    public void onPageLoaded(RecentPhotosPager.Page page) {
+        if (page.size() == 0) {
+            return;
+        }
+
+        if (mCount + page.size() > mIds.length) {
+            int capacity = Math.max(mIds.length * 2, mCount + page.size());
+            mIds = Arrays.copyOf(mIds, capacity);
+            mOrientations = Arrays.copyOf(mOrientations, capacity);
+        }
+
+        final int start = mCount;
+        for (int i = 0; i < page.size(); i++) {
+            mIds[start + i] = page.getId(i);
+            mOrientations[start + i] = page.getOrientation(i);
+        }
+        mCount += page.size();
+
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_recent_photo, parent, false);
+        view.getLayoutParams().height = mCellSize;
+
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        mThumbnailLoader.load(holder.mImageView, mIds[position], mOrientations[position]);
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mThumbnailLoader.cancel(holder.mImageView);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mIds[position];
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCount;
+    }
+
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        private final ImageView mImageView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+
+            mImageView = (ImageView) itemView.findViewById(R.id.recent_photo_image_view);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mListener.onPhotoClick(ContentUris.withAppendedId(
+                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI, mIds[position]));
+            }
+        }
+    }
+}
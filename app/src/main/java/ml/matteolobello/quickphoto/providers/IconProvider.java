@@ -0,0 +1,69 @@
+package ml.matteolobello.quickphoto.providers;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import ml.matteolobello.quickphoto.utils.ShortcutIconStore;
+
+/**
+ * Serves the icons of the Nougat icon shortcuts, read-only, to the launcher, see
+ * {@link ShortcutIconStore}.
+ * <p>
+ * The provider isn't exported: the ShortcutManager grants the launcher access to the
+ * icon Uris of the shortcuts it publishes.
+ */
+public class IconProvider extends ContentProvider {
+
+    private static final String ICON_MIME_TYPE = "image/webp";
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Icons are read-only: " + uri);
+        }
+
+        final File file = ShortcutIconStore.get(getContext()).getFile(uri.getLastPathSegment());
+        if (file == null) {
+            throw new FileNotFoundException("No such icon: " + uri);
+        }
+
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return ICON_MIME_TYPE;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Icons are read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Icons are read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Icons are read-only");
+    }
+}
@@ -0,0 +1,105 @@
+package ml.matteolobello.quickphoto.services;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import ml.matteolobello.quickphoto.utils.SDKUtils;
+import ml.matteolobello.quickphoto.utils.ShortcutValidator;
+import ml.matteolobello.quickphoto.utils.WorkBudget;
+
+/**
+ * Validates the Nougat icon shortcuts once a day, see {@link ShortcutValidator}.
+ * <p>
+ * The job only runs while the device is idle and charging, so never while the user is
+ * using it, and every run is bounded in time and in bytes read. When the budget runs
+ * out, or the system stops the job, the rest is done by the next run.
+ */
+@TargetApi(Build.VERSION_CODES.N_MR1)
+public class ShortcutValidationService extends JobService {
+
+    private static final String TAG = "ShortcutValidation";
+
+    private static final int JOB_ID = 1001;
+
+    private static final long PERIOD_MS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The time and I/O allowance of a single run.
+     */
+    private static final long MAX_RUN_MS = TimeUnit.SECONDS.toMillis(10);
+    private static final long MAX_RUN_BYTES = 8 * 1024 * 1024;
+
+    private volatile WorkBudget mBudget;
+
+    /**
+     * Schedule the periodic validation, unless it's already scheduled.
+     *
+     * @param context The Context.
+     */
+    public static void schedule(Context context) {
+        if (!SDKUtils.AT_LEAST_NOUGAT) {
+            return;
+        }
+
+        JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, ShortcutValidationService.class))
+                .setPeriodic(PERIOD_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final WorkBudget budget = new WorkBudget(SystemClock.elapsedRealtime(), MAX_RUN_MS, MAX_RUN_BYTES);
+        mBudget = budget;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                boolean finished = false;
+                try {
+                    finished = new ShortcutValidator(getApplicationContext()).validate(budget);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Validation failed", e);
+                }
+
+                // After onStopJob the system doesn't want to hear from us
+                if (!budget.isCancelled()) {
+                    jobFinished(params, !finished);
+                }
+            }
+        }, TAG).start();
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        WorkBudget budget = mBudget;
+        if (budget != null) {
+            budget.cancel();
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named threads running with background priority, so that they never
+ * compete with the UI thread.
+ */
+class BackgroundThreadFactory implements ThreadFactory {
+
+    private final String mName;
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+
+    BackgroundThreadFactory(String name) {
+        mName = name;
+    }
+
+    @Override
+    public Thread newThread(@NonNull final Runnable runnable) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }
+        }, mName + " #" + mThreadCount.incrementAndGet());
+    }
+}
@@ -0,0 +1,261 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ml.matteolobello.quickphoto.BuildConfig;
+import ml.matteolobello.quickphoto.imaging.BandedDownscaler;
+import ml.matteolobello.quickphoto.imaging.CropRect;
+import ml.matteolobello.quickphoto.imaging.DecodeBudget;
+import ml.matteolobello.quickphoto.imaging.SampleSize;
+
+/**
+ * Decodes very large photos and long panoramas on all the cores: the photo is decoded in
+ * horizontal bands by region decoders, one per worker, and each band is area filtered
+ * down to the exact size by a {@link BandedDownscaler} as soon as it's decoded.
+ * The memory used is bounded by the band size, never the photo size.
+ * <p>
+ * Smaller photos are better off with a single sub-sampled decode, which doesn't pay for
+ * opening several region decoders, see {@link #shouldDecodeInBands(int, int)}.
+ */
+class BandedDecoder {
+
+    private static final String TAG = "BandedDecoder";
+
+    /**
+     * The photos from this size on are decoded in bands.
+     */
+    private static final long MIN_PIXELS = 32L * 1000 * 1000;
+
+    /**
+     * The panoramas from this aspect ratio on are decoded in bands.
+     */
+    private static final int MIN_PANORAMA_ASPECT_RATIO = 4;
+
+    /**
+     * The decoded pixels of a band: 4 MB in ARGB_8888.
+     */
+    private static final int BAND_PIXELS = 1024 * 1024;
+
+    /**
+     * The workers of a decode, the calling thread included.
+     */
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Runs the workers other than the calling thread. ForkJoinPool needs API 21, so a
+     * plain pool does the forking and the calling thread the joining.
+     */
+    private static ExecutorService sExecutor;
+
+    private BandedDecoder() {
+    }
+
+    /**
+     * @param width  The width of the region to decode.
+     * @param height The height of the region to decode.
+     * @return true if the region is big or long enough to be decoded in bands.
+     */
+    static boolean shouldDecodeInBands(int width, int height) {
+        return WORKERS > 1 && ((long) width * height >= MIN_PIXELS
+                || Math.max(width, height) >= Math.min(width, height) * MIN_PANORAMA_ASPECT_RATIO);
+    }
+
+    /**
+     * Decode a region of the image behind the given Uri, at exactly the given size.
+     * Give the result back to the {@link BitmapPool} once done.
+     *
+     * @param context   The Context.
+     * @param uri       The Uri of the image.
+     * @param region    The region to decode.
+     * @param dstWidth  The output width, at most the region width.
+     * @param dstHeight The output height, at most the region height.
+     * @return The decoded region, or null if the format isn't supported by the region
+     * decoder or memory is too short to decode the bands as planned.
+     */
+    static Bitmap decode(Context context, final Uri uri, CropRect region, int dstWidth, int dstHeight) {
+        final ContentResolver contentResolver = context.getContentResolver();
+        final BitmapPool bitmapPool = BitmapPool.get(context);
+        final DecodeGovernor decodeGovernor = DecodeGovernor.get(context);
+
+        final int sampleSize = SampleSize.calculate(region.getWidth(), region.getHeight(), dstWidth, dstHeight);
+
+        // The region decoder rounds the sampled sizes down, unlike the other decoders: with
+        // sides and bands multiples of the sample size, every band has the planned size
+        final CropRect alignedRegion = region.alignTo(sampleSize);
+        final int sampledWidth = alignedRegion.getWidth() / sampleSize;
+        final int sampledHeight = alignedRegion.getHeight() / sampleSize;
+
+        final BandedDownscaler downscaler = new BandedDownscaler(sampledWidth, sampledHeight, dstWidth, dstHeight,
+                BandedDownscaler.bandHeightFor(sampledWidth, BAND_PIXELS, 1));
+
+        // The idle region decoders, opened on demand, at most one per worker. Guarded by itself.
+        final ArrayDeque<RegionDecoder> decoders = new ArrayDeque<>();
+        final RegionDecoder firstDecoder = RegionDecoder.open(contentResolver, uri);
+        if (firstDecoder == null) {
+            return null;
+        }
+        decoders.push(firstDecoder);
+
+        final BandedDownscaler.BandSource bandSource = new BandedDownscaler.BandSource() {
+            @Override
+            public boolean readBand(int firstRow, int rowCount, int[] pixels) {
+                RegionDecoder decoder;
+                synchronized (decoders) {
+                    decoder = decoders.poll();
+                }
+                if (decoder == null) {
+                    decoder = RegionDecoder.open(contentResolver, uri);
+                    if (decoder == null) {
+                        return false;
+                    }
+                }
+
+                try {
+                    final int top = alignedRegion.getTop() + firstRow * sampleSize;
+                    final Rect rect = new Rect(alignedRegion.getLeft(), top, alignedRegion.getRight(),
+                            top + rowCount * sampleSize);
+
+                    return decodeBand(decoder, rect, sampleSize, sampledWidth, rowCount, pixels,
+                            bitmapPool, decodeGovernor);
+                } finally {
+                    synchronized (decoders) {
+                        decoders.push(decoder);
+                    }
+                }
+            }
+        };
+
+        final int[] dstPixels = new int[dstWidth * dstHeight];
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.BANDED_DECODE);
+        final long startMs = SystemClock.elapsedRealtime();
+        try {
+            if (!downscaler.scale(bandSource, getExecutor(), WORKERS, dstPixels)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return null;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.BANDED_DECODE, startNs);
+
+            // scale() waits for the workers, unless interrupted: a worker still running
+            // then keeps its decoder, and the GC closes it
+            synchronized (decoders) {
+                for (RegionDecoder decoder : decoders) {
+                    decoder.recycle();
+                }
+                decoders.clear();
+            }
+        }
+
+        Bitmap bitmap = bitmapPool.get(dstWidth, dstHeight);
+        bitmap.setPixels(dstPixels, 0, dstWidth, 0, 0, dstWidth, dstHeight);
+
+        PipelineMetrics.addBytes(PipelineMetrics.Stage.BANDED_DECODE, bitmap.getByteCount());
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Decoded " + region.getWidth() + "x" + region.getHeight() + " to " + dstWidth + "x"
+                    + dstHeight + " in " + downscaler.getBandCount() + " bands at 1/" + sampleSize + " in "
+                    + (SystemClock.elapsedRealtime() - startMs) + " ms");
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Decode a band, admitted by the {@link DecodeGovernor}, and read its pixels.
+     *
+     * @return false if the band couldn't be decoded with the planned sample size.
+     */
+    private static boolean decodeBand(RegionDecoder decoder, Rect rect, int sampleSize,
+                                      int sampledWidth, int rowCount, int[] pixels,
+                                      BitmapPool bitmapPool, DecodeGovernor decodeGovernor) {
+        final DecodeBudget.Ticket ticket = decodeGovernor.acquire(rect.width(), rect.height(), sampleSize);
+        if (ticket == null) {
+            return false;
+        }
+
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.DECODE);
+        try {
+            // The bands must line up, the caller falls back to a single degraded decode
+            if (ticket.getSampleSize() != sampleSize) {
+                Log.w(TAG, "Not enough memory to decode bands at 1/" + sampleSize);
+
+                return false;
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            DecodeGovernor.applyTo(ticket, options);
+            options.inMutable = true;
+            options.inBitmap = bitmapPool.getReusableForRegion(sampledWidth, rowCount,
+                    options.inPreferredConfig);
+
+            Bitmap band;
+            try {
+                band = decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+
+                band = decoder.decodeRegion(rect, options);
+            }
+
+            if (band == null) {
+                if (options.inBitmap != null) {
+                    bitmapPool.put(options.inBitmap);
+                }
+
+                return false;
+            }
+
+            PipelineMetrics.addBytes(PipelineMetrics.Stage.DECODE, band.getByteCount());
+
+            try {
+                if (band.getWidth() != sampledWidth || band.getHeight() != rowCount) {
+                    Log.w(TAG, "Unexpected band size " + band.getWidth() + "x" + band.getHeight());
+
+                    return false;
+                }
+
+                band.getPixels(pixels, 0, sampledWidth, 0, 0, sampledWidth, rowCount);
+
+                return true;
+            } finally {
+                bitmapPool.put(band);
+            }
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.DECODE, startNs);
+            decodeGovernor.release(ticket);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            final int threads = Math.max(1, WORKERS - 1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory(TAG));
+            executor.allowCoreThreadTimeOut(true);
+
+            sExecutor = executor;
+        }
+
+        return sExecutor;
+    }
+}
@@ -0,0 +1,82 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.graphics.Bitmap;
+
+import ml.matteolobello.quickphoto.imaging.CircleIconKernel;
+import ml.matteolobello.quickphoto.imaging.SaliencyCrop;
+
+/**
+ * Moves pixels between Bitmaps and the int[] ARGB buffers used by the kernels of the
+ * imaging module, reusing the buffers between calls.
+ * There is one adapter per thread, get it with {@link #forCurrentThread()}.
+ */
+public class BitmapPixelAdapter {
+
+    private static final ThreadLocal<BitmapPixelAdapter> sAdapters = new ThreadLocal<BitmapPixelAdapter>() {
+        @Override
+        protected BitmapPixelAdapter initialValue() {
+            return new BitmapPixelAdapter();
+        }
+    };
+
+    private final CircleIconKernel mIconKernel = new CircleIconKernel();
+    private final SaliencyCrop mSaliencyCrop = new SaliencyCrop();
+
+    private int[] mSourcePixels = new int[0];
+    private int[] mOutputPixels = new int[0];
+
+    private BitmapPixelAdapter() {
+    }
+
+    /**
+     * @return The adapter of the current thread.
+     */
+    public static BitmapPixelAdapter forCurrentThread() {
+        return sAdapters.get();
+    }
+
+    /**
+     * @return The icon kernel of the current thread.
+     */
+    public CircleIconKernel getIconKernel() {
+        return mIconKernel;
+    }
+
+    /**
+     * @return The saliency analysis of the current thread.
+     */
+    public SaliencyCrop getSaliencyCrop() {
+        return mSaliencyCrop;
+    }
+
+    /**
+     * Read the pixels of a Bitmap, row by row.
+     *
+     * @param bitmap The Bitmap.
+     * @return The reused buffer, at least width * height long.
+     */
+    public int[] readPixels(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        if (mSourcePixels.length < width * height) {
+            mSourcePixels = new int[width * height];
+        }
+
+        bitmap.getPixels(mSourcePixels, 0, width, 0, 0, width, height);
+
+        return mSourcePixels;
+    }
+
+    /**
+     * @param length The number of pixels needed.
+     * @return The reused output buffer, at least length long.
+     */
+    public int[] getOutputPixels(int length) {
+        if (mOutputPixels.length < length) {
+            mOutputPixels = new int[length];
+        }
+
+        return mOutputPixels;
+    }
+}
@@ -0,0 +1,266 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of mutable Bitmaps, grouped by allocation size, reused for decodes
+ * (through BitmapFactory.Options.inBitmap) and for the render buffers, instead of
+ * allocating new ones and stressing the GC.
+ * <p>
+ * The pool keeps at most a configurable amount of bytes, dropping the least recently
+ * returned Bitmaps first, and it is trimmed when the system is low on memory.
+ */
+public class BitmapPool implements ComponentCallbacks2 {
+
+    private static final String TAG = "BitmapPool";
+
+    /**
+     * A pooled Bitmap is reused only if it isn't bigger than this multiple of the
+     * needed bytes, to not waste memory.
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    /**
+     * The default budget, as a fraction of the heap.
+     */
+    private static final int DEFAULT_HEAP_FRACTION = 16;
+
+    private static BitmapPool sInstance;
+
+    /**
+     * The pooled Bitmaps, by allocation size. Guarded by this.
+     */
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mSizeClasses = new TreeMap<>();
+
+    /**
+     * The pooled Bitmaps, from the least recently returned. Guarded by this.
+     */
+    private final LinkedHashMap<Bitmap, Integer> mLruBitmaps = new LinkedHashMap<>();
+
+    private long mMaxBytes;
+    private long mCurrentBytes;
+
+    private long mRequests;
+    private long mHits;
+    private long mPuts;
+    private long mEvictions;
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Get the app-wide pool, trimmed automatically on low memory.
+     *
+     * @param context The Context.
+     * @return The BitmapPool.
+     */
+    public static synchronized BitmapPool get(Context context) {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Change the budget of the pool, trimming it if needed.
+     *
+     * @param maxBytes The maximum amount of bytes kept.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Get a mutable ARGB_8888 Bitmap with the given size, reusing a pooled one if possible.
+     * Its content is undefined.
+     *
+     * @param width  The width.
+     * @param height The height.
+     * @return The Bitmap.
+     */
+    public Bitmap get(int width, int height) {
+        Bitmap bitmap = getReusable(width, height);
+        if (bitmap != null) {
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+
+            return bitmap;
+        }
+
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Get a pooled Bitmap big enough to hold the given size, to be used as
+     * BitmapFactory.Options.inBitmap.
+     *
+     * @param width  The width.
+     * @param height The height.
+     * @return The Bitmap, or null if none fits.
+     */
+    public synchronized Bitmap getReusable(int width, int height) {
+        mRequests++;
+
+        final int neededBytes = width * height * 4;
+
+        Map.Entry<Integer, ArrayDeque<Bitmap>> sizeClass = mSizeClasses.ceilingEntry(neededBytes);
+        if (sizeClass == null || sizeClass.getKey() > (long) neededBytes * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+
+        Bitmap bitmap = sizeClass.getValue().pollLast();
+        remove(bitmap, sizeClass.getKey());
+        mHits++;
+
+        return bitmap;
+    }
+
+    /**
+     * Get a pooled Bitmap reconfigured to exactly the given size and config, to be used as
+     * BitmapRegionDecoder inBitmap: unlike BitmapFactory, the region decoder keeps the
+     * size and config of the inBitmap and only draws the region in its top-left corner.
+     * It's cleared, so that no pixel of an earlier image is left around the region.
+     *
+     * @param width  The decoded width.
+     * @param height The decoded height.
+     * @param config The decoded config.
+     * @return The Bitmap, or null if none fits.
+     */
+    public Bitmap getReusableForRegion(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getReusable(width, height);
+        if (bitmap != null) {
+            bitmap.reconfigure(width, height, config);
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Return a Bitmap to the pool. Immutable and recycled Bitmaps are ignored.
+     *
+     * @param bitmap The Bitmap, that must not be used anymore by the caller.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || mLruBitmaps.containsKey(bitmap)) {
+            return;
+        }
+
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bytes > mMaxBytes) {
+            bitmap.recycle();
+
+            return;
+        }
+
+        ArrayDeque<Bitmap> sizeClass = mSizeClasses.get(bytes);
+        if (sizeClass == null) {
+            sizeClass = new ArrayDeque<>();
+            mSizeClasses.put(bytes, sizeClass);
+        }
+
+        sizeClass.addLast(bitmap);
+        mLruBitmaps.put(bitmap, bytes);
+        mCurrentBytes += bytes;
+        mPuts++;
+
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Drop pooled Bitmaps, from the least recently returned, until the pool fits the given size.
+     */
+    private synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Bitmap, Integer>> iterator = mLruBitmaps.entrySet().iterator();
+
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Bitmap, Integer> entry = iterator.next();
+            Bitmap bitmap = entry.getKey();
+            int bytes = entry.getValue();
+
+            iterator.remove();
+            mCurrentBytes -= bytes;
+            mEvictions++;
+
+            ArrayDeque<Bitmap> sizeClass = mSizeClasses.get(bytes);
+            sizeClass.remove(bitmap);
+            if (sizeClass.isEmpty()) {
+                mSizeClasses.remove(bytes);
+            }
+
+            bitmap.recycle();
+        }
+    }
+
+    private void remove(Bitmap bitmap, int bytes) {
+        mLruBitmaps.remove(bitmap);
+        mCurrentBytes -= bytes;
+
+        ArrayDeque<Bitmap> sizeClass = mSizeClasses.get(bytes);
+        if (sizeClass.isEmpty()) {
+            mSizeClasses.remove(bytes);
+        }
+    }
+
+    /**
+     * Drop every pooled Bitmap.
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return The ratio of the requests served by a pooled Bitmap, from 0 to 1.
+     */
+    public synchronized float getReuseRate() {
+        return mRequests == 0 ? 0f : (float) mHits / mRequests;
+    }
+
+    /**
+     * @return A readable summary of the counters.
+     */
+    public synchronized String getStats() {
+        return "requests=" + mRequests
+                + " hits=" + mHits
+                + " reuseRate=" + getReuseRate()
+                + " puts=" + mPuts
+                + " evictions=" + mEvictions
+                + " bytes=" + mCurrentBytes + "/" + mMaxBytes;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(mMaxBytes / 2);
+            }
+        }
+
+        Log.d(TAG, "Trimmed for level " + level + ": " + getStats());
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
@@ -1,95 +1,552 @@
 package ml.matteolobello.quickphoto.utils;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.net.Uri;
-import android.provider.MediaStore;
+import android.os.ParcelFileDescriptor;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+
+import ml.matteolobello.quickphoto.imaging.CropRect;
+import ml.matteolobello.quickphoto.imaging.DecodeBudget;
+import ml.matteolobello.quickphoto.imaging.ExifInfo;
+import ml.matteolobello.quickphoto.imaging.ExifReader;
+import ml.matteolobello.quickphoto.imaging.Orientation;
+import ml.matteolobello.quickphoto.imaging.SaliencyCrop;
+import ml.matteolobello.quickphoto.imaging.SampleSize;
 
 public class BitmapUtils {
 
     /**
-     * Create a round version of the given Bitmap.
+     * The buffer used to read EXIF headers: most fit in it, so we read the file once.
+     */
+    private static final int EXIF_BUFFER_BYTES = 16 * 1024;
+
+    /**
+     * The Paint used to scale Bitmaps, with bilinear filtering.
+     */
+    private static final Paint FILTER_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * The time the saliency analysis may take per image, past which the icon is center
+     * cropped. It usually takes a fraction of a millisecond.
+     */
+    private static final long SALIENCY_BUDGET_NS = 2 * 1000000;
+
+    /**
+     * Create a round and upright icon of the square of the given Bitmap with the most detail,
+     * in a single pass.
+     *
+     * @param context     The Context.
+     * @param bitmap      The Bitmap.
+     * @param orientation The EXIF {@link Orientation} of the Bitmap.
+     * @param size        The icon size.
+     * @return The round icon.
+     */
+    public static Bitmap getRoundedIcon(Context context, Bitmap bitmap, int orientation, int size) {
+        return getRoundedIcons(context, bitmap, orientation, size)[0];
+    }
+
+    /**
+     * Create round and upright icons of the square of the given Bitmap with the most detail
+     * at several sizes, reading its pixels only once. Equal sizes share the same icon.
+     * The square is found by {@link SaliencyCrop}, or is the center one.
+     *
+     * @param context     The Context.
+     * @param bitmap      The Bitmap, at least as big as the biggest size.
+     * @param orientation The EXIF {@link Orientation} of the Bitmap.
+     * @param sizes       The icon sizes.
+     * @return The round icons, in the order of the sizes.
+     */
+    public static Bitmap[] getRoundedIcons(Context context, Bitmap bitmap, int orientation, int... sizes) {
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.ROUND);
+        try {
+            final BitmapPixelAdapter adapter = BitmapPixelAdapter.forCurrentThread();
+
+            int[] sourcePixels = adapter.readPixels(bitmap);
+            final float position = findSquarePosition(adapter, sourcePixels, bitmap.getWidth(), bitmap.getHeight());
+
+            Bitmap[] icons = new Bitmap[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                final int size = sizes[i];
+                for (int j = 0; j < i && icons[i] == null; j++) {
+                    if (sizes[j] == size) {
+                        icons[i] = icons[j];
+                    }
+                }
+                if (icons[i] != null) {
+                    continue;
+                }
+
+                int[] iconPixels = adapter.getOutputPixels(size * size);
+                adapter.getIconKernel().render(sourcePixels, bitmap.getWidth(), bitmap.getHeight(), orientation,
+                        position, iconPixels, size);
+
+                PipelineMetrics.addBytes(PipelineMetrics.Stage.ROUND,
+                        size * size * SampleSize.ARGB_8888_BYTES_PER_PIXEL);
+
+                icons[i] = BitmapPool.get(context).get(size, size);
+                icons[i].setPixels(iconPixels, 0, size, 0, 0, size, size);
+            }
+
+            return icons;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.ROUND, startNs);
+        }
+    }
+
+    /**
+     * Find the square with the most detail of the image described by the given EXIF data,
+     * from its embedded thumbnail, whatever its size: the main image is never decoded.
+     *
+     * @param exifInfo The EXIF data of the image.
+     * @return The position of the square along the stored long edge, as found by
+     * {@link SaliencyCrop}, or {@link SaliencyCrop#CENTER} if there is no complete thumbnail.
+     */
+    public static float findSquarePosition(ExifInfo exifInfo) {
+        final byte[] thumbnail = exifInfo.getThumbnail();
+        if (thumbnail == null) {
+            return SaliencyCrop.CENTER;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+
+        if (!exifInfo.isThumbnailComplete(options.outWidth, options.outHeight)) {
+            return SaliencyCrop.CENTER;
+        }
+
+        options.inJustDecodeBounds = false;
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+        if (bitmap == null) {
+            return SaliencyCrop.CENTER;
+        }
+
+        final BitmapPixelAdapter adapter = BitmapPixelAdapter.forCurrentThread();
+        final float position = findSquarePosition(adapter, adapter.readPixels(bitmap),
+                bitmap.getWidth(), bitmap.getHeight());
+        bitmap.recycle();
+
+        return position;
+    }
+
+    /**
+     * Run the saliency analysis within its time budget.
+     */
+    private static float findSquarePosition(BitmapPixelAdapter adapter, int[] pixels, int width, int height) {
+        if (width == height) {
+            return SaliencyCrop.CENTER;
+        }
+
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.SALIENCY);
+        try {
+            return adapter.getSaliencyCrop().findSquare(pixels, width, height, SALIENCY_BUDGET_NS);
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.SALIENCY, startNs);
+        }
+    }
+
+    /**
+     * Read the EXIF header of the image behind the given Uri: only the first few KB of the
+     * file are read, never the image data.
+     *
+     * @param context The Context.
+     * @param uri     The Uri of the image.
+     * @return The EXIF data, {@link ExifInfo#NONE} if there is none.
+     */
+    public static ExifInfo readExif(Context context, Uri uri) {
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.EXIF);
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.FILE_IO);
+
+        InputStream inputStream = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            if (inputStream != null) {
+                return ExifReader.read(new BufferedInputStream(inputStream, EXIF_BUFFER_BYTES));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(inputStream);
+            MainThreadMonitor.end(MainThreadMonitor.Operation.FILE_IO, monitorStartNs);
+            PipelineMetrics.end(PipelineMetrics.Stage.EXIF, startNs);
+        }
+
+        return ExifInfo.NONE;
+    }
+
+    /**
+     * Decode the thumbnail embedded in the EXIF data, if an icon of the given size can be
+     * rendered from it, so that the main image is never decoded.
+     * Give the result back to the {@link BitmapPool} once done.
+     *
+     * @param exifInfo The EXIF data of the image.
+     * @param iconSize The icon size.
+     * @return The thumbnail, or null if there is none or it's too small.
+     */
+    public static Bitmap decodeExifThumbnail(ExifInfo exifInfo, int iconSize) {
+        final byte[] thumbnail = exifInfo.getThumbnail();
+        if (thumbnail == null) {
+            return null;
+        }
+
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.DECODE);
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+
+            if (!exifInfo.isThumbnailUsable(options.outWidth, options.outHeight, iconSize)) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inMutable = true;
+
+            Bitmap bitmap = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+            if (bitmap != null) {
+                PipelineMetrics.addBytes(PipelineMetrics.Stage.DECODE, bitmap.getByteCount());
+            }
+
+            return bitmap;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.DECODE, startNs);
+        }
+    }
+
+    /**
+     * Decode the image behind the given Uri, at the smallest size that still fills
+     * the requested width and height.
+     * Only the bounds are read first, then the image is decoded with a power-of-two
+     * sample size and finally scaled to the exact size, so that we never allocate
+     * the full resolution Bitmap. Very large photos and long panoramas are decoded in
+     * bands on all the cores instead, by the {@link BandedDecoder}.
+     * The decode is admitted by the {@link DecodeGovernor}, which may degrade it to a
+     * larger sample size or RGB_565 when memory is short.
+     * Both steps reuse Bitmaps from the {@link BitmapPool}: give the result back to it
+     * with {@link BitmapPool#put(Bitmap)} once done.
+     *
+     * @param context   The Context.
+     * @param uri       The Uri of the image.
+     * @param reqWidth  The width we need.
+     * @param reqHeight The height we need.
+     * @return The decoded Bitmap, or null if the image couldn't be decoded.
+     */
+    public static Bitmap getBitmapFromUri(Context context, Uri uri, int reqWidth, int reqHeight) {
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.DECODE);
+        try {
+            return decodeBitmapFromUri(context, uri, reqWidth, reqHeight);
+        } finally {
+            MainThreadMonitor.end(MainThreadMonitor.Operation.DECODE, monitorStartNs);
+        }
+    }
+
+    private static Bitmap decodeBitmapFromUri(Context context, Uri uri, int reqWidth, int reqHeight) {
+        ContentResolver contentResolver = context.getContentResolver();
+        BitmapPool bitmapPool = BitmapPool.get(context);
+        DecodeGovernor decodeGovernor = DecodeGovernor.get(context);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (!decodeBounds(contentResolver, uri, options) || options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        Bitmap bandedBitmap = decodeInBands(context, uri, new CropRect(0, 0, options.outWidth, options.outHeight),
+                reqWidth, reqHeight);
+        if (bandedBitmap != null) {
+            return bandedBitmap;
+        }
+
+        int sampleSize = SampleSize.calculate(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        DecodeBudget.Ticket ticket = decodeGovernor.acquire(options.outWidth, options.outHeight, sampleSize);
+        if (ticket == null) {
+            return null;
+        }
+
+        try {
+            Bitmap sampledBitmap;
+            long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.DECODE);
+            try {
+                DecodeGovernor.applyTo(ticket, options);
+                options.inJustDecodeBounds = false;
+                options.inMutable = true;
+                options.inBitmap = bitmapPool.getReusable(ticket.getDecodedWidth(), ticket.getDecodedHeight());
+
+                sampledBitmap = decodeStreamToBitmap(contentResolver, uri, options, bitmapPool);
+                if (sampledBitmap == null) {
+                    return null;
+                }
+
+                PipelineMetrics.addBytes(PipelineMetrics.Stage.DECODE, sampledBitmap.getByteCount());
+            } finally {
+                PipelineMetrics.end(PipelineMetrics.Stage.DECODE, startNs);
+            }
+
+            return scaleToFill(bitmapPool, sampledBitmap, reqWidth, reqHeight);
+        } finally {
+            decodeGovernor.release(ticket);
+        }
+    }
+
+    /**
+     * Decode only a square of the image behind the given Uri, at the smallest size that
+     * still fills the icon.
+     * The crop is worked out from the bounds alone, then only that region is decoded,
+     * sub-sampled, with a {@link BitmapRegionDecoder}: the long edge of the photo is never
+     * decoded. Very large squares are decoded in bands, by the {@link BandedDecoder}.
+     * Square images and the formats the region decoder doesn't support go through
+     * {@link #getBitmapFromUri(Context, Uri, int, int)}, the kernel crops them then.
+     * Give the result back to the {@link BitmapPool} once done.
      *
-     * @param bitmap The Bitmap.
-     * @return The Rounded version of the Bitmap.
+     * @param context  The Context.
+     * @param uri      The Uri of the image.
+     * @param size     The icon size.
+     * @param position The position of the square along the stored long edge, as found by
+     *                 {@link SaliencyCrop}.
+     * @return The decoded square, or the whole image, or null if it couldn't be decoded.
      */
-    public static Bitmap getRoundedBitmap(Bitmap bitmap) {
-        Bitmap output;
+    public static Bitmap getSquareBitmapFromUri(Context context, Uri uri, int size, float position) {
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.DECODE);
+        try {
+            return decodeSquareBitmapFromUri(context, uri, size, position);
+        } finally {
+            MainThreadMonitor.end(MainThreadMonitor.Operation.DECODE, monitorStartNs);
+        }
+    }
 
-        output = bitmap.getWidth() > bitmap.getHeight()
-                ? Bitmap.createBitmap(bitmap.getHeight(), bitmap.getHeight(), Bitmap.Config.ARGB_8888)
-                : Bitmap.createBitmap(bitmap.getWidth(), bitmap.getWidth(), Bitmap.Config.ARGB_8888);
+    private static Bitmap decodeSquareBitmapFromUri(Context context, Uri uri, int size, float position) {
+        ContentResolver contentResolver = context.getContentResolver();
+        BitmapPool bitmapPool = BitmapPool.get(context);
+        DecodeGovernor decodeGovernor = DecodeGovernor.get(context);
 
-        Canvas canvas = new Canvas(output);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (!decodeBounds(contentResolver, uri, options) || options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
 
-        final int color = 0xff424242;
-        final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        CropRect crop = CropRect.square(options.outWidth, options.outHeight, position);
+        if (crop.coversImage(options.outWidth, options.outHeight)) {
+            return decodeBitmapFromUri(context, uri, size, size);
+        }
 
-        float radius = 0;
+        Bitmap bandedBitmap = decodeInBands(context, uri, crop, size, size);
+        if (bandedBitmap != null) {
+            return bandedBitmap;
+        }
 
-        if (bitmap.getWidth() > bitmap.getHeight()) {
-            radius = bitmap.getHeight() / 2;
-        } else {
-            radius = bitmap.getWidth() / 2;
+        int sampleSize = SampleSize.calculate(crop.getWidth(), crop.getHeight(), size, size);
+        DecodeBudget.Ticket ticket = decodeGovernor.acquire(crop.getWidth(), crop.getHeight(), sampleSize);
+        if (ticket == null) {
+            return null;
         }
 
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(color);
-        canvas.drawCircle(radius, radius, radius, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
+        try {
+            Bitmap sampledBitmap;
+            long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.DECODE);
+            try {
+                DecodeGovernor.applyTo(ticket, options);
+                options.inJustDecodeBounds = false;
+                options.inMutable = true;
+                options.inBitmap = bitmapPool.getReusableForRegion(ticket.getDecodedWidth(),
+                        ticket.getDecodedHeight(), options.inPreferredConfig);
+
+                sampledBitmap = decodeRegion(contentResolver, uri, crop, options, bitmapPool);
+                if (sampledBitmap != null) {
+                    PipelineMetrics.addBytes(PipelineMetrics.Stage.DECODE, sampledBitmap.getByteCount());
+                }
+            } finally {
+                PipelineMetrics.end(PipelineMetrics.Stage.DECODE, startNs);
+            }
+
+            if (sampledBitmap != null) {
+                return scaleToFill(bitmapPool, sampledBitmap, size, size);
+            }
+        } finally {
+            decodeGovernor.release(ticket);
+        }
 
-        return output;
+        // The format isn't supported by the region decoder
+        return decodeBitmapFromUri(context, uri, size, size);
     }
 
     /**
-     * Get a resized and "scaleCentered" version of the given Bitmap.
+     * Decode a very large or very long region with the {@link BandedDecoder}, at the
+     * smallest size that still fills the requested width and height.
      *
-     * @param bitmap    The Bitmap.
-     * @param newHeight The height.
-     * @param newWidth  The Width.
-     * @return The resized and "scaleCentered" version of the Bitmap.
+     * @return The decoded region, or null if it isn't worth it or couldn't be done.
      */
-    public static Bitmap scaleCenterCrop(Bitmap bitmap, int newHeight, int newWidth) {
-        int sourceWidth = bitmap.getWidth();
-        int sourceHeight = bitmap.getHeight();
+    private static Bitmap decodeInBands(Context context, Uri uri, CropRect region, int reqWidth, int reqHeight) {
+        if (!BandedDecoder.shouldDecodeInBands(region.getWidth(), region.getHeight())) {
+            return null;
+        }
+
+        float scale = SampleSize.fillScale(region.getWidth(), region.getHeight(), reqWidth, reqHeight);
+        if (scale >= 1f) {
+            return null;
+        }
+
+        return BandedDecoder.decode(context, uri, region,
+                Math.max(1, Math.round(region.getWidth() * scale)), Math.max(1, Math.round(region.getHeight() * scale)));
+    }
+
+    /**
+     * Scale the sampled Bitmap down to the smallest size that still fills the requested
+     * width and height, into a pooled Bitmap. The sampled Bitmap goes back to the pool.
+     */
+    private static Bitmap scaleToFill(BitmapPool bitmapPool, Bitmap sampledBitmap, int reqWidth, int reqHeight) {
+        float scale = SampleSize.fillScale(sampledBitmap.getWidth(), sampledBitmap.getHeight(), reqWidth, reqHeight);
+        if (scale >= 1f) {
+            return sampledBitmap;
+        }
 
-        float xScale = (float) newWidth / sourceWidth;
-        float yScale = (float) newHeight / sourceHeight;
-        float scale = Math.max(xScale, yScale);
+        long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.SCALE);
+        try {
+            int scaledWidth = Math.max(1, Math.round(sampledBitmap.getWidth() * scale));
+            int scaledHeight = Math.max(1, Math.round(sampledBitmap.getHeight() * scale));
 
-        float scaledWidth = scale * sourceWidth;
-        float scaledHeight = scale * sourceHeight;
+            Bitmap scaledBitmap = bitmapPool.get(scaledWidth, scaledHeight);
+            scaledBitmap.eraseColor(Color.TRANSPARENT);
+            new Canvas(scaledBitmap).drawBitmap(sampledBitmap, null,
+                    new Rect(0, 0, scaledWidth, scaledHeight), FILTER_PAINT);
 
-        float left = (newWidth - scaledWidth) / 2;
-        float top = (newHeight - scaledHeight) / 2;
+            bitmapPool.put(sampledBitmap);
 
-        RectF targetRect = new RectF(left, top, left + scaledWidth, top + scaledHeight);
+            PipelineMetrics.addBytes(PipelineMetrics.Stage.SCALE, scaledBitmap.getByteCount());
 
-        Bitmap dest = Bitmap.createBitmap(newWidth, newHeight, bitmap.getConfig());
-        Canvas canvas = new Canvas(dest);
-        canvas.drawBitmap(bitmap, null, targetRect, null);
+            return scaledBitmap;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.SCALE, startNs);
+        }
+    }
+
+    /**
+     * Read only the bounds of the image behind the given Uri into the Options.
+     *
+     * @return true if the stream could be read.
+     */
+    static boolean decodeBounds(ContentResolver contentResolver, Uri uri, BitmapFactory.Options options) {
+        InputStream inputStream = null;
+        try {
+            inputStream = contentResolver.openInputStream(uri);
+            BitmapFactory.decodeStream(inputStream, null, options);
 
-        return dest;
+            return inputStream != null;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(inputStream);
+        }
+
+        return false;
     }
 
-    public static Bitmap getBitmapFromUri(Context context, Uri uri) {
+    /**
+     * Decode the image behind the given Uri. If the Options reuse a pooled Bitmap that
+     * doesn't fit, the image is decoded again into a new Bitmap.
+     */
+    private static Bitmap decodeStreamToBitmap(ContentResolver contentResolver, Uri uri,
+                                               BitmapFactory.Options options, BitmapPool bitmapPool) {
+        InputStream inputStream = null;
         try {
-            return MediaStore.Images.Media.getBitmap(context.getContentResolver(), uri);
+            inputStream = contentResolver.openInputStream(uri);
+
+            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            if (bitmap == null && options.inBitmap != null) {
+                bitmapPool.put(options.inBitmap);
+            }
+
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+
+            closeQuietly(inputStream);
+            inputStream = null;
+
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+
+            return decodeStreamToBitmap(contentResolver, uri, options, bitmapPool);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            closeQuietly(inputStream);
         }
 
         return null;
     }
+
+    /**
+     * Decode the given region of the image behind the given Uri. The file descriptor is
+     * given to the region decoder, so that it seeks instead of copying the whole file.
+     *
+     * @return The region, or null if the format isn't supported by the region decoder.
+     */
+    private static Bitmap decodeRegion(ContentResolver contentResolver, Uri uri, CropRect crop,
+                                       BitmapFactory.Options options, BitmapPool bitmapPool) {
+        final Rect rect = new Rect(crop.getLeft(), crop.getTop(), crop.getRight(), crop.getBottom());
+
+        Bitmap bitmap = null;
+        ParcelFileDescriptor fileDescriptor = null;
+        BitmapRegionDecoder regionDecoder = null;
+        try {
+            fileDescriptor = contentResolver.openFileDescriptor(uri, "r");
+            if (fileDescriptor == null) {
+                return null;
+            }
+
+            // Throws for anything but JPEG, PNG and WebP
+            regionDecoder = BitmapRegionDecoder.newInstance(fileDescriptor.getFileDescriptor(), false);
+
+            try {
+                bitmap = regionDecoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+
+                bitmap = regionDecoder.decodeRegion(rect, options);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (regionDecoder != null) {
+                regionDecoder.recycle();
+            }
+            closeQuietly(fileDescriptor);
+
+            if (bitmap == null && options.inBitmap != null) {
+                bitmapPool.put(options.inBitmap);
+            }
+        }
+
+        return bitmap;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
 }
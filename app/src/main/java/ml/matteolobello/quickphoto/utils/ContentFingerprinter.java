@@ -0,0 +1,108 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ml.matteolobello.quickphoto.imaging.ContentFingerprint;
+
+/**
+ * Fingerprints the content behind Uris, so that the same photo picked as a Downloads
+ * document, a media document or through another app is recognized as one.
+ * Only the header and the size are read, see {@link ContentFingerprint}, and results are
+ * remembered until the size or the last modified time of the Uri change.
+ */
+public class ContentFingerprinter {
+
+    private static final String TAG = "ContentFingerprinter";
+
+    private static ContentFingerprinter sInstance;
+
+    private final Context mContext;
+    private final Map<Uri, Entry> mFingerprints = new ConcurrentHashMap<>();
+
+    private ContentFingerprinter(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Get the app-wide instance of the fingerprinter.
+     *
+     * @param context The Context.
+     * @return The ContentFingerprinter.
+     */
+    public static synchronized ContentFingerprinter get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContentFingerprinter(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Fingerprint the content behind the given Uri. This opens the file, so call it off
+     * the main thread.
+     *
+     * @param uri          The Uri of the photo.
+     * @param size         The size of the photo, -1 if unknown.
+     * @param lastModified The last modified time of the photo, -1 if unknown.
+     * @return The fingerprint, or {@link ContentFingerprint#UNKNOWN} if the content can't
+     * be read, e.g. when it's streamed through a pipe.
+     */
+    public long getFingerprint(Uri uri, long size, long lastModified) {
+        Entry entry = mFingerprints.get(uri);
+        if (entry != null && entry.mSize == size && entry.mLastModified == lastModified) {
+            return entry.mFingerprint;
+        }
+
+        long fingerprint = ContentFingerprint.UNKNOWN;
+
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.FINGERPRINT);
+        ParcelFileDescriptor fileDescriptor = null;
+        FileInputStream inputStream = null;
+        try {
+            fileDescriptor = mContext.getContentResolver().openFileDescriptor(uri, "r");
+
+            // Pipes have no size and can't be read twice
+            if (fileDescriptor != null && fileDescriptor.getStatSize() >= 0) {
+                inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+                fingerprint = ContentFingerprint.compute(inputStream.getChannel());
+
+                PipelineMetrics.addBytes(PipelineMetrics.Stage.FINGERPRINT,
+                        Math.min(fileDescriptor.getStatSize(), ContentFingerprint.HEADER_BYTES));
+            }
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "Couldn't fingerprint " + uri, e);
+        } finally {
+            BitmapUtils.closeQuietly(inputStream);
+            BitmapUtils.closeQuietly(fileDescriptor);
+            PipelineMetrics.end(PipelineMetrics.Stage.FINGERPRINT, startNs);
+        }
+
+        // Without the metadata we couldn't tell when the content changes
+        if (size >= 0 && lastModified >= 0) {
+            mFingerprints.put(uri, new Entry(size, lastModified, fingerprint));
+        }
+
+        return fingerprint;
+    }
+
+    private static class Entry {
+
+        private final long mSize;
+        private final long mLastModified;
+        private final long mFingerprint;
+
+        Entry(long size, long lastModified, long fingerprint) {
+            mSize = size;
+            mLastModified = lastModified;
+            mFingerprint = fingerprint;
+        }
+    }
+}
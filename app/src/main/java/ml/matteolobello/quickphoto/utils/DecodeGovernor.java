@@ -0,0 +1,152 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import ml.matteolobello.quickphoto.imaging.DecodeBudget;
+
+/**
+ * The app-wide admission control of full-size decodes: previews, shortcut icons and the
+ * validation job all decode from different threads, and together they must not exhaust
+ * the heap.
+ * <p>
+ * Every decode reserves the bytes worked out from its bounds and sample size in a
+ * {@link DecodeBudget}, sized after the heap limit and the memory class of the device.
+ * A decode that doesn't fit waits briefly, then is degraded to RGB_565 or a larger
+ * sample size. The budget shrinks while the system is low on memory.
+ * The waits are timed as {@link PipelineMetrics.Stage#DECODE_QUEUE}.
+ */
+public class DecodeGovernor implements ComponentCallbacks2 {
+
+    private static final String TAG = "DecodeGovernor";
+
+    /**
+     * The budget, as a fraction of the heap available to the app.
+     */
+    private static final int HEAP_FRACTION = 4;
+
+    /**
+     * How long a decode waits for room before being degraded.
+     */
+    private static final long MAX_WAIT_MS = 200;
+
+    private static DecodeGovernor sInstance;
+
+    private final DecodeBudget mBudget;
+    private final long mDefaultMaxBytes;
+
+    private DecodeGovernor(long maxBytes) {
+        mBudget = new DecodeBudget(maxBytes);
+        mDefaultMaxBytes = maxBytes;
+    }
+
+    /**
+     * Get the app-wide governor, shrunk automatically on low memory.
+     *
+     * @param context The Context.
+     * @return The DecodeGovernor.
+     */
+    public static synchronized DecodeGovernor get(Context context) {
+        if (sInstance == null) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+            long heapBytes = Math.min(Runtime.getRuntime().maxMemory(), memoryClassBytes);
+
+            sInstance = new DecodeGovernor(heapBytes / HEAP_FRACTION);
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Admit a decode, waiting for room or degrading it if needed. Apply the ticket to the
+     * Options with {@link #applyTo(DecodeBudget.Ticket, BitmapFactory.Options)} and
+     * release it once the Bitmap has been decoded.
+     *
+     * @param width      The width of the region to decode.
+     * @param height     The height of the region to decode.
+     * @param sampleSize The wanted sample size.
+     * @return The admitted decode, or null if the thread has been interrupted.
+     */
+    public DecodeBudget.Ticket acquire(int width, int height, int sampleSize) {
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.DECODE_QUEUE);
+        try {
+            DecodeBudget.Ticket ticket = mBudget.acquire(width, height, sampleSize,
+                    TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MS));
+
+            PipelineMetrics.addBytes(PipelineMetrics.Stage.DECODE_QUEUE, ticket.getBytes());
+            if (ticket.isDowngraded()) {
+                Log.w(TAG, "Degraded a " + width + "x" + height + " decode to sample size "
+                        + ticket.getSampleSize() + (ticket.isRgb565() ? ", RGB_565" : ""));
+            }
+
+            return ticket;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return null;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.DECODE_QUEUE, startNs);
+        }
+    }
+
+    /**
+     * Give back the bytes of an admitted decode. Releasing twice does nothing.
+     *
+     * @param ticket The ticket from {@link #acquire(int, int, int)}.
+     */
+    public void release(DecodeBudget.Ticket ticket) {
+        mBudget.release(ticket);
+    }
+
+    /**
+     * Set the sample size and pixel format of the admitted decode on the Options.
+     *
+     * @param ticket  The admitted decode.
+     * @param options The Options of the decode.
+     */
+    public static void applyTo(DecodeBudget.Ticket ticket, BitmapFactory.Options options) {
+        options.inSampleSize = ticket.getSampleSize();
+        options.inPreferredConfig = ticket.isRgb565() ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * @return A one-line summary of the budget, for dumps.
+     */
+    public String getStats() {
+        return "admissions=" + mBudget.getAdmissions()
+                + " waits=" + mBudget.getWaits()
+                + " downgrades=" + mBudget.getDowngrades()
+                + " bytes=" + mBudget.getReservedBytes() + "/" + mBudget.getMaxBytes();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            mBudget.setMaxBytes(mDefaultMaxBytes / 4);
+        } else if (level == TRIM_MEMORY_RUNNING_LOW) {
+            mBudget.setMaxBytes(mDefaultMaxBytes / 2);
+        } else if (level == TRIM_MEMORY_RUNNING_MODERATE) {
+            mBudget.setMaxBytes(mDefaultMaxBytes);
+        }
+
+        Log.d(TAG, "Trimmed for level " + level + ": " + getStats());
+    }
+
+    @Override
+    public void onLowMemory() {
+        mBudget.setMaxBytes(mDefaultMaxBytes / 4);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
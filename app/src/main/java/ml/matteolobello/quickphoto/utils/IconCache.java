@@ -0,0 +1,517 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ml.matteolobello.quickphoto.imaging.ContentFingerprint;
+
+/**
+ * A two-tier cache for rendered shortcut icons: a size-bounded LRU in memory and
+ * compressed files in the app cache dir.
+ * Entries are keyed by the content fingerprint of the photo, so that the same photo
+ * behind different Uris shares its icon, or by its Uri when the content can't be read,
+ * then by screen density bucket, icon size and shape. Uri keyed entries remember the
+ * size and the last modified time of the source, so that they are dropped when the
+ * photo changes.
+ */
+public class IconCache {
+
+    private static final String TAG = "IconCache";
+
+    /**
+     * The only shape we render right now.
+     */
+    public static final String SHAPE_CIRCLE = "circle";
+
+    /**
+     * The memory tier budget, in bytes.
+     */
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The disk tier budget, in bytes.
+     */
+    private static final long DISK_CACHE_BYTES = 10 * 1024 * 1024;
+
+    /**
+     * The name of the cache sub-directory.
+     */
+    private static final String DISK_CACHE_DIR = "icons";
+
+    /**
+     * Written before every disk entry, to recognize our files.
+     */
+    private static final int DISK_ENTRY_MAGIC = 0x51504943;
+
+    /**
+     * Written after the magic, bumped when the rendering changes so that older icons are
+     * dropped. Version 2 applies the EXIF orientation, version 3 stores the fingerprint,
+     * version 4 crops the square with the most detail instead of the center one.
+     */
+    static final int DISK_ENTRY_VERSION = 4;
+
+    private static IconCache sInstance;
+
+    private final Context mContext;
+    private final File mDiskCacheDir;
+    private final String mDensityBucket;
+    private final LruCache<String, Entry> mMemoryCache;
+
+    /**
+     * The bytes of the disk tier, -1 until the directory is first listed.
+     * Guarded by mDiskLock, which also orders the renames and deletions.
+     */
+    private final Object mDiskLock = new Object();
+    private long mDiskBytes = -1;
+
+    /**
+     * Hit, miss and eviction counters.
+     */
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final AtomicLong mInvalidations = new AtomicLong();
+
+    private IconCache(Context context) {
+        mContext = context.getApplicationContext();
+        mDiskCacheDir = new File(mContext.getCacheDir(), DISK_CACHE_DIR);
+        mDensityBucket = IconSizes.get(mContext).getDensityBucket();
+
+        mMemoryCache = new LruCache<String, Entry>(MEMORY_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mBitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                if (evicted) {
+                    mEvictions.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the app-wide instance of the cache.
+     *
+     * @param context The Context.
+     * @return The IconCache.
+     */
+    public static synchronized IconCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new IconCache(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Read the size and last modified time of the photo, used to invalidate entries, and
+     * fingerprint its content.
+     * MediaStore images are looked up in the {@link MediaIndex}, other Uris are queried.
+     * This may query the ContentResolver and reads the file header, so call it off the main thread.
+     *
+     * @param uri The Uri of the photo.
+     * @return The photo metadata.
+     */
+    public SourceMetadata getSourceMetadata(Uri uri) {
+        if ("file".equalsIgnoreCase(uri.getScheme())) {
+            File file = new File(uri.getPath());
+
+            return newSourceMetadata(uri, file.length(), file.lastModified());
+        }
+
+        long mediaId = UriUtils.getMediaImageId(mContext, uri);
+        MediaEntry mediaEntry = mediaId != -1 ? MediaIndex.get(mContext).getById(mediaId) : null;
+        if (mediaEntry != null) {
+            return newSourceMetadata(uri, mediaEntry.getSize(), mediaEntry.getLastModifiedMillis());
+        }
+
+        long size = -1;
+        long lastModified = -1;
+
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+                    size = cursor.getLong(sizeIndex);
+                }
+
+                int lastModifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                int dateModifiedIndex = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+                if (lastModifiedIndex != -1 && !cursor.isNull(lastModifiedIndex)) {
+                    lastModified = cursor.getLong(lastModifiedIndex);
+                } else if (dateModifiedIndex != -1 && !cursor.isNull(dateModifiedIndex)) {
+                    // MediaStore stores seconds
+                    lastModified = cursor.getLong(dateModifiedIndex) * 1000;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Couldn't read the metadata of " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return newSourceMetadata(uri, size, lastModified);
+    }
+
+    private SourceMetadata newSourceMetadata(Uri uri, long size, long lastModified) {
+        return new SourceMetadata(size, lastModified,
+                ContentFingerprinter.get(mContext).getFingerprint(uri, size, lastModified));
+    }
+
+    /**
+     * Get a cached icon, looking in memory first and on disk then.
+     *
+     * @param uri      The Uri of the photo.
+     * @param metadata The current metadata of the photo.
+     * @param iconSize The icon size.
+     * @param shape    The icon shape.
+     * @return The icon, or null if it isn't cached or it's stale.
+     */
+    public Bitmap getIcon(Uri uri, SourceMetadata metadata, int iconSize, String shape) {
+        final String key = getKey(uri, metadata, iconSize, shape);
+
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            if (entry.mMetadata.matches(metadata)) {
+                mMemoryHits.incrementAndGet();
+
+                return entry.mBitmap;
+            }
+
+            mMemoryCache.remove(key);
+            mInvalidations.incrementAndGet();
+        }
+
+        Bitmap bitmap = readFromDisk(key, metadata);
+        if (bitmap != null) {
+            mDiskHits.incrementAndGet();
+            mMemoryCache.put(key, new Entry(bitmap, metadata));
+
+            return bitmap;
+        }
+
+        mMisses.incrementAndGet();
+
+        return null;
+    }
+
+    /**
+     * Store a rendered icon in both tiers.
+     *
+     * @param uri      The Uri of the photo.
+     * @param metadata The metadata of the photo the icon was rendered from.
+     * @param iconSize The icon size.
+     * @param shape    The icon shape.
+     * @param bitmap   The icon.
+     */
+    public void putIcon(Uri uri, SourceMetadata metadata, int iconSize, String shape, Bitmap bitmap) {
+        final String key = getKey(uri, metadata, iconSize, shape);
+
+        mMemoryCache.put(key, new Entry(bitmap, metadata));
+        writeToDisk(key, metadata, bitmap);
+    }
+
+    /**
+     * Drop every cached icon.
+     */
+    public void clear() {
+        mMemoryCache.evictAll();
+
+        synchronized (mDiskLock) {
+            File[] files = mDiskCacheDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+            mDiskBytes = 0;
+        }
+    }
+
+    /**
+     * @return A readable summary of the counters.
+     */
+    public String getStats() {
+        return "memoryHits=" + mMemoryHits.get()
+                + " diskHits=" + mDiskHits.get()
+                + " misses=" + mMisses.get()
+                + " evictions=" + mEvictions.get()
+                + " invalidations=" + mInvalidations.get();
+    }
+
+    public long getMemoryHits() {
+        return mMemoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return mDiskHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public long getEvictions() {
+        return mEvictions.get();
+    }
+
+    private Bitmap readFromDisk(String key, SourceMetadata metadata) {
+        File file = new File(mDiskCacheDir, key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (inputStream.readInt() != DISK_ENTRY_MAGIC
+                    || inputStream.readInt() != DISK_ENTRY_VERSION
+                    || !metadata.matches(new SourceMetadata(
+                    inputStream.readLong(), inputStream.readLong(), inputStream.readLong()))) {
+                inputStream.close();
+                inputStream = null;
+
+                deleteStale(file);
+
+                return null;
+            }
+
+            Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
+            if (bitmap != null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+            }
+
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read " + file, e);
+        } finally {
+            BitmapUtils.closeQuietly(inputStream);
+        }
+
+        return null;
+    }
+
+    private void writeToDisk(String key, SourceMetadata metadata, Bitmap bitmap) {
+        if (!mDiskCacheDir.exists() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+
+        File file = new File(mDiskCacheDir, key);
+        // Rendering threads may store the same icon at once, each in its own temp file
+        File tempFile = new File(mDiskCacheDir, key + "." + Thread.currentThread().getId() + ".tmp");
+
+        DataOutputStream outputStream = null;
+        try {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            outputStream.writeInt(DISK_ENTRY_MAGIC);
+            outputStream.writeInt(DISK_ENTRY_VERSION);
+            outputStream.writeLong(metadata.mSize);
+            outputStream.writeLong(metadata.mLastModified);
+            outputStream.writeLong(metadata.mFingerprint);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+            outputStream.close();
+            outputStream = null;
+
+            synchronized (mDiskLock) {
+                final long replacedBytes = file.length();
+                if (tempFile.renameTo(file)) {
+                    if (mDiskBytes >= 0) {
+                        mDiskBytes += file.length() - replacedBytes;
+                    }
+                } else {
+                    //noinspection ResultOfMethodCallIgnored
+                    tempFile.delete();
+                }
+
+                trimDiskCache();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write " + file, e);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        } finally {
+            BitmapUtils.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the disk tier fits its budget.
+     * The directory is only listed the first time and when over budget, the running
+     * size telling the rest of the time. Call it holding mDiskLock.
+     */
+    private void trimDiskCache() {
+        if (mDiskBytes >= 0 && mDiskBytes <= DISK_CACHE_BYTES) {
+            return;
+        }
+
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            mDiskBytes = 0;
+
+            return;
+        }
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+
+        mDiskBytes = totalBytes;
+        if (totalBytes <= DISK_CACHE_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            if (totalBytes <= DISK_CACHE_BYTES) {
+                break;
+            }
+
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+                mEvictions.incrementAndGet();
+            }
+        }
+
+        mDiskBytes = totalBytes;
+    }
+
+    private void deleteStale(File file) {
+        synchronized (mDiskLock) {
+            final long length = file.length();
+            if (file.delete()) {
+                if (mDiskBytes >= 0) {
+                    mDiskBytes -= length;
+                }
+                mInvalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Build the key of an icon, safe to be used as a file name too.
+     */
+    private String getKey(Uri uri, SourceMetadata metadata, int iconSize, String shape) {
+        String sourceKey = metadata.mFingerprint != ContentFingerprint.UNKNOWN
+                ? ContentFingerprint.toHexString(metadata.mFingerprint)
+                : md5(uri.toString());
+
+        return sourceKey + "_" + mDensityBucket + "_" + iconSize + "_" + shape;
+    }
+
+    static String md5(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    /**
+     * The size and the last modified time of a photo, -1 when unknown, and the
+     * fingerprint of its content, {@link ContentFingerprint#UNKNOWN} when it can't be read.
+     */
+    public static class SourceMetadata {
+
+        private final long mSize;
+        private final long mLastModified;
+        private final long mFingerprint;
+
+        public SourceMetadata(long size, long lastModified, long fingerprint) {
+            mSize = size;
+            mLastModified = lastModified;
+            mFingerprint = fingerprint;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public long getLastModified() {
+            return mLastModified;
+        }
+
+        public long getFingerprint() {
+            return mFingerprint;
+        }
+
+        /**
+         * Check if an icon rendered from a photo with the given metadata is still valid for
+         * this one: the content must be the same, which we tell from the fingerprints when
+         * both are known, since the same photo behind another Uri may have another
+         * modified time.
+         *
+         * @param that The metadata stored with the icon.
+         * @return true if the icon can be used.
+         */
+        public boolean matches(SourceMetadata that) {
+            if (mFingerprint != ContentFingerprint.UNKNOWN && that.mFingerprint != ContentFingerprint.UNKNOWN) {
+                return mFingerprint == that.mFingerprint;
+            }
+
+            return mFingerprint == that.mFingerprint && mSize == that.mSize && mLastModified == that.mLastModified;
+        }
+    }
+
+    /**
+     * A memory tier entry.
+     */
+    private static class Entry {
+
+        private final Bitmap mBitmap;
+        private final SourceMetadata mMetadata;
+
+        Entry(Bitmap bitmap, SourceMetadata metadata) {
+            mBitmap = bitmap;
+            mMetadata = metadata;
+        }
+    }
+}
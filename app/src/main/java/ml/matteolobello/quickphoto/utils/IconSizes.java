@@ -0,0 +1,138 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ShortcutManager;
+import android.util.DisplayMetrics;
+
+/**
+ * The icon sizes the launcher actually shows on this device, so that we never render
+ * more pixels than needed, nor upscale.
+ * <p>
+ * HomeScreen shortcuts are shown at the launcher icon size, while Nougat icon shortcuts
+ * are also bounded by what the ShortcutManager stores.
+ */
+public class IconSizes {
+
+    /**
+     * The size of a launcher icon, used when the launcher doesn't tell.
+     */
+    private static final int LAUNCHER_ICON_DP = 48;
+
+    private static IconSizes sInstance;
+
+    private final int mLegacyIconSize;
+    private final int mShortcutIconSize;
+    private final String mDensityBucket;
+
+    private IconSizes(Context context) {
+        DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mLegacyIconSize = getLegacyIconSize(activityManager.getLauncherLargeIconSize(), displayMetrics.density);
+
+        if (SDKUtils.AT_LEAST_NOUGAT) {
+            ShortcutManager shortcutManager = context.getSystemService(ShortcutManager.class);
+            final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.BINDER_CALL);
+            try {
+                mShortcutIconSize = getShortcutIconSize(mLegacyIconSize,
+                        shortcutManager.getIconMaxWidth(), shortcutManager.getIconMaxHeight());
+            } finally {
+                MainThreadMonitor.end(MainThreadMonitor.Operation.BINDER_CALL, monitorStartNs);
+            }
+        } else {
+            mShortcutIconSize = mLegacyIconSize;
+        }
+
+        mDensityBucket = getDensityBucket(displayMetrics.densityDpi);
+    }
+
+    /**
+     * Get the icon sizes of this device, read once per process.
+     *
+     * @param context The Context.
+     * @return The IconSizes.
+     */
+    public static synchronized IconSizes get(Context context) {
+        if (sInstance == null) {
+            sInstance = new IconSizes(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * @return The size of the icons of HomeScreen shortcuts, in pixels.
+     */
+    public int getLegacyIconSize() {
+        return mLegacyIconSize;
+    }
+
+    /**
+     * @return The size of the icons of Nougat icon shortcuts, in pixels.
+     */
+    public int getShortcutIconSize() {
+        return mShortcutIconSize;
+    }
+
+    /**
+     * @return The biggest icon we render, the size photos are decoded to.
+     */
+    public int getMaxIconSize() {
+        return Math.max(mLegacyIconSize, mShortcutIconSize);
+    }
+
+    /**
+     * @return The density bucket of the screen, like "xxhdpi".
+     */
+    public String getDensityBucket() {
+        return mDensityBucket;
+    }
+
+    /**
+     * Get the size of the icons of HomeScreen shortcuts.
+     *
+     * @param launcherLargeIconSize The launcher icon size the system reports, 0 or less if
+     *                              unknown.
+     * @param density               The screen density scale.
+     * @return The icon size, in pixels.
+     */
+    static int getLegacyIconSize(int launcherLargeIconSize, float density) {
+        return launcherLargeIconSize > 0 ? launcherLargeIconSize : Math.round(LAUNCHER_ICON_DP * density);
+    }
+
+    /**
+     * Get the size of the icons of Nougat icon shortcuts: the HomeScreen one, as long as
+     * the ShortcutManager stores icons that big.
+     *
+     * @param legacyIconSize The size of the icons of HomeScreen shortcuts.
+     * @param maxIconWidth   The maximum icon width of the ShortcutManager.
+     * @param maxIconHeight  The maximum icon height of the ShortcutManager.
+     * @return The icon size, in pixels.
+     */
+    static int getShortcutIconSize(int legacyIconSize, int maxIconWidth, int maxIconHeight) {
+        return Math.min(legacyIconSize, Math.min(maxIconWidth, maxIconHeight));
+    }
+
+    /**
+     * Get the resources bucket of the given density, rounding up as the resources do.
+     *
+     * @param densityDpi The screen density.
+     * @return The bucket name.
+     */
+    static String getDensityBucket(int densityDpi) {
+        if (densityDpi <= DisplayMetrics.DENSITY_LOW) {
+            return "ldpi";
+        } else if (densityDpi <= DisplayMetrics.DENSITY_MEDIUM) {
+            return "mdpi";
+        } else if (densityDpi <= DisplayMetrics.DENSITY_HIGH) {
+            return "hdpi";
+        } else if (densityDpi <= DisplayMetrics.DENSITY_XHIGH) {
+            return "xhdpi";
+        } else if (densityDpi <= DisplayMetrics.DENSITY_XXHIGH) {
+            return "xxhdpi";
+        }
+
+        return "xxxhdpi";
+    }
+}
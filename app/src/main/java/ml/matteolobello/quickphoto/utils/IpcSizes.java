@@ -0,0 +1,33 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Measures what objects weigh in a binder transaction, for the {@link PipelineMetrics}.
+ */
+class IpcSizes {
+
+    private IpcSizes() {
+    }
+
+    /**
+     * Get the bytes an object takes in a Parcel.
+     * <p>
+     * Bitmaps are copied into the Parcel only when file descriptors aren't allowed, as in
+     * Intent extras and ShortcutInfo lists, so measure those by their byte count instead.
+     *
+     * @param parcelable The object to measure.
+     * @return The bytes written to the Parcel.
+     */
+    static int of(Parcelable parcelable) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcelable.writeToParcel(parcel, 0);
+
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
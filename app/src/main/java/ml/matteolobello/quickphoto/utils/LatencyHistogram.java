@@ -0,0 +1,105 @@
+package ml.matteolobello.quickphoto.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, allocation-free latency histogram with power-of-two buckets.
+ * Recording is safe from any thread; percentiles are approximated with the upper
+ * bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Bucket i counts the values in [2^(i-1), 2^i) microseconds, bucket 0 the ones below 1us.
+     */
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNs = new AtomicLong();
+    private final AtomicLong mMaxNs = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param durationNs The latency, in nanoseconds.
+     */
+    public void record(long durationNs) {
+        final long durationUs = Math.max(0, durationNs) / 1000;
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(durationUs));
+
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mTotalNs.addAndGet(durationNs);
+
+        long max = mMaxNs.get();
+        while (durationNs > max && !mMaxNs.compareAndSet(max, durationNs)) {
+            max = mMaxNs.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getTotalNs() {
+        return mTotalNs.get();
+    }
+
+    public long getMaxNs() {
+        return mMaxNs.get();
+    }
+
+    /**
+     * @return The mean latency in nanoseconds, 0 if nothing was recorded.
+     */
+    public long getMeanNs() {
+        final long count = mCount.get();
+
+        return count == 0 ? 0 : mTotalNs.get() / count;
+    }
+
+    /**
+     * Get an approximated percentile.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket holding the percentile, in nanoseconds,
+     * never bigger than the maximum recorded value.
+     */
+    public long getPercentileNs(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mBuckets.get(i);
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min((1L << i) * 1000, mMaxNs.get());
+            }
+        }
+
+        return mMaxNs.get();
+    }
+
+    /**
+     * Forget every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+
+        mCount.set(0);
+        mTotalNs.set(0);
+        mMaxNs.set(0);
+    }
+}
@@ -0,0 +1,144 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.os.Looper;
+import android.util.Log;
+
+import ml.matteolobello.quickphoto.BuildConfig;
+
+/**
+ * Debug instrumentation of the blocking entry points: decodes, file I/O, content queries
+ * and binder calls. Wrapped calls made on the main thread are recorded by call site with
+ * their duration, and logged with their stack trace when slower than a frame:
+ * <pre>
+ * long startNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.DECODE);
+ * try {
+ *     ...
+ * } finally {
+ *     MainThreadMonitor.end(MainThreadMonitor.Operation.DECODE, startNs);
+ * }
+ * </pre>
+ * In strict mode, enabled by the instrumented tests, such calls throw once done, so that
+ * regressions fail the tests. This does nothing in release builds.
+ */
+public class MainThreadMonitor {
+
+    private static final String TAG = "MainThreadMonitor";
+
+    /**
+     * The kinds of blocking work.
+     */
+    public enum Operation {
+        DECODE("decode"),
+        FILE_IO("file I/O"),
+        CONTENT_QUERY("content query"),
+        BINDER_CALL("binder call");
+
+        private final String mName;
+
+        Operation(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /**
+     * Calls slower than this are logged: they make the UI skip a frame.
+     */
+    private static final long SLOW_THRESHOLD_NS = 16 * 1000000;
+
+    /**
+     * Returned by {@link #begin(Operation)} for calls that aren't recorded.
+     */
+    private static final long NOT_RECORDED = Long.MIN_VALUE;
+
+    /**
+     * Calls from these classes are attributed to their callers.
+     */
+    private static final String WRAPPERS_PREFIX = MainThreadMonitor.class.getPackage().getName() + '.';
+
+    private static final ViolationLog sViolationLog = new ViolationLog(SLOW_THRESHOLD_NS);
+
+    private static volatile boolean sStrict;
+
+    /**
+     * The depth of the wrapped calls on the main thread, so that nested ones are recorded
+     * once. Only touched on the main thread.
+     */
+    private static int sDepth;
+
+    private MainThreadMonitor() {
+    }
+
+    /**
+     * Start a blocking call. Every call must be matched by {@link #end(Operation, long)}
+     * on the same thread.
+     *
+     * @param operation The kind of blocking work.
+     * @return The start time, to give to {@link #end(Operation, long)}.
+     */
+    public static long begin(Operation operation) {
+        if (!BuildConfig.DEBUG || Looper.myLooper() != Looper.getMainLooper()) {
+            return NOT_RECORDED;
+        }
+
+        return sDepth++ == 0 ? System.nanoTime() : NOT_RECORDED;
+    }
+
+    /**
+     * End a blocking call, recording it if it was made on the main thread.
+     *
+     * @param operation The kind of blocking work.
+     * @param startNs   The value returned by {@link #begin(Operation)}.
+     * @throws IllegalStateException In strict mode, if the call was made on the main thread.
+     */
+    public static void end(Operation operation, long startNs) {
+        if (!BuildConfig.DEBUG || Looper.myLooper() != Looper.getMainLooper()) {
+            return;
+        }
+
+        sDepth--;
+        if (startNs == NOT_RECORDED) {
+            return;
+        }
+
+        final long durationNs = System.nanoTime() - startNs;
+        final Throwable stackTrace = new Throwable(operation + " on the main thread for "
+                + durationNs / 1000000 + " ms");
+
+        if (sViolationLog.record(operation.toString(),
+                ViolationLog.findCallSite(stackTrace.getStackTrace(), WRAPPERS_PREFIX), durationNs)) {
+            Log.w(TAG, stackTrace.getMessage(), stackTrace);
+        }
+
+        if (sStrict) {
+            throw new IllegalStateException(stackTrace.getMessage(), stackTrace);
+        }
+    }
+
+    /**
+     * Make blocking calls on the main thread throw, once recorded.
+     *
+     * @param strict true to throw.
+     */
+    public static void setStrict(boolean strict) {
+        sStrict = strict;
+    }
+
+    /**
+     * @return The recorded violations, the ones that blocked the longest first.
+     */
+    public static ViolationLog getViolationLog() {
+        return sViolationLog;
+    }
+
+    /**
+     * @return A readable report of the violations, one per line, empty if there are none.
+     */
+    public static String getReport() {
+        return sViolationLog.getReport();
+    }
+}
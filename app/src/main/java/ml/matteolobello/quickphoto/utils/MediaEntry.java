@@ -0,0 +1,90 @@
+package ml.matteolobello.quickphoto.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An image of the MediaStore, as mirrored by the {@link MediaIndex}.
+ * Entries are immutable: a changed image gets a new entry.
+ */
+class MediaEntry {
+
+    private final long mId;
+    private final String mPath;
+    private final long mSize;
+    private final long mDateModified;
+    private final int mOrientation;
+
+    /**
+     * @param id           The MediaStore id.
+     * @param path         The absolute path, null if unknown.
+     * @param size         The size in bytes.
+     * @param dateModified The last modified time, in seconds as the MediaStore stores it.
+     * @param orientation  The orientation, in degrees.
+     */
+    MediaEntry(long id, String path, long size, long dateModified, int orientation) {
+        mId = id;
+        mPath = path;
+        mSize = size;
+        mDateModified = dateModified;
+        mOrientation = orientation;
+    }
+
+    long getId() {
+        return mId;
+    }
+
+    String getPath() {
+        return mPath;
+    }
+
+    long getSize() {
+        return mSize;
+    }
+
+    long getDateModified() {
+        return mDateModified;
+    }
+
+    /**
+     * @return The last modified time in milliseconds, like File.lastModified().
+     */
+    long getLastModifiedMillis() {
+        return mDateModified * 1000;
+    }
+
+    int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * @param other Another entry of the same image.
+     * @return true if nothing changed.
+     */
+    boolean isSameAs(MediaEntry other) {
+        return mId == other.mId
+                && mSize == other.mSize
+                && mDateModified == other.mDateModified
+                && mOrientation == other.mOrientation
+                && (mPath == null ? other.mPath == null : mPath.equals(other.mPath));
+    }
+
+    void write(DataOutput output) throws IOException {
+        output.writeLong(mId);
+        output.writeBoolean(mPath != null);
+        if (mPath != null) {
+            output.writeUTF(mPath);
+        }
+        output.writeLong(mSize);
+        output.writeLong(mDateModified);
+        output.writeInt(mOrientation);
+    }
+
+    static MediaEntry read(DataInput input) throws IOException {
+        long id = input.readLong();
+        String path = input.readBoolean() ? input.readUTF() : null;
+
+        return new MediaEntry(id, path, input.readLong(), input.readLong(), input.readInt());
+    }
+}
@@ -0,0 +1,381 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A local mirror of the images of the MediaStore: id, path, size, last modified time
+ * and orientation, answering lookups by id or path without any query.
+ * <p>
+ * The index is built once with a full query in the background and saved to a file.
+ * Then, every time the MediaStore notifies a change, only the images modified or added
+ * since the last sync are queried, and deletions are detected by comparing the ids.
+ * The whole index is rebuilt when the MediaStore version changes, e.g. after its
+ * database is recreated.
+ * Lookups return null until the first sync of the process, callers then fall back to
+ * their own queries.
+ */
+public class MediaIndex {
+
+    private static final String TAG = "MediaIndex";
+
+    /**
+     * The name of the file in the app files dir.
+     */
+    private static final String FILE_NAME = "media_index.bin";
+
+    /**
+     * Written at the start of the file, to recognize it, followed by the format version.
+     */
+    private static final int FILE_MAGIC = 0x51504d49;
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Changes come in bursts, e.g. while the camera saves a photo, so they are synced
+     * once the burst is over.
+     */
+    private static final long SYNC_DELAY_MS = 1000;
+
+    private static final String[] PROJECTION = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.SIZE,
+            MediaStore.Images.Media.DATE_MODIFIED,
+            MediaStore.Images.Media.ORIENTATION
+    };
+
+    private static MediaIndex sInstance;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final Handler mHandler;
+
+    /**
+     * Guarded by this.
+     */
+    private MediaIndexTable mTable;
+
+    /**
+     * The version of the MediaStore the table mirrors. Guarded by this.
+     */
+    private String mMediaStoreVersion;
+
+    /**
+     * Whether the table has been synced in this process. Guarded by this.
+     */
+    private boolean mSynced;
+
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+        }
+    };
+
+    private MediaIndex(Context context) {
+        mContext = context.getApplicationContext();
+        mFile = new AtomicFile(new File(mContext.getFilesDir(), FILE_NAME));
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        mContext.getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true,
+                new ContentObserver(mHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        requestSync();
+                    }
+                });
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                sync();
+            }
+        });
+    }
+
+    /**
+     * Get the app-wide index, starting to build it if needed.
+     *
+     * @param context The Context.
+     * @return The MediaIndex.
+     */
+    public static synchronized MediaIndex get(Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaIndex(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Sync the index soon, e.g. once the storage permission has been granted.
+     */
+    public void requestSync() {
+        mHandler.removeCallbacks(mSyncRunnable);
+        mHandler.postDelayed(mSyncRunnable, SYNC_DELAY_MS);
+    }
+
+    /**
+     * @return true if lookups are answered.
+     */
+    public synchronized boolean isReady() {
+        return mSynced;
+    }
+
+    /**
+     * @param id The MediaStore id of an image.
+     * @return The image, or null if it doesn't exist or the index isn't ready.
+     */
+    synchronized MediaEntry getById(long id) {
+        return mSynced ? mTable.getById(id) : null;
+    }
+
+    /**
+     * @param path The absolute path of an image.
+     * @return The image, or null if it isn't in the MediaStore or the index isn't ready.
+     */
+    synchronized MediaEntry getByPath(String path) {
+        return mSynced ? mTable.getByPath(path) : null;
+    }
+
+    /**
+     * @return All the images, newest first, or null if the index isn't ready.
+     * Don't modify the array.
+     */
+    synchronized MediaEntry[] getNewestFirst() {
+        return mSynced ? mTable.getNewestFirst() : null;
+    }
+
+    /**
+     * @return A readable summary of the index.
+     */
+    public synchronized String getStats() {
+        return "ready=" + mSynced + " images=" + (mTable != null ? mTable.size() : 0);
+    }
+
+    /**
+     * Bring the table up to date with the MediaStore. Runs on the index thread, the only
+     * one modifying the table, and queries without holding the lock so that lookups
+     * never wait on the MediaStore.
+     */
+    private void sync() {
+        final String mediaStoreVersion = MediaStore.getVersion(mContext);
+
+        final MediaIndexTable table;
+        final String tableVersion;
+        synchronized (this) {
+            table = mTable;
+            tableVersion = mMediaStoreVersion;
+        }
+
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.MEDIA_INDEX);
+        try {
+            if (table == null || !mediaStoreVersion.equals(tableVersion)) {
+                List<MediaEntry> entries = queryEntries(null, null);
+                if (entries == null) {
+                    return;
+                }
+
+                MediaIndexTable builtTable = new MediaIndexTable();
+                for (MediaEntry entry : entries) {
+                    builtTable.upsert(entry);
+                }
+
+                synchronized (this) {
+                    mTable = builtTable;
+                    mMediaStoreVersion = mediaStoreVersion;
+                    mSynced = true;
+                }
+                save();
+
+                return;
+            }
+
+            // Copied files may keep an older modified time, but always get a new id
+            List<MediaEntry> entries = queryEntries(
+                    MediaStore.Images.Media.DATE_MODIFIED + " >= ? OR " + MediaStore.Images.Media._ID + " > ?",
+                    new String[]{String.valueOf(table.getMaxDateModified()), String.valueOf(table.getMaxId())});
+            if (entries == null) {
+                return;
+            }
+
+            boolean changed = false;
+            int indexedCount;
+            synchronized (this) {
+                for (MediaEntry entry : entries) {
+                    changed |= table.upsert(entry);
+                }
+                indexedCount = table.size();
+            }
+
+            long[] ids = queryIdsIfDeleted(indexedCount);
+            synchronized (this) {
+                if (ids != null) {
+                    changed |= table.retainAll(ids);
+                }
+                mSynced = true;
+            }
+
+            if (changed) {
+                save();
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "Can't read the MediaStore yet", e);
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.MEDIA_INDEX, startNs);
+        }
+    }
+
+    /**
+     * Query the images matching the selection.
+     *
+     * @return The images, or null if the query failed.
+     */
+    private List<MediaEntry> queryEntries(String selection, String[] selectionArgs) {
+        Cursor cursor = mContext.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                PROJECTION, selection, selectionArgs, null);
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            List<MediaEntry> entries = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                entries.add(new MediaEntry(cursor.getLong(0), cursor.getString(1),
+                        cursor.getLong(2), cursor.getLong(3), cursor.getInt(4)));
+            }
+
+            return entries;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read all the image ids, only if some images have been deleted: after the delta the
+     * table holds every image, so the counts differ only then.
+     *
+     * @param indexedCount The number of indexed images.
+     * @return The sorted ids, or null if nothing has been deleted.
+     */
+    private long[] queryIdsIfDeleted(int indexedCount) {
+        Cursor cursor = mContext.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Images.Media._ID}, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            if (cursor.getCount() == indexedCount) {
+                return null;
+            }
+
+            long[] ids = new long[cursor.getCount()];
+            int count = 0;
+            while (count < ids.length && cursor.moveToNext()) {
+                ids[count++] = cursor.getLong(0);
+            }
+            Arrays.sort(ids, 0, count);
+
+            return count == ids.length ? ids : Arrays.copyOf(ids, count);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write the table, so that the next process only syncs the changes. Runs on the index thread.
+     * Only the snapshot is taken under the lock, the lookups never wait on the disk.
+     */
+    private void save() {
+        final String mediaStoreVersion;
+        final MediaEntry[] newestFirst;
+        final long maxId;
+        final long maxDateModified;
+        synchronized (this) {
+            mediaStoreVersion = mMediaStoreVersion;
+            newestFirst = mTable.getNewestFirst();
+            maxId = mTable.getMaxId();
+            maxDateModified = mTable.getMaxDateModified();
+        }
+
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = mFile.startWrite();
+
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeUTF(mediaStoreVersion);
+            MediaIndexTable.write(output, newestFirst, maxId, maxDateModified);
+            output.flush();
+
+            mFile.finishWrite(outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write the index", e);
+            if (outputStream != null) {
+                mFile.failWrite(outputStream);
+            }
+        }
+    }
+
+    /**
+     * Read the table written by a previous process. Runs on the index thread.
+     */
+    private void load() {
+        FileInputStream inputStream;
+        try {
+            inputStream = mFile.openRead();
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Dropping an unknown index file");
+
+                return;
+            }
+
+            String mediaStoreVersion = input.readUTF();
+            MediaIndexTable table = MediaIndexTable.read(input);
+
+            synchronized (this) {
+                mTable = table;
+                mMediaStoreVersion = mediaStoreVersion;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping an unreadable index file", e);
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ml.matteolobello.quickphoto.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The entries of the {@link MediaIndex}, by id and by path, with the watermarks the
+ * next delta query starts from.
+ * This is not thread safe.
+ */
+class MediaIndexTable {
+
+    private static final Comparator<MediaEntry> NEWEST_FIRST = new Comparator<MediaEntry>() {
+        @Override
+        public int compare(MediaEntry a, MediaEntry b) {
+            return a.getId() < b.getId() ? 1 : (a.getId() == b.getId() ? 0 : -1);
+        }
+    };
+
+    private final Map<Long, MediaEntry> mById = new HashMap<>();
+    private final Map<String, MediaEntry> mByPath = new HashMap<>();
+
+    private long mMaxId;
+    private long mMaxDateModified;
+
+    /**
+     * The entries sorted by id, newest first, built on demand.
+     */
+    private MediaEntry[] mNewestFirst;
+
+    MediaEntry getById(long id) {
+        return mById.get(id);
+    }
+
+    MediaEntry getByPath(String path) {
+        return mByPath.get(path);
+    }
+
+    int size() {
+        return mById.size();
+    }
+
+    /**
+     * @return The highest id seen: newer images have higher ids.
+     */
+    long getMaxId() {
+        return mMaxId;
+    }
+
+    /**
+     * @return The latest modified time seen, in seconds.
+     */
+    long getMaxDateModified() {
+        return mMaxDateModified;
+    }
+
+    /**
+     * Add or replace the entry with the same id.
+     *
+     * @param entry The entry.
+     * @return true if the table changed.
+     */
+    boolean upsert(MediaEntry entry) {
+        mMaxId = Math.max(mMaxId, entry.getId());
+        mMaxDateModified = Math.max(mMaxDateModified, entry.getDateModified());
+
+        MediaEntry previous = mById.put(entry.getId(), entry);
+        if (previous != null) {
+            if (previous.isSameAs(entry)) {
+                // Keep the instance the path lookup points to
+                mById.put(previous.getId(), previous);
+
+                return false;
+            }
+
+            if (previous.getPath() != null && mByPath.get(previous.getPath()) == previous) {
+                mByPath.remove(previous.getPath());
+            }
+        }
+
+        if (entry.getPath() != null) {
+            mByPath.put(entry.getPath(), entry);
+        }
+        mNewestFirst = null;
+
+        return true;
+    }
+
+    /**
+     * Drop the entries of the images that don't exist anymore.
+     *
+     * @param sortedIds The ids of all the existing images, in ascending order.
+     * @return true if the table changed.
+     */
+    boolean retainAll(long[] sortedIds) {
+        boolean changed = false;
+
+        for (Iterator<MediaEntry> iterator = mById.values().iterator(); iterator.hasNext(); ) {
+            MediaEntry entry = iterator.next();
+            if (Arrays.binarySearch(sortedIds, entry.getId()) < 0) {
+                iterator.remove();
+
+                if (entry.getPath() != null && mByPath.get(entry.getPath()) == entry) {
+                    mByPath.remove(entry.getPath());
+                }
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            mNewestFirst = null;
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return The entries sorted by id, newest first. Don't modify the array.
+     */
+    MediaEntry[] getNewestFirst() {
+        if (mNewestFirst == null) {
+            MediaEntry[] entries = mById.values().toArray(new MediaEntry[mById.size()]);
+            Arrays.sort(entries, NEWEST_FIRST);
+
+            mNewestFirst = entries;
+        }
+
+        return mNewestFirst;
+    }
+
+    /**
+     * Find the first of the newest first entries older than the given id.
+     *
+     * @param newestFirst The entries, from {@link #getNewestFirst()}.
+     * @param id          The id.
+     * @return The index of the first entry with a lower id, the length if none.
+     */
+    static int indexOfFirstOlderThan(MediaEntry[] newestFirst, long id) {
+        int low = 0;
+        int high = newestFirst.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (newestFirst[middle].getId() >= id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    void write(DataOutput output) throws IOException {
+        write(output, getNewestFirst(), mMaxId, mMaxDateModified);
+    }
+
+    /**
+     * Write a snapshot of a table, taken with {@link #getNewestFirst()} and the watermarks,
+     * so that the table can keep changing while it's written.
+     *
+     * @param output          The output.
+     * @param newestFirst     The entries.
+     * @param maxId           The id watermark.
+     * @param maxDateModified The modified time watermark.
+     * @throws IOException If the output couldn't be written.
+     */
+    static void write(DataOutput output, MediaEntry[] newestFirst, long maxId, long maxDateModified)
+            throws IOException {
+        output.writeLong(maxId);
+        output.writeLong(maxDateModified);
+        output.writeInt(newestFirst.length);
+        for (MediaEntry entry : newestFirst) {
+            entry.write(output);
+        }
+    }
+
+    static MediaIndexTable read(DataInput input) throws IOException {
+        MediaIndexTable table = new MediaIndexTable();
+        long maxId = input.readLong();
+        long maxDateModified = input.readLong();
+
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            table.upsert(MediaEntry.read(input));
+        }
+
+        // Deleted entries may have held the watermarks
+        table.mMaxId = Math.max(table.mMaxId, maxId);
+        table.mMaxDateModified = Math.max(table.mMaxDateModified, maxDateModified);
+
+        return table;
+    }
+}
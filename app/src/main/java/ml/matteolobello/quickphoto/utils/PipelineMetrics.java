@@ -0,0 +1,148 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.os.Trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage timers and byte counters of the shortcut pipeline.
+ * <p>
+ * Every stage is also emitted as an {@link Trace} section, so it shows up in systrace.
+ * Recording is lock-free and doesn't allocate, so it stays on in release builds:
+ * <pre>
+ * long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.DECODE);
+ * ...
+ * PipelineMetrics.end(PipelineMetrics.Stage.DECODE, startNs);
+ * </pre>
+ */
+public class PipelineMetrics {
+
+    /**
+     * The stages of the pipeline.
+     */
+    public enum Stage {
+        URI_QUERY("QP:uriQuery"),
+        FINGERPRINT("QP:fingerprint"),
+        ICON_CACHE("QP:iconCache"),
+        EXIF("QP:exif"),
+        SALIENCY("QP:saliency"),
+        DECODE_QUEUE("QP:decodeQueue"),
+        DECODE("QP:decode"),
+        BANDED_DECODE("QP:bandedDecode"),
+        SCALE("QP:scale"),
+        ROUND("QP:round"),
+        BROADCAST("QP:broadcast"),
+        SHORTCUT_MANAGER("QP:shortcutManager"),
+        MEDIA_PAGE("QP:mediaPage"),
+        THUMBNAIL("QP:thumbnail"),
+        MEDIA_INDEX("QP:mediaIndex"),
+        TILE("QP:tile");
+
+        /**
+         * The name of the Trace section.
+         */
+        private final String mSectionName;
+
+        Stage(String sectionName) {
+            mSectionName = sectionName;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final LatencyHistogram[] sHistograms = new LatencyHistogram[STAGES.length];
+
+    private static final AtomicLongArray sBytes = new AtomicLongArray(STAGES.length);
+
+    static {
+        for (int i = 0; i < STAGES.length; i++) {
+            sHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Start timing a stage. Every call must be matched by {@link #end(Stage, long)} on the
+     * same thread.
+     *
+     * @param stage The stage.
+     * @return The start time, to give to {@link #end(Stage, long)}.
+     */
+    public static long begin(Stage stage) {
+        Trace.beginSection(stage.mSectionName);
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop timing a stage.
+     *
+     * @param stage   The stage.
+     * @param startNs The value returned by {@link #begin(Stage)}.
+     */
+    public static void end(Stage stage, long startNs) {
+        sHistograms[stage.ordinal()].record(System.nanoTime() - startNs);
+
+        Trace.endSection();
+    }
+
+    /**
+     * Count the bytes produced or moved by a stage.
+     *
+     * @param stage The stage.
+     * @param bytes The number of bytes.
+     */
+    public static void addBytes(Stage stage, long bytes) {
+        sBytes.addAndGet(stage.ordinal(), bytes);
+    }
+
+    /**
+     * @return The histogram of the given stage.
+     */
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return sHistograms[stage.ordinal()];
+    }
+
+    /**
+     * Forget all the recorded values.
+     */
+    public static void reset() {
+        for (int i = 0; i < STAGES.length; i++) {
+            sHistograms[i].reset();
+            sBytes.set(i, 0);
+        }
+    }
+
+    /**
+     * Dump all the stages as JSON. Times are in microseconds.
+     *
+     * @return The JSON object.
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+
+        try {
+            for (Stage stage : STAGES) {
+                LatencyHistogram histogram = sHistograms[stage.ordinal()];
+
+                json.put(stage.name().toLowerCase(), new JSONObject()
+                        .put("count", histogram.getCount())
+                        .put("mean_us", histogram.getMeanNs() / 1000)
+                        .put("p50_us", histogram.getPercentileNs(50) / 1000)
+                        .put("p90_us", histogram.getPercentileNs(90) / 1000)
+                        .put("p99_us", histogram.getPercentileNs(99) / 1000)
+                        .put("max_us", histogram.getMaxNs() / 1000)
+                        .put("bytes", sBytes.get(stage.ordinal())));
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return json;
+    }
+}
@@ -0,0 +1,70 @@
+package ml.matteolobello.quickphoto.utils;
+
+/**
+ * The range of list positions worth loading ahead of the visible ones, in the direction
+ * of the scroll, so that items are ready before they appear on screen.
+ */
+public class PrefetchWindow {
+
+    /**
+     * An empty window.
+     */
+    public static final PrefetchWindow EMPTY = new PrefetchWindow(0, 0);
+
+    private final int mStart;
+    private final int mEnd;
+
+    private PrefetchWindow(int start, int end) {
+        mStart = start;
+        mEnd = end;
+    }
+
+    /**
+     * Get the positions following the visible ones in the scroll direction.
+     *
+     * @param firstVisible The first visible position.
+     * @param lastVisible  The last visible position.
+     * @param scrollDelta  The last scroll delta: positive when scrolling towards the end.
+     * @param count        How many positions to prefetch.
+     * @param itemCount    The number of items.
+     * @return The window, clamped to the items.
+     */
+    public static PrefetchWindow ahead(int firstVisible, int lastVisible, int scrollDelta, int count, int itemCount) {
+        if (firstVisible < 0 || lastVisible < firstVisible || count <= 0 || scrollDelta == 0) {
+            return EMPTY;
+        }
+
+        int start;
+        int end;
+        if (scrollDelta > 0) {
+            start = lastVisible + 1;
+            end = lastVisible + 1 + count;
+        } else {
+            start = firstVisible - count;
+            end = firstVisible;
+        }
+
+        start = Math.max(0, start);
+        end = Math.min(itemCount, end);
+
+        return start < end ? new PrefetchWindow(start, end) : EMPTY;
+    }
+
+    /**
+     * @return The first position, inclusive.
+     */
+    public int getStart() {
+        return mStart;
+    }
+
+    /**
+     * @return The last position, exclusive.
+     */
+    public int getEnd() {
+        return mEnd;
+    }
+
+    public boolean isEmpty() {
+        return mStart == mEnd;
+    }
+}
@@ -0,0 +1,146 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the preview of a photo into an ImageView in three steps: a cheap thumbnail is
+ * shown first, then the photo is decoded in the background at the measured size of the
+ * View and swapped in.
+ * Starting a new load cancels the previous one.
+ */
+public class PreviewLoader {
+
+    private static final String TAG = "PreviewLoader";
+
+    /**
+     * The thread decoding previews, shared by all the loaders.
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new BackgroundThreadFactory(TAG));
+
+    private final Context mContext;
+    private final ImageView mImageView;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Incremented at every load, so that results of stale loads are dropped.
+     * Only touched on the main thread.
+     */
+    private int mGeneration;
+
+    private Future<?> mFuture;
+
+    public PreviewLoader(ImageView imageView) {
+        mContext = imageView.getContext().getApplicationContext();
+        mImageView = imageView;
+    }
+
+    /**
+     * Load the preview of the given photo, cancelling any previous load.
+     * This must be called on the main thread.
+     *
+     * @param uri The Uri of the photo.
+     */
+    public void load(final Uri uri) {
+        cancel();
+
+        final int generation = mGeneration;
+
+        if (mImageView.getWidth() > 0 && mImageView.getHeight() > 0) {
+            start(uri, generation, mImageView.getWidth(), mImageView.getHeight());
+
+            return;
+        }
+
+        // Wait for the View to be measured
+        mImageView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mImageView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                if (generation == mGeneration) {
+                    start(uri, generation, mImageView.getWidth(), mImageView.getHeight());
+                }
+
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Cancel the current load, if any.
+     * This must be called on the main thread.
+     */
+    public void cancel() {
+        mGeneration++;
+
+        if (mFuture != null) {
+            mFuture.cancel(true);
+            mFuture = null;
+        }
+    }
+
+    private void start(final Uri uri, final int generation, final int width, final int height) {
+        mFuture = sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap thumbnail = getThumbnail(uri);
+                if (thumbnail != null) {
+                    show(thumbnail, generation);
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+
+                Bitmap preview = BitmapUtils.getBitmapFromUri(mContext, uri, width, height);
+                if (preview != null) {
+                    show(preview, generation);
+                }
+            }
+        });
+    }
+
+    private void show(final Bitmap bitmap, final int generation) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration) {
+                    mImageView.setImageBitmap(bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get a cheap thumbnail of the photo: the MediaStore one if the photo is indexed,
+     * the one embedded in the EXIF data otherwise.
+     *
+     * @param uri The Uri of the photo.
+     * @return The thumbnail, or null if there's none.
+     */
+    private Bitmap getThumbnail(Uri uri) {
+        long mediaId = UriUtils.getMediaImageId(mContext, uri);
+        if (mediaId != -1) {
+            Bitmap thumbnail = MediaStore.Images.Thumbnails.getThumbnail(mContext.getContentResolver(),
+                    mediaId, MediaStore.Images.Thumbnails.MINI_KIND, null);
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+
+        // Read through the Uri, which may have no file path
+        return BitmapUtils.decodeExifThumbnail(BitmapUtils.readExif(mContext, uri), 1);
+    }
+}
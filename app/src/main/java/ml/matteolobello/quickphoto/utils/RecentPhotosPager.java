@@ -0,0 +1,228 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the images of the MediaStore, newest first, one page at a time and off the main
+ * thread, so that the first rows show up at once even with tens of thousands of photos.
+ * <p>
+ * Pages are keyed by the last id of the previous one instead of an offset, so every query
+ * is a cheap range scan of the primary key, however deep the user scrolls. Once the
+ * {@link MediaIndex} is ready, pages are read from it without any query.
+ */
+public class RecentPhotosPager {
+
+    private static final String TAG = "RecentPhotosPager";
+
+    /**
+     * The number of photos of every page.
+     */
+    public static final int PAGE_SIZE = 240;
+
+    private static final String[] PROJECTION = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.ORIENTATION
+    };
+
+    /**
+     * The thread querying pages, shared by all the pagers.
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new BackgroundThreadFactory(TAG));
+
+    /**
+     * Notified on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * A page has been loaded.
+         *
+         * @param page The page, empty when there are no more photos.
+         */
+        void onPageLoaded(Page page);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mStale = true;
+        }
+    };
+
+    /**
+     * Incremented at every reset, so that pages of stale loads are dropped.
+     * The fields below are only touched on the main thread.
+     */
+    private int mGeneration;
+
+    private long mLastId = Long.MAX_VALUE;
+    private boolean mLoading;
+    private boolean mExhausted;
+    private boolean mStale;
+
+    public RecentPhotosPager(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+
+        mContext.getContentResolver().registerContentObserver(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, false, mObserver);
+    }
+
+    /**
+     * Load the next page, unless one is being loaded or all of them have been.
+     * This must be called on the main thread.
+     */
+    public void loadNextPage() {
+        if (mLoading || mExhausted) {
+            return;
+        }
+        mLoading = true;
+
+        final int generation = mGeneration;
+        final long lastId = mLastId;
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Page page = queryPage(lastId);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+
+                        mLoading = false;
+                        mExhausted = page.size() < PAGE_SIZE;
+                        if (page.size() > 0) {
+                            mLastId = page.getId(page.size() - 1);
+                        }
+
+                        mListener.onPageLoaded(page);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Forget the loaded pages, so that the next one is the first one again.
+     * This must be called on the main thread.
+     */
+    public void reset() {
+        mGeneration++;
+        mLastId = Long.MAX_VALUE;
+        mLoading = false;
+        mExhausted = false;
+        mStale = false;
+    }
+
+    /**
+     * @return true if the MediaStore changed since the last reset.
+     */
+    public boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * Stop watching the MediaStore and drop the pending pages.
+     * This must be called on the main thread.
+     */
+    public void release() {
+        mGeneration++;
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+    }
+
+    private Page queryPage(long lastId) {
+        // Once the index is ready, pages are slices of it
+        MediaEntry[] newestFirst = MediaIndex.get(mContext).getNewestFirst();
+        if (newestFirst != null) {
+            int start = MediaIndexTable.indexOfFirstOlderThan(newestFirst, lastId);
+
+            Page page = new Page(Math.min(PAGE_SIZE, newestFirst.length - start));
+            for (; page.mSize < page.mIds.length; page.mSize++) {
+                MediaEntry entry = newestFirst[start + page.mSize];
+                page.mIds[page.mSize] = entry.getId();
+                page.mOrientations[page.mSize] = entry.getOrientation();
+            }
+
+            return page;
+        }
+
+        final Uri uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI.buildUpon()
+                .appendQueryParameter("limit", String.valueOf(PAGE_SIZE))
+                .build();
+
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.MEDIA_PAGE);
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(uri, PROJECTION,
+                    MediaStore.Images.Media._ID + " < ?", new String[]{String.valueOf(lastId)},
+                    MediaStore.Images.Media._ID + " DESC");
+            if (cursor == null) {
+                return new Page(0);
+            }
+
+            Page page = new Page(Math.min(cursor.getCount(), PAGE_SIZE));
+            while (page.mSize < page.mIds.length && cursor.moveToNext()) {
+                page.mIds[page.mSize] = cursor.getLong(0);
+                page.mOrientations[page.mSize] = cursor.getInt(1);
+                page.mSize++;
+            }
+
+            return page;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Couldn't query the photos after " + lastId, e);
+
+            return new Page(0);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            PipelineMetrics.end(PipelineMetrics.Stage.MEDIA_PAGE, startNs);
+        }
+    }
+
+    /**
+     * The ids of a page of photos, with their orientation in degrees.
+     */
+    public static class Page {
+
+        private final long[] mIds;
+        private final int[] mOrientations;
+        private int mSize;
+
+        Page(int capacity) {
+            mIds = new long[capacity];
+            mOrientations = new int[capacity];
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public long getId(int index) {
+            return mIds[index];
+        }
+
+        public int getOrientation(int index) {
+            return mOrientations[index];
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * A {@link BitmapRegionDecoder} with the file descriptor it reads, both closed by
+ * {@link #recycle()}. A decoder isn't meant to be shared: its decodes are serialized.
+ */
+class RegionDecoder {
+
+    private static final String TAG = "RegionDecoder";
+
+    private final ParcelFileDescriptor mFileDescriptor;
+    private final BitmapRegionDecoder mDecoder;
+
+    private RegionDecoder(ParcelFileDescriptor fileDescriptor, BitmapRegionDecoder decoder) {
+        mFileDescriptor = fileDescriptor;
+        mDecoder = decoder;
+    }
+
+    /**
+     * Open a region decoder for the image behind the given Uri.
+     *
+     * @param contentResolver The ContentResolver.
+     * @param uri             The Uri of the image.
+     * @return The decoder, or null if the image can't be decoded in regions.
+     */
+    static RegionDecoder open(ContentResolver contentResolver, Uri uri) {
+        ParcelFileDescriptor fileDescriptor = null;
+        try {
+            fileDescriptor = contentResolver.openFileDescriptor(uri, "r");
+            if (fileDescriptor == null) {
+                return null;
+            }
+
+            // Throws for anything but JPEG, PNG and WebP
+            return new RegionDecoder(fileDescriptor,
+                    BitmapRegionDecoder.newInstance(fileDescriptor.getFileDescriptor(), false));
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "Couldn't decode regions of " + uri, e);
+            BitmapUtils.closeQuietly(fileDescriptor);
+
+            return null;
+        }
+    }
+
+    /**
+     * @return The width of the image.
+     */
+    int getWidth() {
+        return mDecoder.getWidth();
+    }
+
+    /**
+     * @return The height of the image.
+     */
+    int getHeight() {
+        return mDecoder.getHeight();
+    }
+
+    /**
+     * Decode a region of the image.
+     *
+     * @param rect    The region, in image pixels.
+     * @param options The decode options.
+     * @return The region, or null if it couldn't be decoded.
+     * @throws IllegalArgumentException If the region is outside the image, or options.inBitmap
+     *                                  can't be reused.
+     */
+    Bitmap decodeRegion(Rect rect, BitmapFactory.Options options) {
+        return mDecoder.decodeRegion(rect, options);
+    }
+
+    /**
+     * Close the decoder and its file descriptor.
+     */
+    void recycle() {
+        mDecoder.recycle();
+        BitmapUtils.closeQuietly(mFileDescriptor);
+    }
+}
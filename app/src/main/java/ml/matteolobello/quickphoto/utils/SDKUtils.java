@@ -13,4 +13,10 @@ public class SDKUtils {
      * Check if we're running at least Android 6.0 Marshmallow
      */
     public static final boolean AT_LEAST_MARSHMALLOW = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+
+    /**
+     * Check if we're running at least Android 11, whose ShortcutManager takes icons by Uri.
+     * It's newer than the SDK we compile against, hence the number.
+     */
+    public static final boolean AT_LEAST_R = Build.VERSION.SDK_INT >= 30;
 }
@@ -1,141 +1,488 @@
 package ml.matteolobello.quickphoto.utils;
 
-import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ShortcutInfo;
 import android.content.pm.ShortcutManager;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Icon;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.widget.Toast;
+import android.os.SystemClock;
+import android.text.format.DateFormat;
+import android.util.Log;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import ml.matteolobello.quickphoto.R;
+import ml.matteolobello.quickphoto.BuildConfig;
+import ml.matteolobello.quickphoto.activities.ShortcutLaunchActivity;
+import ml.matteolobello.quickphoto.imaging.ExifInfo;
 import ml.matteolobello.quickphoto.pojo.Photo;
+import ml.matteolobello.quickphoto.services.ShortcutValidationService;
 
 public class ShortcutHelper {
 
+    private static final String TAG = "ShortcutHelper";
+
     /**
      * Google says that the maximum shortcuts number is 5, but actually maximum 4 icons are shown.
      */
     private static final int SHORTCUTS_LIMIT = 4;
 
     /**
-     * This size could be fine for both HomeScreen shortcut and Nougat icon shortcut.
+     * The Intent INSTALL_SHORTCUT action.
      */
-    private static final int SHORTCUT_ICON_SIZE = 128;
+    private static final String INSTALL_SHORTCUT_ACTION = "com.android.launcher.action.INSTALL_SHORTCUT";
 
     /**
-     * The Intent INSTALL_SHORTCUT action.
+     * The INSTALL_SHORTCUT extra asking the launcher not to add a shortcut with the same
+     * Intent twice, which happens when the same photo is picked through different Uris.
      */
-    private static final String INSTALL_SHORTCUT_ACTION = "com.android.launcher.action.INSTALL_SHORTCUT";
+    private static final String EXTRA_DUPLICATE = "duplicate";
+
+    /**
+     * The number of threads rendering icons, one per core.
+     */
+    private static final int RENDER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The bounded pool rendering the icons of a batch concurrently.
+     */
+    private static final ExecutorService sRenderExecutor = Executors.newFixedThreadPool(RENDER_THREADS,
+            new BackgroundThreadFactory("IconRender"));
+
+    /**
+     * The Uri of the photo being rendered ahead of time, and its render. Guarded by the class.
+     */
+    private static Uri sPrerenderUri;
+    private static Future<RenderedShortcut> sPrerenderFuture;
 
     /**
-     * The Activity we're using.
+     * The application Context, so that we never leak an Activity.
      */
-    private final Activity mActivity;
+    private final Context mContext;
 
     /**
-     * A private Constructor, so that we are forced to use the {@link #get(Activity)}.
+     * A private Constructor, so that we are forced to use the {@link #get(Context)}.
      *
-     * @param activity The Activity.
+     * @param context The Context.
      */
-    private ShortcutHelper(Activity activity) {
-        mActivity = activity;
+    private ShortcutHelper(Context context) {
+        mContext = context.getApplicationContext();
     }
 
     /**
      * A method to get a new Instance of this class.
      *
-     * @param activity The Activity we're using.
+     * @param context The Context we're using.
      * @return A new Instance of this Class.
      */
-    public static ShortcutHelper get(Activity activity) {
-        return new ShortcutHelper(activity);
+    public static ShortcutHelper get(Context context) {
+        return new ShortcutHelper(context);
     }
 
     /**
      * A method to manage HomeScreen shortcuts and Nougat icon shortcuts.
+     * The work is queued on the {@link ShortcutJobQueue}, which reports the result.
      *
      * @param photo The Photo object.
      */
-    public void addHomeScreenShortcut(final Photo photo) {
-        final Intent shortcutIntent = new Intent();
-        shortcutIntent.setAction(Intent.ACTION_VIEW);
-        shortcutIntent.setDataAndType(Uri.parse("file://" + UriUtils.getPathFromUri(mActivity, photo.getUri())), "image/*");
-        shortcutIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        shortcutIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+    public void addHomeScreenShortcut(Photo photo) {
+        ShortcutJobQueue.get(mContext).enqueue(
+                ShortcutJobQueue.Job.forPhoto(photo.getUri(), photo.getName()));
+    }
+
+    /**
+     * Start rendering the shortcut of the given photo right away, while the user is still
+     * typing its name: the shortcut added later for it only needs to be named and published.
+     * The render of the previous photo, if any, is cancelled.
+     *
+     * @param uri The Uri of the picked photo.
+     */
+    public void prerenderShortcut(final Uri uri) {
+        synchronized (ShortcutHelper.class) {
+            if (uri.equals(sPrerenderUri)) {
+                return;
+            }
+
+            cancelPrerenderLocked();
+
+            sPrerenderUri = uri;
+            sPrerenderFuture = sRenderExecutor.submit(new Callable<RenderedShortcut>() {
+                @Override
+                public RenderedShortcut call() throws Exception {
+                    IconCache.SourceMetadata metadata;
+
+                    long queryStartNs = PipelineMetrics.begin(PipelineMetrics.Stage.URI_QUERY);
+                    try {
+                        metadata = IconCache.get(mContext).getSourceMetadata(uri);
+                    } finally {
+                        PipelineMetrics.end(PipelineMetrics.Stage.URI_QUERY, queryStartNs);
+                    }
+
+                    return renderShortcut(new Photo(uri), metadata);
+                }
+            });
+        }
+    }
+
+    /**
+     * Cancel the render started by {@link #prerenderShortcut(Uri)}, e.g. when the picked
+     * photo is discarded.
+     */
+    public void cancelPrerender() {
+        synchronized (ShortcutHelper.class) {
+            cancelPrerenderLocked();
+        }
+    }
+
+    private static void cancelPrerenderLocked() {
+        if (sPrerenderFuture != null) {
+            sPrerenderFuture.cancel(true);
+        }
+
+        sPrerenderUri = null;
+        sPrerenderFuture = null;
+    }
+
+    /**
+     * Take the render started for the given photo, if any, so that it's not cancelled anymore.
+     *
+     * @param uri The Uri of the photo.
+     * @return The pending render, or null if there is none for the photo.
+     */
+    private static Future<RenderedShortcut> takePrerender(Uri uri) {
+        synchronized (ShortcutHelper.class) {
+            if (!uri.equals(sPrerenderUri)) {
+                return null;
+            }
+
+            Future<RenderedShortcut> future = sPrerenderFuture;
+            sPrerenderUri = null;
+            sPrerenderFuture = null;
+
+            return future;
+        }
+    }
 
-        final Intent addIntent = new Intent();
-        addIntent.putExtra(Intent.EXTRA_SHORTCUT_INTENT, shortcutIntent);
-        addIntent.putExtra(Intent.EXTRA_SHORTCUT_NAME, photo.getName());
+    /**
+     * Create shortcuts for many photos at once: icons are rendered concurrently and
+     * Nougat icon shortcuts are published with a single call.
+     * The work is queued on the {@link ShortcutJobQueue}, which reports the result.
+     *
+     * @param uris         The Uris of the photos.
+     * @param nameTemplate The template used to name the shortcuts, see {@link ShortcutNameTemplate}.
+     */
+    public void addHomeScreenShortcuts(List<Uri> uris, String nameTemplate) {
+        ShortcutJobQueue.get(mContext).enqueue(ShortcutJobQueue.Job.forBatch(uris, nameTemplate));
+    }
 
-        new AsyncTask<Void, Void, Bitmap>() {
-            @Override
-            protected Bitmap doInBackground(Void... params) {
-                final Bitmap originalPhotoBitmap = BitmapUtils.getBitmapFromUri(mActivity, photo.getUri());
+    /**
+     * Render the shortcuts of the given photos concurrently, blocking until all are done.
+     * This runs off the main thread.
+     *
+     * @param uris         The Uris of the photos.
+     * @param name         The name of the shortcut, or null to use the template.
+     * @param nameTemplate The template used to name the shortcuts when there is no name.
+     * @return The rendered shortcuts, without the ones that couldn't be decoded.
+     * @throws InterruptedException If the work was cancelled.
+     */
+    List<RenderedShortcut> renderShortcuts(List<Uri> uris, final String name, String nameTemplate)
+            throws InterruptedException {
+        final long startMs = SystemClock.elapsedRealtime();
+        final ShortcutNameTemplate template = new ShortcutNameTemplate(
+                nameTemplate != null ? nameTemplate : ShortcutNameTemplate.TOKEN_NAME,
+                DateFormat.getMediumDateFormat(mContext));
 
-                return BitmapUtils.getRoundedBitmap(
-                        BitmapUtils.scaleCenterCrop(originalPhotoBitmap, SHORTCUT_ICON_SIZE, SHORTCUT_ICON_SIZE));
+        List<Future<RenderedShortcut>> futures = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            final Uri uri = uris.get(i);
+            final int index = i;
+
+            // A named photo may have been rendered while the user was typing the name
+            Future<RenderedShortcut> prerender = name != null ? takePrerender(uri) : null;
+            if (prerender != null) {
+                futures.add(prerender);
+                continue;
             }
 
-            @Override
-            protected void onPostExecute(Bitmap bitmap) {
-                super.onPostExecute(bitmap);
+            futures.add(sRenderExecutor.submit(new Callable<RenderedShortcut>() {
+                @Override
+                public RenderedShortcut call() throws Exception {
+                    IconCache.SourceMetadata metadata;
+                    String shortcutName;
+
+                    long queryStartNs = PipelineMetrics.begin(PipelineMetrics.Stage.URI_QUERY);
+                    try {
+                        metadata = IconCache.get(mContext).getSourceMetadata(uri);
+                        shortcutName = name != null ? name : template.format(
+                                UriUtils.getDisplayName(mContext, uri), metadata.getLastModified(), index);
+                    } finally {
+                        PipelineMetrics.end(PipelineMetrics.Stage.URI_QUERY, queryStartNs);
+                    }
 
-                addIntent.putExtra(Intent.EXTRA_SHORTCUT_ICON, bitmap);
+                    return renderShortcut(new Photo(shortcutName, uri), metadata);
+                }
+            }));
+        }
+
+        List<RenderedShortcut> renderedShortcuts = new ArrayList<>(uris.size());
+        try {
+            for (Future<RenderedShortcut> future : futures) {
+                try {
+                    RenderedShortcut renderedShortcut = future.get();
+                    if (renderedShortcut != null) {
+                        renderedShortcuts.add(name != null ? renderedShortcut.withName(name) : renderedShortcut);
+                    }
+                } catch (CancellationException e) {
+                    Log.w(TAG, "A shortcut render was cancelled");
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Couldn't render a shortcut", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<RenderedShortcut> future : futures) {
+                future.cancel(true);
+            }
+
+            throw e;
+        }
+
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - startMs);
+        Log.i(TAG, "Rendered " + renderedShortcuts.size() + " icons in " + elapsedMs + " ms ("
+                + (renderedShortcuts.size() * 1000f / elapsedMs) + " icons/s, "
+                + RENDER_THREADS + " threads)");
+
+        return renderedShortcuts;
+    }
+
+    /**
+     * Build the shortcut Intent and render the icon of the given photo, reusing cached icons.
+     * This runs off the main thread.
+     *
+     * @param photo    The Photo object.
+     * @param metadata The current metadata of the photo.
+     * @return The rendered shortcut, or null if the photo couldn't be decoded.
+     */
+    private RenderedShortcut renderShortcut(Photo photo, IconCache.SourceMetadata metadata) {
+        // Started by the launcher, opened in our own viewer through the Uri we hold a
+        // persisted permission for
+        final Intent shortcutIntent = ShortcutLaunchActivity.newIntent(mContext, photo.getUri());
+
+        final IconSizes iconSizes = IconSizes.get(mContext);
+        final int legacyIconSize = iconSizes.getLegacyIconSize();
+        final int shortcutIconSize = iconSizes.getShortcutIconSize();
+
+        Bitmap legacyIcon = getCachedIcon(photo, metadata, legacyIconSize);
+        Bitmap shortcutIcon = shortcutIconSize == legacyIconSize
+                ? legacyIcon : getCachedIcon(photo, metadata, shortcutIconSize);
+
+        if (legacyIcon == null || shortcutIcon == null) {
+            final ExifInfo exifInfo = BitmapUtils.readExif(mContext, photo.getUri());
+
+            // Decode once, at the biggest missing size: the smaller icon is resampled from it
+            final int[] missingSizes;
+            if (legacyIcon == null && shortcutIcon == null) {
+                missingSizes = new int[]{legacyIconSize, shortcutIconSize};
+            } else {
+                missingSizes = new int[]{legacyIcon == null ? legacyIconSize : shortcutIconSize};
+            }
+            final int decodeSize = Math.max(missingSizes[0], missingSizes[missingSizes.length - 1]);
+
+            // Most camera photos embed a thumbnail big enough for the icon, the others at
+            // least one big enough to tell where the subject is
+            Bitmap originalPhotoBitmap = BitmapUtils.decodeExifThumbnail(exifInfo, decodeSize);
+            if (originalPhotoBitmap == null) {
+                originalPhotoBitmap = BitmapUtils.getSquareBitmapFromUri(mContext, photo.getUri(), decodeSize,
+                        BitmapUtils.findSquarePosition(exifInfo));
+            }
+
+            if (originalPhotoBitmap == null) {
+                return null;
+            }
+
+            Bitmap[] icons = BitmapUtils.getRoundedIcons(
+                    mContext, originalPhotoBitmap, exifInfo.getOrientation(), missingSizes);
+            BitmapPool.get(mContext).put(originalPhotoBitmap);
+
+            if (legacyIcon == null) {
+                legacyIcon = icons[0];
+                putCachedIcon(photo, metadata, legacyIconSize, legacyIcon);
+            }
+            if (shortcutIcon == null) {
+                shortcutIcon = icons[icons.length - 1];
+                if (shortcutIcon != legacyIcon) {
+                    putCachedIcon(photo, metadata, shortcutIconSize, shortcutIcon);
+                }
+            }
+        }
+
+        final String shortcutId = ShortcutRegistry.getShortcutId(photo.getUri(), metadata.getFingerprint());
+
+        // The ShortcutManager then reads the icon from a file, instead of taking its pixels
+        final Uri shortcutIconUri = SDKUtils.AT_LEAST_R
+                ? ShortcutIconStore.get(mContext).putIcon(shortcutId, shortcutIcon) : null;
+
+        return new RenderedShortcut(photo, legacyIcon, shortcutIcon, shortcutIconUri, shortcutIntent, shortcutId);
+    }
+
+    private Bitmap getCachedIcon(Photo photo, IconCache.SourceMetadata metadata, int iconSize) {
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.ICON_CACHE);
+        try {
+            return IconCache.get(mContext).getIcon(photo.getUri(), metadata, iconSize, IconCache.SHAPE_CIRCLE);
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.ICON_CACHE, startNs);
+        }
+    }
+
+    private void putCachedIcon(Photo photo, IconCache.SourceMetadata metadata, int iconSize, Bitmap icon) {
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.ICON_CACHE);
+        try {
+            IconCache.get(mContext).putIcon(photo.getUri(), metadata, iconSize, IconCache.SHAPE_CIRCLE, icon);
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.ICON_CACHE, startNs);
+        }
+    }
+
+    /**
+     * Send the HomeScreen shortcut broadcasts and add the Nougat icon shortcuts.
+     *
+     * @param renderedShortcuts The rendered shortcuts.
+     */
+    void publishShortcuts(List<RenderedShortcut> renderedShortcuts) {
+        long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.BROADCAST);
+        try {
+            for (RenderedShortcut renderedShortcut : renderedShortcuts) {
+                final Intent addIntent = new Intent();
+                addIntent.putExtra(Intent.EXTRA_SHORTCUT_INTENT, renderedShortcut.mIntent);
+                addIntent.putExtra(Intent.EXTRA_SHORTCUT_NAME, renderedShortcut.mPhoto.getName());
+                addIntent.putExtra(EXTRA_DUPLICATE, false);
                 addIntent.setAction(INSTALL_SHORTCUT_ACTION);
 
-                mActivity.sendBroadcast(addIntent);
+                // Launchers only take a Bitmap here, already at their icon size
+                final int bytes = IpcSizes.of(addIntent) + renderedShortcut.mLegacyIcon.getByteCount();
+                addIntent.putExtra(Intent.EXTRA_SHORTCUT_ICON, renderedShortcut.mLegacyIcon);
 
-                createNougatShortcut(photo, bitmap, shortcutIntent);
+                mContext.sendBroadcast(addIntent);
+
+                PipelineMetrics.addBytes(PipelineMetrics.Stage.BROADCAST, bytes);
             }
-        }.execute();
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.BROADCAST, startNs);
+        }
 
-        Toast.makeText(mActivity, mActivity.getResources().getString(R.string.shortcut_created, photo.getName()), Toast.LENGTH_SHORT).show();
+        startNs = PipelineMetrics.begin(PipelineMetrics.Stage.SHORTCUT_MANAGER);
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.BINDER_CALL);
+        try {
+            createNougatShortcuts(renderedShortcuts);
+        } finally {
+            MainThreadMonitor.end(MainThreadMonitor.Operation.BINDER_CALL, monitorStartNs);
+            PipelineMetrics.end(PipelineMetrics.Stage.SHORTCUT_MANAGER, startNs);
+        }
     }
 
     /**
-     * Handle Nougat icon shortcuts.
+     * Handle Nougat icon shortcuts: photos that already have a shortcut get it updated in
+     * place, the others are added at once, evicting the least used shortcuts if needed.
+     * The published shortcuts are read from the {@link ShortcutRegistry}, not from the
+     * ShortcutManager.
      *
-     * @param photo  The Photo object.
-     * @param bitmap The rounded and scaled Bitmap.
-     * @param intent The Intent to launch when tapping on the shortcut.
+     * @param renderedShortcuts The rendered shortcuts.
      */
-    private void createNougatShortcut(Photo photo, Bitmap bitmap, Intent intent) {
-        if (SDKUtils.AT_LEAST_NOUGAT) {
-            ShortcutManager shortcutManager = mActivity.getSystemService(ShortcutManager.class);
-
-            List<ShortcutInfo> shortcutInfoList = shortcutManager.getDynamicShortcuts();
-
-            // Remove oldest Shortcut if we passed the shortcut limit number, using the
-            // milliseconds as the IDs
-            int numberOfShortcuts = shortcutInfoList.size();
-            if (numberOfShortcuts == SHORTCUTS_LIMIT) {
-                long oldestShortcutId = 0;
-                long currentShortcutMs;
-                long currentMs = System.currentTimeMillis();
-                for (ShortcutInfo shortcutInfo : shortcutInfoList) {
-                    currentShortcutMs = Long.valueOf(shortcutInfo.getId());
-
-                    if (currentMs - currentShortcutMs > oldestShortcutId) {
-                        oldestShortcutId = currentShortcutMs;
-                    }
+    private void createNougatShortcuts(List<RenderedShortcut> renderedShortcuts) {
+        if (SDKUtils.AT_LEAST_NOUGAT && !renderedShortcuts.isEmpty()) {
+            ShortcutManager shortcutManager = mContext.getSystemService(ShortcutManager.class);
+            ShortcutRegistry shortcutRegistry = ShortcutRegistry.get(mContext);
+            ShortcutIconStore iconStore = ShortcutIconStore.get(mContext);
+
+            // Only the newest ones can be shown, one per photo content
+            Map<String, RenderedShortcut> newestShortcuts = new LinkedHashMap<>();
+            for (int i = renderedShortcuts.size() - 1; i >= 0 && newestShortcuts.size() < SHORTCUTS_LIMIT; i--) {
+                RenderedShortcut renderedShortcut = renderedShortcuts.get(i);
+                if (!newestShortcuts.containsKey(renderedShortcut.mShortcutId)) {
+                    newestShortcuts.put(renderedShortcut.mShortcutId, renderedShortcut);
+                }
+            }
+
+            List<ShortcutInfo> updatedShortcutInfoList = new ArrayList<>(newestShortcuts.size());
+            List<ShortcutInfo> newShortcutInfoList = new ArrayList<>(newestShortcuts.size());
+            long bytes = 0;
+            long bitmapIconBytes = 0;
+            for (Map.Entry<String, RenderedShortcut> entry : newestShortcuts.entrySet()) {
+                final RenderedShortcut renderedShortcut = entry.getValue();
+                final Photo photo = renderedShortcut.mPhoto;
+                final ShortcutInfo.Builder builder = new ShortcutInfo.Builder(mContext, entry.getKey())
+                        .setShortLabel(photo.getName())
+                        .setIntent(ShortcutLaunchActivity.newIntent(mContext, entry.getKey(), photo.getUri()));
+
+                // Measured without the icon, see IpcSizes.of() for bitmaps
+                final int infoBytes = IpcSizes.of(builder.build());
+                final int pixelBytes = renderedShortcut.mShortcutIcon.getByteCount();
+
+                // Stored again if the icon was deleted since the render, along with an
+                // evicted or removed shortcut of the same photo
+                final Uri iconUri = renderedShortcut.mShortcutIconUri != null
+                        ? iconStore.putIcon(entry.getKey(), renderedShortcut.mShortcutIcon) : null;
+
+                final Icon icon;
+                if (iconUri != null) {
+                    icon = Icon.createWithContentUri(iconUri);
+                    bytes += infoBytes + IpcSizes.of(icon);
+                } else {
+                    icon = Icon.createWithBitmap(renderedShortcut.mShortcutIcon);
+                    bytes += infoBytes + pixelBytes;
+                }
+                bitmapIconBytes += infoBytes + pixelBytes;
+
+                ShortcutInfo shortcutInfo = builder.setIcon(icon).build();
+
+                if (shortcutRegistry.contains(entry.getKey())) {
+                    updatedShortcutInfoList.add(shortcutInfo);
+                } else {
+                    newShortcutInfoList.add(shortcutInfo);
+                }
+            }
+
+            // Make room for the new ones, removing the least used ones
+            List<String> evictedIds = shortcutRegistry.selectEvictions(
+                    shortcutRegistry.size() + newShortcutInfoList.size() - SHORTCUTS_LIMIT, newestShortcuts.keySet());
+            if (!evictedIds.isEmpty()) {
+                shortcutManager.removeDynamicShortcuts(evictedIds);
+            }
+
+            // Both calls are rate limited, only record what has been published
+            Map<String, Photo> publishedPhotos = new LinkedHashMap<>();
+            if (!updatedShortcutInfoList.isEmpty() && shortcutManager.updateShortcuts(updatedShortcutInfoList)) {
+                for (ShortcutInfo shortcutInfo : updatedShortcutInfoList) {
+                    publishedPhotos.put(shortcutInfo.getId(), newestShortcuts.get(shortcutInfo.getId()).mPhoto);
+                }
+            }
+            if (!newShortcutInfoList.isEmpty() && shortcutManager.addDynamicShortcuts(newShortcutInfoList)) {
+                for (ShortcutInfo shortcutInfo : newShortcutInfoList) {
+                    publishedPhotos.put(shortcutInfo.getId(), newestShortcuts.get(shortcutInfo.getId()).mPhoto);
                 }
+            }
+
+            shortcutRegistry.onShortcutsChanged(publishedPhotos, evictedIds);
 
-                shortcutManager.removeDynamicShortcuts(Collections.singletonList(String.valueOf(oldestShortcutId)));
+            PipelineMetrics.addBytes(PipelineMetrics.Stage.SHORTCUT_MANAGER, bytes);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Sent " + bytes + " bytes of shortcuts, " + bitmapIconBytes + " with bitmap icons");
             }
 
-            long newShortcutId = System.currentTimeMillis();
-            shortcutManager.addDynamicShortcuts(Collections.singletonList(
-                    new ShortcutInfo.Builder(mActivity, String.valueOf(newShortcutId))
-                            .setShortLabel(photo.getName())
-                            .setIcon(Icon.createWithBitmap(bitmap))
-                            .setIntent(intent)
-                            .build()));
+            iconStore.removeIcons(evictedIds);
+
+            if (!publishedPhotos.isEmpty()) {
+                ShortcutValidationService.schedule(mContext);
+            }
         }
     }
 
@@ -144,17 +491,62 @@ public class ShortcutHelper {
      */
     public void removeShortcuts() {
         if (SDKUtils.AT_LEAST_NOUGAT) {
-            mActivity.getSystemService(ShortcutManager.class).removeAllDynamicShortcuts();
+            final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.BINDER_CALL);
+            try {
+                mContext.getSystemService(ShortcutManager.class).removeAllDynamicShortcuts();
+            } finally {
+                MainThreadMonitor.end(MainThreadMonitor.Operation.BINDER_CALL, monitorStartNs);
+            }
+            ShortcutRegistry.get(mContext).clear();
+            ShortcutIconStore.get(mContext).clear();
         }
     }
 
     /**
      * A Method to check if we have already added at least one Nougat icon shortcut.
+     * This is answered by the {@link ShortcutRegistry}, without asking the ShortcutManager.
      *
      * @return true if at least 1 Nougat shortcut icon is added.
      */
     public boolean hasShortcuts() {
-        return SDKUtils.AT_LEAST_NOUGAT
-                && mActivity.getSystemService(ShortcutManager.class).getDynamicShortcuts().size() > 0;
+        return SDKUtils.AT_LEAST_NOUGAT && !ShortcutRegistry.get(mContext).isEmpty();
+    }
+
+    /**
+     * A photo with its rendered icons and the Intent to launch when tapping on the shortcut.
+     * The HomeScreen shortcut icon and the Nougat icon shortcut one are the same Bitmap
+     * when the launcher wants them at the same size. The Nougat one also has a content Uri
+     * where the ShortcutManager takes one, see {@link ShortcutIconStore}.
+     */
+    static class RenderedShortcut {
+
+        private final Photo mPhoto;
+        private final Bitmap mLegacyIcon;
+        private final Bitmap mShortcutIcon;
+        private final Uri mShortcutIconUri;
+        private final Intent mIntent;
+        private final String mShortcutId;
+
+        RenderedShortcut(Photo photo, Bitmap legacyIcon, Bitmap shortcutIcon, Uri shortcutIconUri, Intent intent,
+                         String shortcutId) {
+            mPhoto = photo;
+            mLegacyIcon = legacyIcon;
+            mShortcutIcon = shortcutIcon;
+            mShortcutIconUri = shortcutIconUri;
+            mIntent = intent;
+            mShortcutId = shortcutId;
+        }
+
+        Photo getPhoto() {
+            return mPhoto;
+        }
+
+        /**
+         * @return The same shortcut, with the given name.
+         */
+        RenderedShortcut withName(String name) {
+            return new RenderedShortcut(new Photo(name, mPhoto.getUri()), mLegacyIcon, mShortcutIcon,
+                    mShortcutIconUri, mIntent, mShortcutId);
+        }
     }
 }
@@ -0,0 +1,205 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import ml.matteolobello.quickphoto.BuildConfig;
+import ml.matteolobello.quickphoto.providers.IconProvider;
+
+/**
+ * The icons of the published Nougat icon shortcuts, as compressed files in the app
+ * storage, served by the {@link IconProvider}, so that the ShortcutManager is given a
+ * Uri instead of the icon pixels, where it supports it.
+ * <p>
+ * Unlike the {@link IconCache} files, these are never trimmed: they live as long as their
+ * shortcut, the launcher reading them whenever it draws it, and are only deleted with it.
+ * Writes and deletions are serialized, so that a publish never deletes an icon while a
+ * render is storing it.
+ */
+public class ShortcutIconStore {
+
+    private static final String TAG = "ShortcutIconStore";
+
+    /**
+     * The authority of the {@link IconProvider}.
+     */
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".icons";
+
+    /**
+     * The name of the files sub-directory.
+     */
+    private static final String ICONS_DIR = "shortcut_icons";
+
+    /**
+     * Lossy WebP keeps alpha and is about a tenth of the raw pixels at this quality.
+     */
+    private static final int COMPRESS_QUALITY = 90;
+
+    private static final String ICON_EXTENSION = ".webp";
+
+    private static ShortcutIconStore sInstance;
+
+    private final File mIconsDir;
+
+    private ShortcutIconStore(Context context) {
+        mIconsDir = new File(context.getApplicationContext().getFilesDir(), ICONS_DIR);
+    }
+
+    /**
+     * Get the app-wide instance of the store.
+     *
+     * @param context The Context.
+     * @return The ShortcutIconStore.
+     */
+    public static synchronized ShortcutIconStore get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ShortcutIconStore(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Store the icon of a shortcut, unless it's already there: the ID stands for the photo
+     * content, so the same ID, size and rendering make the same icon.
+     *
+     * @param shortcutId The shortcut ID.
+     * @param icon       The icon.
+     * @return The content Uri of the icon, or null if it couldn't be written.
+     */
+    public synchronized Uri putIcon(String shortcutId, Bitmap icon) {
+        final String fileName = getFileName(shortcutId, icon.getWidth());
+        final File file = new File(mIconsDir, fileName);
+        if (file.exists()) {
+            return getUri(fileName);
+        }
+
+        if (!mIconsDir.exists() && !mIconsDir.mkdirs()) {
+            return null;
+        }
+
+        final File tempFile = new File(mIconsDir, fileName + ".tmp");
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+            icon.compress(Bitmap.CompressFormat.WEBP, COMPRESS_QUALITY, outputStream);
+            outputStream.close();
+            outputStream = null;
+
+            if (!tempFile.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+
+                return file.exists() ? getUri(fileName) : null;
+            }
+
+            return getUri(fileName);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write " + file, e);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+
+            return null;
+        } finally {
+            BitmapUtils.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * Get a stored icon file, for the {@link IconProvider}.
+     *
+     * @param fileName The last segment of the icon Uri.
+     * @return The file, or null if there's no such icon.
+     */
+    public File getFile(String fileName) {
+        if (fileName == null || !fileName.endsWith(ICON_EXTENSION)
+                || fileName.indexOf('/') >= 0 || fileName.startsWith(".")) {
+            return null;
+        }
+
+        final File file = new File(mIconsDir, fileName);
+
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Delete the icons of the given shortcuts, after they have been removed.
+     *
+     * @param shortcutIds The IDs of the removed shortcuts.
+     */
+    public synchronized void removeIcons(Collection<String> shortcutIds) {
+        if (shortcutIds.isEmpty()) {
+            return;
+        }
+
+        final Set<String> prefixes = new HashSet<>(shortcutIds.size() * 2);
+        for (String shortcutId : shortcutIds) {
+            prefixes.add(getPrefix(shortcutId));
+        }
+
+        deleteIcons(prefixes);
+    }
+
+    /**
+     * Delete every stored icon, after all the shortcuts have been removed.
+     */
+    public synchronized void clear() {
+        deleteIcons(null);
+    }
+
+    /**
+     * Delete the icons whose shortcut ID has one of the given prefixes, or all of them if
+     * null. The temp files of the writes are left alone.
+     */
+    private void deleteIcons(Set<String> prefixes) {
+        final File[] files = mIconsDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            final String name = file.getName();
+            final int separator = name.indexOf('_');
+            if (!name.endsWith(ICON_EXTENSION) || separator < 0) {
+                continue;
+            }
+
+            if (prefixes == null || prefixes.contains(name.substring(0, separator + 1))) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * The file name: the shortcut ID, which may be a Uri, hashed, then what the icon
+     * depends on besides the photo.
+     */
+    private static String getFileName(String shortcutId, int iconSize) {
+        return getPrefix(shortcutId) + iconSize + "_v" + IconCache.DISK_ENTRY_VERSION + ICON_EXTENSION;
+    }
+
+    private static String getPrefix(String shortcutId) {
+        return IconCache.md5(shortcutId) + '_';
+    }
+
+    private static Uri getUri(String fileName) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath(fileName)
+                .build();
+    }
+}
@@ -0,0 +1,385 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The app-wide queue creating shortcuts in the background.
+ * <p>
+ * Jobs are persisted, so that they survive rotation and process death, and are keyed
+ * by their photos: an identical request is dropped, while a request for the same photos
+ * with a different name replaces (and cancels) the pending one.
+ * Failed jobs are retried a few times, then the result is delivered to the current
+ * {@link Listener}, or kept until one is set.
+ */
+public class ShortcutJobQueue {
+
+    private static final String TAG = "ShortcutJobQueue";
+
+    /**
+     * The SharedPreferences file and key used to persist the pending jobs.
+     */
+    private static final String PREFERENCES_NAME = "shortcut_jobs";
+    private static final String PREFERENCE_PENDING_JOBS = "pending_jobs";
+
+    /**
+     * How many times a job is run before giving up.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * The delay before the first retry, doubled at every attempt.
+     */
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private static ShortcutJobQueue sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The dedicated thread running the jobs, so that we never wait behind other AsyncTasks.
+     */
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(
+            new BackgroundThreadFactory(TAG));
+
+    /**
+     * The pending jobs, by key, in submission order. Guarded by this.
+     */
+    private final Map<String, Job> mJobs = new LinkedHashMap<>();
+
+    /**
+     * The results not delivered yet, because no Listener was set. Guarded by this.
+     */
+    private final List<Result> mUndeliveredResults = new ArrayList<>();
+
+    /**
+     * The current Listener, only touched on the main thread.
+     */
+    private Listener mListener;
+
+    private ShortcutJobQueue(Context context) {
+        mContext = context.getApplicationContext();
+        mPreferences = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+
+        restorePendingJobs();
+    }
+
+    /**
+     * Get the app-wide instance of the queue.
+     *
+     * @param context The Context.
+     * @return The ShortcutJobQueue.
+     */
+    public static synchronized ShortcutJobQueue get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ShortcutJobQueue(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Set the Listener receiving the results, usually the resumed Activity.
+     * Results produced while there was no Listener are delivered now.
+     * This must be called on the main thread.
+     *
+     * @param listener The Listener, or null to stop receiving results.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+
+        if (listener != null) {
+            List<Result> results;
+            synchronized (this) {
+                results = new ArrayList<>(mUndeliveredResults);
+                mUndeliveredResults.clear();
+            }
+
+            for (Result result : results) {
+                listener.onShortcutJobFinished(result);
+            }
+        }
+    }
+
+    /**
+     * Queue a job, coalescing it with a pending one for the same photos.
+     *
+     * @param job The job.
+     */
+    public synchronized void enqueue(Job job) {
+        Job pendingJob = mJobs.get(job.getKey());
+        if (pendingJob != null) {
+            if (pendingJob.hasSameInputs(job)) {
+                Log.d(TAG, "Dropping a duplicate job for " + job.getKey());
+
+                return;
+            }
+
+            Log.d(TAG, "Replacing the pending job for " + job.getKey());
+            cancel(pendingJob);
+        }
+
+        mJobs.put(job.getKey(), job);
+        persistPendingJobs();
+
+        schedule(job, 0);
+    }
+
+    /**
+     * @return The number of jobs not finished yet.
+     */
+    public synchronized int getPendingJobsCount() {
+        return mJobs.size();
+    }
+
+    private void schedule(final Job job, long delayMs) {
+        job.mFuture = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runJob(job);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel(Job job) {
+        mJobs.remove(job.getKey());
+
+        if (job.mFuture != null) {
+            job.mFuture.cancel(true);
+        }
+    }
+
+    private void runJob(Job job) {
+        final ShortcutHelper shortcutHelper = ShortcutHelper.get(mContext);
+
+        List<ShortcutHelper.RenderedShortcut> renderedShortcuts;
+        try {
+            renderedShortcuts = shortcutHelper.renderShortcuts(job.mUris, job.mName, job.mNameTemplate);
+        } catch (InterruptedException e) {
+            // Cancelled, a newer job took its place
+            return;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            Log.w(TAG, "Job " + job.getKey() + " failed", e);
+            renderedShortcuts = Collections.emptyList();
+        }
+
+        synchronized (this) {
+            if (mJobs.get(job.getKey()) != job) {
+                return;
+            }
+
+            if (renderedShortcuts.isEmpty() && ++job.mAttempts < MAX_ATTEMPTS) {
+                persistPendingJobs();
+                schedule(job, RETRY_DELAY_MS << (job.mAttempts - 1));
+
+                return;
+            }
+
+            mJobs.remove(job.getKey());
+            persistPendingJobs();
+        }
+
+        if (!renderedShortcuts.isEmpty()) {
+            shortcutHelper.publishShortcuts(renderedShortcuts);
+        }
+
+        List<String> names = new ArrayList<>(renderedShortcuts.size());
+        for (ShortcutHelper.RenderedShortcut renderedShortcut : renderedShortcuts) {
+            names.add(renderedShortcut.getPhoto().getName());
+        }
+
+        deliver(new Result(names, job.mUris.size()));
+    }
+
+    private void deliver(final Result result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onShortcutJobFinished(result);
+                } else {
+                    synchronized (ShortcutJobQueue.this) {
+                        mUndeliveredResults.add(result);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the pending jobs to disk. Guarded by this.
+     */
+    private void persistPendingJobs() {
+        JSONArray jsonArray = new JSONArray();
+        try {
+            for (Job job : mJobs.values()) {
+                jsonArray.put(job.toJson());
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Couldn't persist the pending jobs", e);
+        }
+
+        mPreferences.edit().putString(PREFERENCE_PENDING_JOBS, jsonArray.toString()).apply();
+    }
+
+    /**
+     * Schedule again the jobs left pending by a previous process.
+     */
+    private synchronized void restorePendingJobs() {
+        String pendingJobs = mPreferences.getString(PREFERENCE_PENDING_JOBS, null);
+        if (pendingJobs == null) {
+            return;
+        }
+
+        try {
+            JSONArray jsonArray = new JSONArray(pendingJobs);
+            for (int i = 0; i < jsonArray.length(); i++) {
+                Job job = Job.fromJson(jsonArray.getJSONObject(i));
+                mJobs.put(job.getKey(), job);
+                schedule(job, 0);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable pending jobs", e);
+            mPreferences.edit().remove(PREFERENCE_PENDING_JOBS).apply();
+        }
+    }
+
+    /**
+     * Receives the result of the jobs, on the main thread.
+     */
+    public interface Listener {
+
+        void onShortcutJobFinished(Result result);
+    }
+
+    /**
+     * The outcome of a job.
+     */
+    public static class Result {
+
+        private final List<String> mCreatedNames;
+        private final int mRequestedCount;
+
+        Result(List<String> createdNames, int requestedCount) {
+            mCreatedNames = createdNames;
+            mRequestedCount = requestedCount;
+        }
+
+        /**
+         * @return The names of the shortcuts created.
+         */
+        public List<String> getCreatedNames() {
+            return mCreatedNames;
+        }
+
+        /**
+         * @return The number of photos of the job.
+         */
+        public int getRequestedCount() {
+            return mRequestedCount;
+        }
+    }
+
+    /**
+     * A request to create the shortcuts of one or more photos.
+     */
+    public static class Job {
+
+        private static final String JSON_URIS = "uris";
+        private static final String JSON_NAME = "name";
+        private static final String JSON_NAME_TEMPLATE = "name_template";
+        private static final String JSON_ATTEMPTS = "attempts";
+
+        private final List<Uri> mUris;
+        private final String mName;
+        private final String mNameTemplate;
+        private final String mKey;
+
+        private int mAttempts;
+        private Future<?> mFuture;
+
+        private Job(List<Uri> uris, String name, String nameTemplate) {
+            mUris = uris;
+            mName = name;
+            mNameTemplate = nameTemplate;
+
+            StringBuilder key = new StringBuilder();
+            for (Uri uri : uris) {
+                key.append(uri).append('\n');
+            }
+            mKey = key.toString();
+        }
+
+        /**
+         * Create a job for a single photo with the given name.
+         */
+        public static Job forPhoto(Uri uri, String name) {
+            return new Job(Collections.singletonList(uri), name, null);
+        }
+
+        /**
+         * Create a job for a batch of photos, named by a {@link ShortcutNameTemplate}.
+         */
+        public static Job forBatch(List<Uri> uris, String nameTemplate) {
+            return new Job(new ArrayList<>(uris), null, nameTemplate);
+        }
+
+        String getKey() {
+            return mKey;
+        }
+
+        boolean hasSameInputs(Job job) {
+            return mKey.equals(job.mKey)
+                    && (mName == null ? job.mName == null : mName.equals(job.mName))
+                    && (mNameTemplate == null ? job.mNameTemplate == null : mNameTemplate.equals(job.mNameTemplate));
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONArray uris = new JSONArray();
+            for (Uri uri : mUris) {
+                uris.put(uri.toString());
+            }
+
+            return new JSONObject()
+                    .put(JSON_URIS, uris)
+                    .put(JSON_NAME, mName)
+                    .put(JSON_NAME_TEMPLATE, mNameTemplate)
+                    .put(JSON_ATTEMPTS, mAttempts);
+        }
+
+        static Job fromJson(JSONObject jsonObject) throws JSONException {
+            JSONArray jsonUris = jsonObject.getJSONArray(JSON_URIS);
+            List<Uri> uris = new ArrayList<>(jsonUris.length());
+            for (int i = 0; i < jsonUris.length(); i++) {
+                uris.add(Uri.parse(jsonUris.getString(i)));
+            }
+
+            Job job = new Job(uris,
+                    jsonObject.has(JSON_NAME) ? jsonObject.getString(JSON_NAME) : null,
+                    jsonObject.has(JSON_NAME_TEMPLATE) ? jsonObject.getString(JSON_NAME_TEMPLATE) : null);
+            job.mAttempts = jsonObject.optInt(JSON_ATTEMPTS);
+
+            return job;
+        }
+    }
+}
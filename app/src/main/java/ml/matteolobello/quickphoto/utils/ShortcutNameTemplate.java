@@ -0,0 +1,71 @@
+package ml.matteolobello.quickphoto.utils;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Builds shortcut names for a batch of photos from a template like "{name}" or "Trip {index}".
+ */
+public class ShortcutNameTemplate {
+
+    /**
+     * Replaced with the file name of the photo, without extension.
+     */
+    public static final String TOKEN_NAME = "{name}";
+
+    /**
+     * Replaced with the date of the photo.
+     */
+    public static final String TOKEN_DATE = "{date}";
+
+    /**
+     * Replaced with the 1-based position of the photo in the batch.
+     */
+    public static final String TOKEN_INDEX = "{index}";
+
+    /**
+     * Used when the file name is unknown.
+     */
+    private static final String FALLBACK_NAME = "Photo";
+
+    private final String mTemplate;
+    private final DateFormat mDateFormat;
+
+    public ShortcutNameTemplate(String template, DateFormat dateFormat) {
+        mTemplate = template;
+        mDateFormat = dateFormat;
+    }
+
+    /**
+     * Build the name of a photo.
+     *
+     * @param fileName   The file name, may be null.
+     * @param dateMillis The date of the photo, or a value lower than 1 if unknown.
+     * @param index      The 0-based position of the photo in the batch.
+     * @return The shortcut name.
+     */
+    public String format(String fileName, long dateMillis, int index) {
+        String date;
+        synchronized (mDateFormat) {
+            date = dateMillis > 0 ? mDateFormat.format(new Date(dateMillis)) : "";
+        }
+
+        String name = mTemplate
+                .replace(TOKEN_NAME, stripExtension(fileName))
+                .replace(TOKEN_DATE, date)
+                .replace(TOKEN_INDEX, String.valueOf(index + 1))
+                .trim();
+
+        return name.isEmpty() ? FALLBACK_NAME + " " + (index + 1) : name;
+    }
+
+    private static String stripExtension(String fileName) {
+        if (fileName == null || fileName.isEmpty()) {
+            return FALLBACK_NAME;
+        }
+
+        int dotIndex = fileName.lastIndexOf('.');
+
+        return dotIndex > 0 ? fileName.substring(0, dotIndex) : fileName;
+    }
+}
@@ -0,0 +1,181 @@
+package ml.matteolobello.quickphoto.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What the {@link ShortcutRegistry} knows about a published Nougat icon shortcut:
+ * the photo it opens, its size when last seen, and how often and how recently it has
+ * been launched.
+ * This is plain Java, so that the eviction policy can be unit tested.
+ */
+class ShortcutRecord {
+
+    /**
+     * The time after which the weight of the past launches is halved.
+     */
+    static final long USAGE_HALF_LIFE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private final String mId;
+    private final long mCreatedMillis;
+
+    private String mUri;
+    private String mName;
+    private long mSize;
+    private long mLastUsedMillis;
+    private int mLaunchCount;
+
+    ShortcutRecord(String id, String uri, String name, long createdMillis) {
+        this(id, uri, name, -1, createdMillis, createdMillis, 0);
+    }
+
+    private ShortcutRecord(String id, String uri, String name, long size,
+                           long createdMillis, long lastUsedMillis, int launchCount) {
+        mId = id;
+        mUri = uri;
+        mName = name;
+        mSize = size;
+        mCreatedMillis = createdMillis;
+        mLastUsedMillis = lastUsedMillis;
+        mLaunchCount = launchCount;
+    }
+
+    /**
+     * @return An independent copy of the record.
+     */
+    ShortcutRecord copy() {
+        return new ShortcutRecord(mId, mUri, mName, mSize, mCreatedMillis, mLastUsedMillis, mLaunchCount);
+    }
+
+    String getId() {
+        return mId;
+    }
+
+    String getUri() {
+        return mUri;
+    }
+
+    void setUri(String uri) {
+        mUri = uri;
+    }
+
+    /**
+     * @return The size of the photo when it was last validated, -1 if unknown.
+     */
+    long getSize() {
+        return mSize;
+    }
+
+    void setSize(long size) {
+        mSize = size;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    void setName(String name) {
+        mName = name;
+    }
+
+    long getLastUsedMillis() {
+        return mLastUsedMillis;
+    }
+
+    int getLaunchCount() {
+        return mLaunchCount;
+    }
+
+    /**
+     * Count a launch of the shortcut.
+     *
+     * @param nowMillis The current time.
+     */
+    void recordLaunch(long nowMillis) {
+        mLaunchCount++;
+        mLastUsedMillis = Math.max(mLastUsedMillis, nowMillis);
+    }
+
+    /**
+     * How much the shortcut is worth keeping: the launches, plus one for having been
+     * created, decayed by the time since the last use.
+     *
+     * @param nowMillis The current time.
+     * @return The score, higher is better.
+     */
+    double getScore(long nowMillis) {
+        long idleMillis = Math.max(0, nowMillis - mLastUsedMillis);
+
+        return (mLaunchCount + 1) * Math.pow(0.5, (double) idleMillis / USAGE_HALF_LIFE_MS);
+    }
+
+    void write(DataOutput output) throws IOException {
+        output.writeUTF(mId);
+        output.writeUTF(mUri);
+        output.writeUTF(mName);
+        output.writeLong(mSize);
+        output.writeLong(mCreatedMillis);
+        output.writeLong(mLastUsedMillis);
+        output.writeInt(mLaunchCount);
+    }
+
+    static ShortcutRecord read(DataInput input) throws IOException {
+        return new ShortcutRecord(input.readUTF(), input.readUTF(), input.readUTF(),
+                input.readLong(), input.readLong(), input.readLong(), input.readInt());
+    }
+
+    /**
+     * Read a record written before the size was stored.
+     */
+    static ShortcutRecord readWithoutSize(DataInput input) throws IOException {
+        return new ShortcutRecord(input.readUTF(), input.readUTF(), input.readUTF(),
+                -1, input.readLong(), input.readLong(), input.readInt());
+    }
+
+    /**
+     * Pick the records to evict to make room: the lowest scores first, the least
+     * recently used first on ties.
+     *
+     * @param records    The current records.
+     * @param count      How many records to evict.
+     * @param keptIds    The IDs that must not be evicted.
+     * @param nowMillis  The current time.
+     * @return The IDs to evict, at most count of them.
+     */
+    static List<String> selectEvictions(Collection<ShortcutRecord> records, int count,
+                                        Set<String> keptIds, final long nowMillis) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<ShortcutRecord> candidates = new ArrayList<>(records.size());
+        for (ShortcutRecord record : records) {
+            if (!keptIds.contains(record.mId)) {
+                candidates.add(record);
+            }
+        }
+
+        Collections.sort(candidates, new Comparator<ShortcutRecord>() {
+            @Override
+            public int compare(ShortcutRecord first, ShortcutRecord second) {
+                int byScore = Double.compare(first.getScore(nowMillis), second.getScore(nowMillis));
+
+                return byScore != 0 ? byScore : Long.compare(first.mLastUsedMillis, second.mLastUsedMillis);
+            }
+        });
+
+        List<String> evictedIds = new ArrayList<>(Math.min(count, candidates.size()));
+        for (int i = 0; i < count && i < candidates.size(); i++) {
+            evictedIds.add(candidates.get(i).mId);
+        }
+
+        return evictedIds;
+    }
+}
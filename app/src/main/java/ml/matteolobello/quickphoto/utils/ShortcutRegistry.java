@@ -0,0 +1,386 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ShortcutInfo;
+import android.content.pm.ShortcutManager;
+import android.net.Uri;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ml.matteolobello.quickphoto.imaging.ContentFingerprint;
+import ml.matteolobello.quickphoto.pojo.Photo;
+
+/**
+ * The local mirror of the published Nougat icon shortcuts, so that we never ask the
+ * ShortcutManager what we have already published.
+ * <p>
+ * Shortcuts are keyed by the content of their photo, so that publishing a photo again,
+ * even through another Uri, updates its shortcut in place.
+ * Each record remembers how often and how recently its shortcut has been launched,
+ * which decides the ones to evict, see {@link ShortcutRecord#selectEvictions}.
+ * The records are kept in memory and written to a small binary file in the background.
+ */
+public class ShortcutRegistry {
+
+    private static final String TAG = "ShortcutRegistry";
+
+    /**
+     * The name of the file in the app files dir.
+     */
+    private static final String FILE_NAME = "shortcut_registry.bin";
+
+    /**
+     * Written at the start of the file, to recognize it, followed by the format version.
+     */
+    private static final int FILE_MAGIC = 0x51505352;
+    private static final int FILE_VERSION = 2;
+
+    /**
+     * The version written before the photo sizes were stored.
+     */
+    private static final int FILE_VERSION_WITHOUT_SIZE = 1;
+
+    /**
+     * The prefix of the IDs built from content fingerprints, which can't clash with Uris.
+     */
+    private static final String SHORTCUT_ID_FINGERPRINT_PREFIX = "content-";
+
+    private static ShortcutRegistry sInstance;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+
+    /**
+     * Writes the file, so that callers never wait on the disk.
+     */
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor(
+            new BackgroundThreadFactory(TAG));
+
+    /**
+     * The records, by ID, in publishing order. Guarded by this.
+     */
+    private final Map<String, ShortcutRecord> mRecords = new LinkedHashMap<>();
+
+    private ShortcutRegistry(Context context) {
+        mContext = context.getApplicationContext();
+        mFile = new AtomicFile(new File(mContext.getFilesDir(), FILE_NAME));
+
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.FILE_IO);
+        try {
+            if (!load()) {
+                importPublishedShortcuts();
+            }
+        } finally {
+            MainThreadMonitor.end(MainThreadMonitor.Operation.FILE_IO, monitorStartNs);
+        }
+    }
+
+    /**
+     * Get the app-wide instance of the registry.
+     *
+     * @param context The Context.
+     * @return The ShortcutRegistry.
+     */
+    public static synchronized ShortcutRegistry get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ShortcutRegistry(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Load the registry in the background, so that the main thread finds it loaded.
+     *
+     * @param context The Context.
+     */
+    public static void preload(Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        new BackgroundThreadFactory(TAG).newThread(new Runnable() {
+            @Override
+            public void run() {
+                get(applicationContext);
+            }
+        }).start();
+    }
+
+    /**
+     * Get the ID of the shortcut of the given photo: its content fingerprint, so that the
+     * same photo picked through different Uris keeps a single shortcut, or its Uri when
+     * the content can't be read.
+     *
+     * @param uri         The Uri of the photo.
+     * @param fingerprint The fingerprint of the photo, see {@link ContentFingerprinter}.
+     * @return The shortcut ID.
+     */
+    public static String getShortcutId(Uri uri, long fingerprint) {
+        return fingerprint != ContentFingerprint.UNKNOWN
+                ? SHORTCUT_ID_FINGERPRINT_PREFIX + ContentFingerprint.toHexString(fingerprint)
+                : uri.toString();
+    }
+
+    /**
+     * Get the content fingerprint a shortcut ID has been built from.
+     *
+     * @param shortcutId The shortcut ID.
+     * @return The fingerprint, or {@link ContentFingerprint#UNKNOWN} if the ID is an Uri.
+     */
+    public static long getFingerprint(String shortcutId) {
+        if (!shortcutId.startsWith(SHORTCUT_ID_FINGERPRINT_PREFIX)) {
+            return ContentFingerprint.UNKNOWN;
+        }
+
+        return ContentFingerprint.fromHexString(shortcutId.substring(SHORTCUT_ID_FINGERPRINT_PREFIX.length()));
+    }
+
+    /**
+     * @return true if no shortcut is published.
+     */
+    public synchronized boolean isEmpty() {
+        return mRecords.isEmpty();
+    }
+
+    /**
+     * @return The number of published shortcuts.
+     */
+    public synchronized int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * @param id The shortcut ID.
+     * @return true if the shortcut is published.
+     */
+    public synchronized boolean contains(String id) {
+        return mRecords.containsKey(id);
+    }
+
+    /**
+     * Pick the shortcuts to remove to make room, the least used ones.
+     *
+     * @param count   How many shortcuts to evict.
+     * @param keptIds The IDs that must not be evicted, e.g. the ones being updated.
+     * @return The IDs to evict.
+     */
+    public synchronized List<String> selectEvictions(int count, Set<String> keptIds) {
+        return ShortcutRecord.selectEvictions(mRecords.values(), count, keptIds, System.currentTimeMillis());
+    }
+
+    /**
+     * Record the shortcuts published and removed with a single ShortcutManager update.
+     *
+     * @param published  The published shortcuts, by ID, with their photo Uri and name.
+     * @param removedIds The IDs of the removed shortcuts.
+     */
+    public synchronized void onShortcutsChanged(Map<String, Photo> published, Collection<String> removedIds) {
+        for (String id : removedIds) {
+            mRecords.remove(id);
+        }
+
+        long nowMillis = System.currentTimeMillis();
+        for (Map.Entry<String, Photo> entry : published.entrySet()) {
+            ShortcutRecord record = mRecords.get(entry.getKey());
+            if (record != null) {
+                record.setName(entry.getValue().getName());
+            } else {
+                mRecords.put(entry.getKey(), new ShortcutRecord(entry.getKey(),
+                        entry.getValue().getUri().toString(), entry.getValue().getName(), nowMillis));
+            }
+        }
+
+        persist();
+    }
+
+    /**
+     * @return A copy of the records, to be read without holding the registry.
+     */
+    synchronized List<ShortcutRecord> getRecords() {
+        List<ShortcutRecord> records = new ArrayList<>(mRecords.size());
+        for (ShortcutRecord record : mRecords.values()) {
+            records.add(record.copy());
+        }
+
+        return records;
+    }
+
+    /**
+     * Record the outcome of a validation of the shortcuts, see {@link ShortcutValidator}.
+     *
+     * @param sizes        The current photo sizes of the valid shortcuts, by ID.
+     * @param repairedUris The new photo Uris of the repaired shortcuts, by ID.
+     * @param disabledIds  The IDs of the disabled shortcuts.
+     */
+    synchronized void onShortcutsValidated(Map<String, Long> sizes, Map<String, String> repairedUris,
+                                           Collection<String> disabledIds) {
+        for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+            ShortcutRecord record = mRecords.get(entry.getKey());
+            if (record != null) {
+                record.setSize(entry.getValue());
+            }
+        }
+
+        for (Map.Entry<String, String> entry : repairedUris.entrySet()) {
+            ShortcutRecord record = mRecords.get(entry.getKey());
+            if (record != null) {
+                record.setUri(entry.getValue());
+            }
+        }
+
+        for (String id : disabledIds) {
+            mRecords.remove(id);
+        }
+
+        persist();
+    }
+
+    /**
+     * Count a launch of the given shortcut.
+     *
+     * @param id The shortcut ID.
+     * @return true if the shortcut is known.
+     */
+    public synchronized boolean recordLaunch(String id) {
+        ShortcutRecord record = mRecords.get(id);
+        if (record == null) {
+            return false;
+        }
+
+        record.recordLaunch(System.currentTimeMillis());
+        persist();
+
+        return true;
+    }
+
+    /**
+     * Forget all the shortcuts, after they have been removed from the ShortcutManager.
+     */
+    public synchronized void clear() {
+        mRecords.clear();
+        persist();
+    }
+
+    /**
+     * Snapshot the records and write them in the background. Guarded by this.
+     */
+    private void persist() {
+        final byte[] data;
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(byteStream);
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(mRecords.size());
+            for (ShortcutRecord record : mRecords.values()) {
+                record.write(output);
+            }
+            output.flush();
+
+            data = byteStream.toByteArray();
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't serialize the registry", e);
+
+            return;
+        }
+
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream outputStream = null;
+                try {
+                    outputStream = mFile.startWrite();
+                    outputStream.write(data);
+                    mFile.finishWrite(outputStream);
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't write the registry", e);
+                    if (outputStream != null) {
+                        mFile.failWrite(outputStream);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the records written by a previous process.
+     *
+     * @return false if there was no file yet.
+     */
+    private synchronized boolean load() {
+        FileInputStream inputStream;
+        try {
+            inputStream = mFile.openRead();
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(inputStream);
+            int version = input.readInt() == FILE_MAGIC ? input.readInt() : -1;
+            if (version != FILE_VERSION && version != FILE_VERSION_WITHOUT_SIZE) {
+                Log.w(TAG, "Dropping an unknown registry file");
+
+                return false;
+            }
+
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                ShortcutRecord record = version == FILE_VERSION
+                        ? ShortcutRecord.read(input) : ShortcutRecord.readWithoutSize(input);
+                mRecords.put(record.getId(), record);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping an unreadable registry file", e);
+            mRecords.clear();
+
+            return false;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Seed the registry with the shortcuts published before it existed, or restored
+     * without it. This is the only time we ask the ShortcutManager.
+     */
+    private synchronized void importPublishedShortcuts() {
+        if (!SDKUtils.AT_LEAST_NOUGAT) {
+            return;
+        }
+
+        List<ShortcutInfo> shortcutInfoList = mContext.getSystemService(ShortcutManager.class).getDynamicShortcuts();
+        for (ShortcutInfo shortcutInfo : shortcutInfoList) {
+            Intent intent = shortcutInfo.getIntent();
+            Uri uri = intent != null ? intent.getData() : null;
+            CharSequence label = shortcutInfo.getShortLabel();
+
+            mRecords.put(shortcutInfo.getId(), new ShortcutRecord(shortcutInfo.getId(),
+                    uri != null ? uri.toString() : "", label != null ? label.toString() : "",
+                    shortcutInfo.getLastChangedTimestamp()));
+        }
+
+        persist();
+    }
+}
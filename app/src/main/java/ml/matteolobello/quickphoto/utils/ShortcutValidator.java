@@ -0,0 +1,191 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.pm.ShortcutInfo;
+import android.content.pm.ShortcutManager;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ml.matteolobello.quickphoto.R;
+import ml.matteolobello.quickphoto.activities.ShortcutLaunchActivity;
+import ml.matteolobello.quickphoto.imaging.ContentFingerprint;
+
+/**
+ * Finds the Nougat icon shortcuts whose photo has been moved or deleted, and repairs or
+ * disables them.
+ * <p>
+ * All the shortcuts are checked in one batch: their paths are resolved with one query
+ * per provider and checked with a stat each. A missing photo is looked for among the
+ * indexed images of the same size, which are fingerprinted until one matches the
+ * shortcut ID. Found photos get their shortcut pointed to the new Uri, the others get
+ * it disabled, with a single ShortcutManager call each.
+ * The work stops as soon as its {@link WorkBudget} is spent.
+ */
+public class ShortcutValidator {
+
+    private final Context mContext;
+
+    public ShortcutValidator(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Validate all the shortcuts. This does I/O, so call it off the main thread.
+     *
+     * @param budget The time and I/O allowance.
+     * @return true if all the shortcuts have been validated, false if the budget ran out
+     * or the media index isn't ready yet.
+     */
+    public boolean validate(WorkBudget budget) {
+        if (!SDKUtils.AT_LEAST_NOUGAT) {
+            return true;
+        }
+
+        final ShortcutRegistry shortcutRegistry = ShortcutRegistry.get(mContext);
+        final List<ShortcutRecord> records = shortcutRegistry.getRecords();
+        if (records.isEmpty()) {
+            return true;
+        }
+
+        List<Uri> uris = new ArrayList<>(records.size());
+        for (ShortcutRecord record : records) {
+            uris.add(Uri.parse(record.getUri()));
+        }
+        Map<Uri, String> paths = UriResolver.get(mContext).resolvePaths(uris);
+
+        Map<String, Long> sizes = new HashMap<>();
+        List<ShortcutRecord> brokenRecords = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            if (budget.isSpent(SystemClock.elapsedRealtime())) {
+                return false;
+            }
+
+            // Photos we can't find on disk, e.g. cloud documents, are not broken
+            String path = paths.get(uris.get(i));
+            if (path == null) {
+                continue;
+            }
+
+            ShortcutRecord record = records.get(i);
+            File file = new File(path);
+            if (file.isFile()) {
+                if (file.length() != record.getSize()) {
+                    sizes.put(record.getId(), file.length());
+                }
+            } else {
+                brokenRecords.add(record);
+            }
+        }
+
+        Map<String, String> repairedUris = new LinkedHashMap<>();
+        List<String> disabledIds = new ArrayList<>();
+        boolean finished = findMovedPhotos(brokenRecords, budget, repairedUris, disabledIds);
+
+        publish(records, repairedUris, disabledIds);
+        shortcutRegistry.onShortcutsValidated(sizes, repairedUris, disabledIds);
+
+        return finished;
+    }
+
+    /**
+     * Look for the photos of the broken shortcuts among the indexed images of the same
+     * size, comparing their fingerprints with the shortcut IDs.
+     *
+     * @return false if the search has been cut short.
+     */
+    private boolean findMovedPhotos(List<ShortcutRecord> brokenRecords, WorkBudget budget,
+                                    Map<String, String> repairedUris, List<String> disabledIds) {
+        if (brokenRecords.isEmpty()) {
+            return true;
+        }
+
+        // Without the index we can't tell moved photos from deleted ones
+        MediaEntry[] entries = MediaIndex.get(mContext).getNewestFirst();
+        if (entries == null) {
+            return false;
+        }
+
+        Map<Long, List<MediaEntry>> candidatesBySize = new HashMap<>();
+        for (ShortcutRecord record : brokenRecords) {
+            if (record.getSize() >= 0) {
+                candidatesBySize.put(record.getSize(), new ArrayList<MediaEntry>());
+            }
+        }
+        for (MediaEntry entry : entries) {
+            List<MediaEntry> candidates = candidatesBySize.get(entry.getSize());
+            if (candidates != null) {
+                candidates.add(entry);
+            }
+        }
+
+        final ContentFingerprinter fingerprinter = ContentFingerprinter.get(mContext);
+        for (ShortcutRecord record : brokenRecords) {
+            long fingerprint = ShortcutRegistry.getFingerprint(record.getId());
+            List<MediaEntry> candidates = candidatesBySize.get(record.getSize());
+
+            String repairedUri = null;
+            if (fingerprint != ContentFingerprint.UNKNOWN && candidates != null) {
+                for (MediaEntry candidate : candidates) {
+                    if (budget.isSpent(SystemClock.elapsedRealtime())) {
+                        return false;
+                    }
+
+                    Uri uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                            candidate.getId());
+                    budget.addBytes(Math.min(candidate.getSize(), ContentFingerprint.HEADER_BYTES));
+
+                    if (fingerprinter.getFingerprint(uri, candidate.getSize(),
+                            candidate.getLastModifiedMillis()) == fingerprint) {
+                        repairedUri = uri.toString();
+                        break;
+                    }
+                }
+            }
+
+            if (repairedUri != null) {
+                repairedUris.put(record.getId(), repairedUri);
+            } else {
+                disabledIds.add(record.getId());
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Point the repaired shortcuts to their new Uri and disable the others.
+     */
+    private void publish(List<ShortcutRecord> records, Map<String, String> repairedUris, List<String> disabledIds) {
+        ShortcutManager shortcutManager = mContext.getSystemService(ShortcutManager.class);
+
+        if (!repairedUris.isEmpty()) {
+            List<ShortcutInfo> shortcutInfoList = new ArrayList<>(repairedUris.size());
+            for (ShortcutRecord record : records) {
+                String uri = repairedUris.get(record.getId());
+                if (uri != null) {
+                    shortcutInfoList.add(new ShortcutInfo.Builder(mContext, record.getId())
+                            .setIntent(ShortcutLaunchActivity.newIntent(mContext, record.getId(), Uri.parse(uri)))
+                            .build());
+                }
+            }
+
+            // Rate limited: keep the old Uri on failure, the next run tries again
+            if (!shortcutManager.updateShortcuts(shortcutInfoList)) {
+                repairedUris.clear();
+            }
+        }
+
+        if (!disabledIds.isEmpty()) {
+            shortcutManager.disableShortcuts(disabledIds, mContext.getString(R.string.shortcut_photo_missing));
+        }
+    }
+}
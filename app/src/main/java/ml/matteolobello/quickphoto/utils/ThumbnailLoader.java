@@ -0,0 +1,262 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ml.matteolobello.quickphoto.imaging.SampleSize;
+
+/**
+ * Loads MediaStore thumbnails into grid cells.
+ * <p>
+ * Thumbnails are decoded by a few background threads, newest request first so that the
+ * cells on screen win over the ones scrolled past, and kept in a memory cache bounded
+ * by bytes. Requests of recycled cells are cancelled if they haven't started yet, and
+ * cells about to be shown can be prefetched.
+ * All the methods must be called on the main thread.
+ */
+public class ThumbnailLoader {
+
+    private static final String TAG = "ThumbnailLoader";
+
+    /**
+     * The number of thumbnails decoded at once.
+     */
+    private static final int MAX_CONCURRENT_LOADS = Math.max(2, Math.min(4,
+            Runtime.getRuntime().availableProcessors() - 1));
+
+    /**
+     * Prefetches are dropped beyond this many pending requests, so that a fling doesn't
+     * queue thousands of them.
+     */
+    private static final int MAX_PENDING_PREFETCHES = 48;
+
+    /**
+     * The memory cache budget, as a fraction of the heap.
+     */
+    private static final int CACHE_HEAP_FRACTION = 8;
+
+    /**
+     * The memory cache budget upper bound, in bytes.
+     */
+    private static final int MAX_CACHE_BYTES = 24 * 1024 * 1024;
+
+    /**
+     * The size of MediaStore MINI_KIND thumbnails.
+     */
+    private static final int MINI_THUMBNAIL_WIDTH = 512;
+    private static final int MINI_THUMBNAIL_HEIGHT = 384;
+
+    private final Context mContext;
+    private final int mSampleSize;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ThreadPoolExecutor mExecutor;
+    private final LruCache<Long, Bitmap> mMemoryCache;
+
+    /**
+     * The pending requests, by photo id.
+     */
+    private final Map<Long, Request> mRequests = new HashMap<>();
+
+    /**
+     * @param context       The Context.
+     * @param thumbnailSize The size of the grid cells, in pixels.
+     */
+    public ThumbnailLoader(Context context, int thumbnailSize) {
+        mContext = context.getApplicationContext();
+        mSampleSize = SampleSize.calculate(MINI_THUMBNAIL_WIDTH, MINI_THUMBNAIL_HEIGHT, thumbnailSize, thumbnailSize);
+
+        // A LIFO queue: the latest requests are for the cells the user is looking at
+        mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_LOADS, MAX_CONCURRENT_LOADS, 10, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                }, new BackgroundThreadFactory(TAG));
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        mMemoryCache = new LruCache<Long, Bitmap>(
+                (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / CACHE_HEAP_FRACTION)) {
+            @Override
+            protected int sizeOf(Long id, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the given photo in the given cell, now if it's cached or as
+     * soon as it's loaded. Any previous request of the cell is cancelled.
+     *
+     * @param imageView   The cell.
+     * @param id          The MediaStore id of the photo.
+     * @param orientation The orientation of the photo, in degrees.
+     */
+    public void load(ImageView imageView, long id, int orientation) {
+        cancel(imageView);
+
+        imageView.setTag(id);
+        imageView.setRotation(orientation);
+
+        Bitmap bitmap = mMemoryCache.get(id);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+
+            return;
+        }
+
+        imageView.setImageDrawable(null);
+
+        Request request = mRequests.get(id);
+        if (request == null) {
+            request = submit(id);
+        }
+        request.mImageView = imageView;
+    }
+
+    /**
+     * Load the thumbnail of the given photo in the cache, if it isn't already.
+     *
+     * @param id The MediaStore id of the photo.
+     */
+    public void prefetch(long id) {
+        if (mRequests.size() >= MAX_PENDING_PREFETCHES
+                || mRequests.containsKey(id) || mMemoryCache.get(id) != null) {
+            return;
+        }
+
+        submit(id);
+    }
+
+    /**
+     * Detach the given cell from its request, cancelling it if it hasn't started.
+     *
+     * @param imageView The cell, being recycled.
+     */
+    public void cancel(ImageView imageView) {
+        Object tag = imageView.getTag();
+        if (!(tag instanceof Long)) {
+            return;
+        }
+        imageView.setTag(null);
+
+        Request request = mRequests.get(tag);
+        if (request != null && request.mImageView == imageView) {
+            request.mImageView = null;
+
+            // A running load still completes, and ends up in the cache
+            if (request.mFuture.cancel(false)) {
+                mRequests.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * Cancel all the requests and empty the cache.
+     */
+    public void release() {
+        for (Iterator<Request> iterator = mRequests.values().iterator(); iterator.hasNext(); ) {
+            iterator.next().mFuture.cancel(false);
+            iterator.remove();
+        }
+
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * @return A readable summary of the cache.
+     */
+    public String getStats() {
+        return "size=" + mMemoryCache.size()
+                + " maxSize=" + mMemoryCache.maxSize()
+                + " hits=" + mMemoryCache.hitCount()
+                + " misses=" + mMemoryCache.missCount()
+                + " evictions=" + mMemoryCache.evictionCount()
+                + " pending=" + mRequests.size();
+    }
+
+    private Request submit(final long id) {
+        final Request request = new Request();
+        request.mFuture = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decodeThumbnail(id);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(id, request, bitmap);
+                    }
+                });
+            }
+        });
+        mRequests.put(id, request);
+
+        return request;
+    }
+
+    private void onLoaded(long id, Request request, Bitmap bitmap) {
+        if (mRequests.get(id) != request) {
+            // Released meanwhile
+            return;
+        }
+        mRequests.remove(id);
+
+        if (bitmap == null) {
+            return;
+        }
+
+        mMemoryCache.put(id, bitmap);
+
+        ImageView imageView = request.mImageView;
+        if (imageView != null && Long.valueOf(id).equals(imageView.getTag())) {
+            imageView.setImageBitmap(bitmap);
+        }
+    }
+
+    private Bitmap decodeThumbnail(long id) {
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.THUMBNAIL);
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = mSampleSize;
+
+            Bitmap bitmap = MediaStore.Images.Thumbnails.getThumbnail(mContext.getContentResolver(),
+                    id, MediaStore.Images.Thumbnails.MINI_KIND, options);
+            if (bitmap != null) {
+                PipelineMetrics.addBytes(PipelineMetrics.Stage.THUMBNAIL, bitmap.getByteCount());
+            }
+
+            return bitmap;
+        } catch (RuntimeException e) {
+            // The thumbnail couldn't be generated, show an empty cell
+            return null;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.THUMBNAIL, startNs);
+        }
+    }
+
+    private static class Request {
+
+        private Future<?> mFuture;
+
+        /**
+         * The cell waiting for the thumbnail, null for prefetches.
+         */
+        private ImageView mImageView;
+    }
+}
@@ -0,0 +1,451 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ml.matteolobello.quickphoto.imaging.CropRect;
+import ml.matteolobello.quickphoto.imaging.DecodeBudget;
+import ml.matteolobello.quickphoto.imaging.ExifInfo;
+import ml.matteolobello.quickphoto.imaging.Orientation;
+import ml.matteolobello.quickphoto.imaging.TileGrid;
+
+/**
+ * Loads a photo for the viewer, coarse to fine, so that something is on screen right away
+ * whatever the size of the photo:
+ * <ol>
+ * <li>the EXIF thumbnail and the bounds, read from the first few KB of the file;</li>
+ * <li>the whole photo at about the screen size;</li>
+ * <li>full resolution tiles of the part of the photo on screen, on demand.</li>
+ * </ol>
+ * Tiles are decoded with {@link BitmapRegionDecoder}s by a few background threads, newest
+ * request first, each thread with its own decoder, and kept in a memory cache bounded by
+ * bytes. Requests of tiles scrolled away are cancelled if they haven't started yet.
+ * All the decodes go through the {@link DecodeGovernor}.
+ * All the methods must be called on the main thread, and so are the listener methods.
+ */
+public class TileLoader {
+
+    private static final String TAG = "TileLoader";
+
+    /**
+     * The size of the decoded tiles.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * The number of tiles decoded at once, each by its own region decoder.
+     */
+    private static final int MAX_CONCURRENT_DECODES = Math.max(2, Math.min(3,
+            Runtime.getRuntime().availableProcessors() - 1));
+
+    /**
+     * The memory cache budget, as a fraction of the heap.
+     */
+    private static final int CACHE_HEAP_FRACTION = 8;
+
+    /**
+     * The memory cache budget upper bound, in bytes.
+     */
+    private static final int MAX_CACHE_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Notified of the progress of the load.
+     */
+    public interface Listener {
+
+        /**
+         * The photo can be laid out, maybe with a coarse preview.
+         *
+         * @param width       The width of the stored photo.
+         * @param height      The height of the stored photo.
+         * @param orientation The EXIF {@link Orientation} of the photo.
+         * @param preview     The EXIF thumbnail, or null if there's none.
+         */
+        void onBoundsLoaded(int width, int height, int orientation, Bitmap preview);
+
+        /**
+         * The whole photo has been decoded at about the screen size.
+         *
+         * @param base The decoded photo.
+         */
+        void onBaseLoaded(Bitmap base);
+
+        /**
+         * A requested tile can be drawn.
+         */
+        void onTileLoaded();
+
+        /**
+         * The photo couldn't be decoded.
+         */
+        void onLoadFailed();
+    }
+
+    private final Context mContext;
+    private final Uri mUri;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ThreadPoolExecutor mExecutor;
+    private final LruCache<Long, Bitmap> mMemoryCache;
+
+    /**
+     * The pending tile requests, by tile key.
+     */
+    private final Map<Long, Future<?>> mRequests = new HashMap<>();
+
+    /**
+     * The idle region decoders. Guarded by itself.
+     */
+    private final ArrayDeque<RegionDecoder> mDecoders = new ArrayDeque<>();
+
+    /**
+     * false if the format isn't supported by the region decoder, so there are no tiles.
+     */
+    private volatile boolean mTilesSupported = true;
+
+    private volatile boolean mReleased;
+
+    public TileLoader(Context context, Uri uri, Listener listener) {
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mListener = listener;
+
+        // A LIFO queue: the latest requests are for what the user is looking at
+        mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_DECODES, MAX_CONCURRENT_DECODES, 10, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                }, new BackgroundThreadFactory(TAG));
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        mMemoryCache = new LruCache<Long, Bitmap>(
+                (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / CACHE_HEAP_FRACTION)) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Start loading the photo: the bounds first, then the base at the given size.
+     *
+     * @param baseWidth  The width of the screen.
+     * @param baseHeight The height of the screen.
+     */
+    public void start(final int baseWidth, final int baseHeight) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(baseWidth, baseHeight);
+            }
+        });
+    }
+
+    /**
+     * @return false if the photo can't be decoded in tiles, so only the base is shown.
+     */
+    public boolean isTilesSupported() {
+        return mTilesSupported;
+    }
+
+    /**
+     * Get a tile from the cache.
+     *
+     * @param tile       The tile.
+     * @param sampleSize The sample size of the tile.
+     * @return The decoded tile, or null if it isn't loaded.
+     */
+    public Bitmap getTile(CropRect tile, int sampleSize) {
+        return mMemoryCache.get(TileGrid.getKey(tile, sampleSize));
+    }
+
+    /**
+     * Request the tiles on screen, cancelling the requests of all the other tiles that
+     * haven't started yet. The listener is told when each of them can be drawn.
+     *
+     * @param tiles      The visible tiles.
+     * @param sampleSize The sample size of the tiles.
+     */
+    public void requestTiles(List<CropRect> tiles, int sampleSize) {
+        if (mReleased || !mTilesSupported) {
+            return;
+        }
+
+        Set<Long> visibleKeys = new HashSet<>(tiles.size() * 2);
+        for (CropRect tile : tiles) {
+            visibleKeys.add(TileGrid.getKey(tile, sampleSize));
+        }
+
+        // A running decode still completes, and ends up in the cache
+        for (Iterator<Map.Entry<Long, Future<?>>> iterator = mRequests.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Long, Future<?>> request = iterator.next();
+            if (!visibleKeys.contains(request.getKey()) && request.getValue().cancel(false)) {
+                iterator.remove();
+            }
+        }
+
+        for (CropRect tile : tiles) {
+            long key = TileGrid.getKey(tile, sampleSize);
+            if (!mRequests.containsKey(key) && mMemoryCache.get(key) == null) {
+                submit(key, tile, sampleSize);
+            }
+        }
+    }
+
+    /**
+     * Cancel all the requests, empty the cache and close the decoders.
+     */
+    public void release() {
+        mReleased = true;
+
+        for (Future<?> request : mRequests.values()) {
+            request.cancel(false);
+        }
+        mRequests.clear();
+
+        mMemoryCache.evictAll();
+        mExecutor.shutdown();
+
+        synchronized (mDecoders) {
+            for (RegionDecoder decoder : mDecoders) {
+                decoder.recycle();
+            }
+            mDecoders.clear();
+        }
+    }
+
+    /**
+     * @return A readable summary of the cache.
+     */
+    public String getStats() {
+        return "size=" + mMemoryCache.size()
+                + " maxSize=" + mMemoryCache.maxSize()
+                + " hits=" + mMemoryCache.hitCount()
+                + " misses=" + mMemoryCache.missCount()
+                + " evictions=" + mMemoryCache.evictionCount()
+                + " pending=" + mRequests.size();
+    }
+
+    /**
+     * Read the bounds and the thumbnail, then decode the base. Runs in the background.
+     */
+    private void load(int baseWidth, int baseHeight) {
+        final ExifInfo exifInfo = BitmapUtils.readExif(mContext, mUri);
+        final Bitmap preview = BitmapUtils.decodeExifThumbnail(exifInfo, 1);
+
+        // Opening the region decoder reads the bounds too
+        RegionDecoder decoder = obtainDecoder();
+        final int width;
+        final int height;
+        if (decoder != null) {
+            width = decoder.getWidth();
+            height = decoder.getHeight();
+        } else {
+            mTilesSupported = false;
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapUtils.decodeBounds(mContext.getContentResolver(), mUri, options);
+            width = options.outWidth;
+            height = options.outHeight;
+        }
+
+        if (width <= 0 || height <= 0) {
+            postToListener(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onLoadFailed();
+                }
+            });
+
+            return;
+        }
+
+        postToListener(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onBoundsLoaded(width, height, exifInfo.getOrientation(), preview);
+            }
+        });
+
+        // Fit the screen, in the stored orientation
+        if (Orientation.swapsDimensions(exifInfo.getOrientation())) {
+            int swap = baseWidth;
+            baseWidth = baseHeight;
+            baseHeight = swap;
+        }
+        final float fitScale = Math.min((float) baseWidth / width, (float) baseHeight / height);
+        final int sampleSize = TileGrid.sampleSizeForScale(fitScale);
+
+        final Bitmap base;
+        if (decoder != null) {
+            base = decodeRegion(decoder, new CropRect(0, 0, width, height), sampleSize);
+            recycleDecoder(decoder);
+        } else {
+            base = BitmapUtils.getBitmapFromUri(mContext, mUri,
+                    Math.max(1, Math.round(width * fitScale)), Math.max(1, Math.round(height * fitScale)));
+        }
+
+        postToListener(new Runnable() {
+            @Override
+            public void run() {
+                if (base != null) {
+                    mListener.onBaseLoaded(base);
+                } else {
+                    mListener.onLoadFailed();
+                }
+            }
+        });
+    }
+
+    private void submit(final long key, final CropRect tile, final int sampleSize) {
+        mRequests.put(key, mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                RegionDecoder decoder = obtainDecoder();
+                if (decoder == null) {
+                    return;
+                }
+
+                final Bitmap bitmap;
+                try {
+                    bitmap = decodeRegion(decoder, tile, sampleSize);
+                } finally {
+                    recycleDecoder(decoder);
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileLoaded(key, bitmap);
+                    }
+                });
+            }
+        }));
+    }
+
+    private void onTileLoaded(long key, Bitmap bitmap) {
+        if (mReleased) {
+            return;
+        }
+        mRequests.remove(key);
+
+        if (bitmap != null) {
+            mMemoryCache.put(key, bitmap);
+            mListener.onTileLoaded();
+        }
+    }
+
+    private void postToListener(final Runnable runnable) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Decode a region of the photo, admitted by the {@link DecodeGovernor}.
+     *
+     * @return The region, or null if it couldn't be decoded.
+     */
+    private Bitmap decodeRegion(RegionDecoder decoder, CropRect region, int sampleSize) {
+        final DecodeGovernor decodeGovernor = DecodeGovernor.get(mContext);
+        final DecodeBudget.Ticket ticket = decodeGovernor.acquire(region.getWidth(), region.getHeight(), sampleSize);
+        if (ticket == null) {
+            return null;
+        }
+
+        final long startNs = PipelineMetrics.begin(PipelineMetrics.Stage.TILE);
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            DecodeGovernor.applyTo(ticket, options);
+
+            Bitmap bitmap = decoder.decodeRegion(
+                    new Rect(region.getLeft(), region.getTop(), region.getRight(), region.getBottom()), options);
+            if (bitmap != null) {
+                PipelineMetrics.addBytes(PipelineMetrics.Stage.TILE, bitmap.getByteCount());
+            }
+
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Couldn't decode " + region.getLeft() + "," + region.getTop() + " of " + mUri, e);
+
+            return null;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.Stage.TILE, startNs);
+            decodeGovernor.release(ticket);
+        }
+    }
+
+    /**
+     * Take an idle region decoder, or open a new one.
+     *
+     * @return The decoder, or null if the photo can't be decoded in regions.
+     */
+    private RegionDecoder obtainDecoder() {
+        synchronized (mDecoders) {
+            if (mReleased) {
+                return null;
+            }
+
+            RegionDecoder decoder = mDecoders.poll();
+            if (decoder != null) {
+                return decoder;
+            }
+        }
+
+        if (!mTilesSupported) {
+            return null;
+        }
+
+        final RegionDecoder decoder = RegionDecoder.open(mContext.getContentResolver(), mUri);
+        if (decoder == null) {
+            mTilesSupported = false;
+        }
+
+        return decoder;
+    }
+
+    /**
+     * Give back a region decoder taken with {@link #obtainDecoder()}.
+     */
+    private void recycleDecoder(RegionDecoder decoder) {
+        synchronized (mDecoders) {
+            if (!mReleased) {
+                mDecoders.push(decoder);
+
+                return;
+            }
+        }
+
+        decoder.recycle();
+    }
+}
@@ -0,0 +1,249 @@
+package ml.matteolobello.quickphoto.utils;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves Uris to absolute paths, remembering the results until the media store or the
+ * downloads change.
+ * Many Uris can be resolved at once with a single query per provider.
+ */
+public class UriResolver {
+
+    private static final String TAG = "UriResolver";
+
+    /**
+     * The Uri of the public downloads, used to resolve Downloads documents.
+     */
+    private static final Uri PUBLIC_DOWNLOADS_URI = Uri.parse("content://downloads/public_downloads");
+
+    /**
+     * The Uri notified when any download changes.
+     */
+    private static final Uri DOWNLOADS_URI = Uri.parse("content://downloads");
+
+    /**
+     * SQLite limits the number of arguments of a query, so bigger batches are split.
+     */
+    private static final int MAX_QUERY_ARGUMENTS = 500;
+
+    /**
+     * Stored for Uris that don't resolve to a path, as the map can't hold nulls.
+     */
+    private static final String NO_PATH = "";
+
+    private static UriResolver sInstance;
+
+    private final Context mContext;
+    private final Map<Uri, String> mPaths = new ConcurrentHashMap<>();
+
+    private UriResolver(Context context) {
+        mContext = context.getApplicationContext();
+
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mPaths.clear();
+            }
+        };
+
+        mContext.getContentResolver().registerContentObserver(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+        try {
+            mContext.getContentResolver().registerContentObserver(DOWNLOADS_URI, true, observer);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Can't observe the downloads", e);
+        }
+    }
+
+    /**
+     * Get the app-wide instance of the resolver.
+     *
+     * @param context The Context.
+     * @return The UriResolver.
+     */
+    public static synchronized UriResolver get(Context context) {
+        if (sInstance == null) {
+            sInstance = new UriResolver(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Get the absolute path, given an Uri.
+     * This may query a ContentProvider, so call it off the main thread.
+     *
+     * @param uri The Uri.
+     * @return The absolute path from the Uri, or null if unknown.
+     */
+    public String resolvePath(Uri uri) {
+        String path = mPaths.get(uri);
+        if (path == null) {
+            final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.CONTENT_QUERY);
+            try {
+                MediaEntry mediaEntry = getMediaEntry(uri);
+                path = mediaEntry != null ? mediaEntry.getPath() : UriUtils.getPathFromUri(mContext, uri);
+            } finally {
+                MainThreadMonitor.end(MainThreadMonitor.Operation.CONTENT_QUERY, monitorStartNs);
+            }
+            mPaths.put(uri, path != null ? path : NO_PATH);
+
+            return path;
+        }
+
+        return path.equals(NO_PATH) ? null : path;
+    }
+
+    /**
+     * Get the absolute paths of many Uris, using one query per provider.
+     * This may query ContentProviders, so call it off the main thread.
+     *
+     * @param uris The Uris.
+     * @return The absolute paths, by Uri. Unknown paths are mapped to null.
+     */
+    public Map<Uri, String> resolvePaths(List<Uri> uris) {
+        final long monitorStartNs = MainThreadMonitor.begin(MainThreadMonitor.Operation.CONTENT_QUERY);
+        try {
+            return queryPaths(uris);
+        } finally {
+            MainThreadMonitor.end(MainThreadMonitor.Operation.CONTENT_QUERY, monitorStartNs);
+        }
+    }
+
+    private Map<Uri, String> queryPaths(List<Uri> uris) {
+        Map<Uri, String> paths = new HashMap<>(uris.size());
+
+        // Uris to resolve, by the content Uri of the provider and by row id
+        Map<Uri, Map<String, Uri>> pendingQueries = new HashMap<>();
+
+        for (Uri uri : uris) {
+            String path = mPaths.get(uri);
+            if (path != null) {
+                paths.put(uri, path.equals(NO_PATH) ? null : path);
+                continue;
+            }
+
+            MediaEntry mediaEntry = getMediaEntry(uri);
+            if (mediaEntry != null && mediaEntry.getPath() != null) {
+                mPaths.put(uri, mediaEntry.getPath());
+                paths.put(uri, mediaEntry.getPath());
+                continue;
+            }
+
+            Uri contentUri = null;
+            String id = null;
+            if (DocumentsContract.isDocumentUri(mContext, uri)) {
+                String docId = DocumentsContract.getDocumentId(uri);
+                if (UriUtils.isMediaDocument(uri)) {
+                    String[] split = docId.split(":");
+                    contentUri = UriUtils.getMediaContentUri(split[0]);
+                    id = split.length > 1 ? split[1] : null;
+                } else if (UriUtils.isDownloadsDocument(uri) && isNumeric(docId)) {
+                    contentUri = PUBLIC_DOWNLOADS_URI;
+                    id = docId;
+                }
+            }
+
+            if (contentUri == null || id == null) {
+                paths.put(uri, resolvePath(uri));
+                continue;
+            }
+
+            Map<String, Uri> pendingUris = pendingQueries.get(contentUri);
+            if (pendingUris == null) {
+                pendingUris = new HashMap<>();
+                pendingQueries.put(contentUri, pendingUris);
+            }
+            pendingUris.put(id, uri);
+        }
+
+        for (Map.Entry<Uri, Map<String, Uri>> pendingQuery : pendingQueries.entrySet()) {
+            Map<String, Uri> pendingUris = pendingQuery.getValue();
+            List<String> ids = new ArrayList<>(pendingUris.keySet());
+
+            for (int start = 0; start < ids.size(); start += MAX_QUERY_ARGUMENTS) {
+                List<String> batchIds = ids.subList(start, Math.min(ids.size(), start + MAX_QUERY_ARGUMENTS));
+                queryPaths(pendingQuery.getKey(), batchIds, pendingUris, paths);
+            }
+
+            for (Uri uri : pendingUris.values()) {
+                if (!paths.containsKey(uri)) {
+                    mPaths.put(uri, NO_PATH);
+                    paths.put(uri, null);
+                }
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Look the image behind the given Uri up in the {@link MediaIndex}, without any query.
+     *
+     * @param uri The Uri.
+     * @return The image, or null if the Uri isn't a MediaStore image or the index isn't ready.
+     */
+    private MediaEntry getMediaEntry(Uri uri) {
+        long mediaId = UriUtils.getMediaImageId(mContext, uri);
+
+        return mediaId != -1 ? MediaIndex.get(mContext).getById(mediaId) : null;
+    }
+
+    /**
+     * Resolve the given rows of a provider with a single "_id IN (...)" query.
+     */
+    private void queryPaths(Uri contentUri, List<String> ids, Map<String, Uri> pendingUris, Map<Uri, String> paths) {
+        StringBuilder selection = new StringBuilder("_id IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(contentUri,
+                    new String[]{"_id", "_data"}, selection.toString(), ids.toArray(new String[ids.size()]), null);
+
+            while (cursor != null && cursor.moveToNext()) {
+                Uri uri = pendingUris.get(String.valueOf(cursor.getLong(0)));
+                String path = cursor.getString(1);
+                if (uri != null) {
+                    mPaths.put(uri, path != null ? path : NO_PATH);
+                    paths.put(uri, path);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Couldn't resolve " + ids.size() + " Uris from " + contentUri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static boolean isNumeric(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -7,6 +7,7 @@ import android.net.Uri;
 import android.os.Environment;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 
 class UriUtils {
 
@@ -39,14 +40,7 @@ class UriUtils {
                 final String[] split = docId.split(":");
                 final String type = split[0];
 
-                Uri contentUri = null;
-                if ("image".equals(type)) {
-                    contentUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                } else if ("video".equals(type)) {
-                    contentUri = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
-                } else if ("audio".equals(type)) {
-                    contentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-                }
+                Uri contentUri = getMediaContentUri(type);
 
                 final String selection = "_id=?";
                 final String[] selectionArgs = new String[]{
@@ -67,6 +61,62 @@ class UriUtils {
         return null;
     }
 
+    /**
+     * Get the MediaStore id of an image, given an Uri.
+     *
+     * @param context The Context.
+     * @param uri     The Uri.
+     * @return The id of the image in MediaStore, or -1 if the Uri doesn't point to one.
+     */
+    static long getMediaImageId(final Context context, final Uri uri) {
+        try {
+            if (DocumentsContract.isDocumentUri(context, uri)) {
+                if (isMediaDocument(uri)) {
+                    final String[] split = DocumentsContract.getDocumentId(uri).split(":");
+
+                    if ("image".equals(split[0])) {
+                        return Long.parseLong(split[1]);
+                    }
+                }
+            } else if ("content".equalsIgnoreCase(uri.getScheme())
+                    && MediaStore.AUTHORITY.equals(uri.getAuthority())
+                    && uri.getPath().startsWith(MediaStore.Images.Media.EXTERNAL_CONTENT_URI.getPath())) {
+                return ContentUris.parseId(uri);
+            }
+        } catch (RuntimeException ignored) {
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the display name of the document, given an Uri.
+     *
+     * @param context The Context.
+     * @param uri     The Uri.
+     * @return The display name, or null if unknown.
+     */
+    static String getDisplayName(final Context context, final Uri uri) {
+        if ("file".equalsIgnoreCase(uri.getScheme())) {
+            return uri.getLastPathSegment();
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME},
+                    null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        } catch (RuntimeException e) {
+            return uri.getLastPathSegment();
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return null;
+    }
+
     private static String getDataColumn(Context context, Uri uri, String selection,
                                         String[] selectionArgs) {
         Cursor cursor = null;
@@ -90,6 +140,22 @@ class UriUtils {
     }
 
 
+    /**
+     * @param type The type of a MediaProvider document.
+     * @return The content Uri of the documents of that type, or null if unknown.
+     */
+    static Uri getMediaContentUri(String type) {
+        if ("image".equals(type)) {
+            return MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        } else if ("video".equals(type)) {
+            return MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+        } else if ("audio".equals(type)) {
+            return MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        }
+
+        return null;
+    }
+
     /**
      * @param uri The Uri to check.
      * @return Whether the Uri authority is ExternalStorageProvider.
@@ -102,7 +168,7 @@ class UriUtils {
      * @param uri The Uri to check.
      * @return Whether the Uri authority is DownloadsProvider.
      */
-    private static boolean isDownloadsDocument(Uri uri) {
+    static boolean isDownloadsDocument(Uri uri) {
         return "com.android.providers.downloads.documents".equals(uri.getAuthority());
     }
 
@@ -110,7 +176,7 @@ class UriUtils {
      * @param uri The Uri to check.
      * @return Whether the Uri authority is MediaProvider.
      */
-    private static boolean isMediaDocument(Uri uri) {
+    static boolean isMediaDocument(Uri uri) {
         return "com.android.providers.media.documents".equals(uri.getAuthority());
     }
 
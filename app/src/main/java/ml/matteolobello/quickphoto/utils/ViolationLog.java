@@ -0,0 +1,197 @@
+package ml.matteolobello.quickphoto.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the blocking calls made on the main thread by operation and call site, so
+ * that a report lists each offending line once, with how often and how long it blocked.
+ * This is plain Java and thread safe; see {@link MainThreadMonitor} for the app-wide one.
+ */
+public class ViolationLog {
+
+    private final long mSlowThresholdNs;
+
+    /**
+     * The violations, by operation and call site. Guarded by this.
+     */
+    private final Map<String, Violation> mViolations = new HashMap<>();
+
+    /**
+     * @param slowThresholdNs The duration beyond which a call is reported as slow.
+     */
+    public ViolationLog(long slowThresholdNs) {
+        mSlowThresholdNs = slowThresholdNs;
+    }
+
+    /**
+     * Record a blocking call made on the main thread.
+     *
+     * @param operation  The kind of blocking work.
+     * @param callSite   Where the call was made from.
+     * @param durationNs How long it blocked.
+     * @return true if the call was slower than the threshold.
+     */
+    public synchronized boolean record(String operation, String callSite, long durationNs) {
+        final String key = operation + '@' + callSite;
+
+        Violation violation = mViolations.get(key);
+        if (violation == null) {
+            violation = new Violation(operation, callSite);
+            mViolations.put(key, violation);
+        }
+
+        final boolean slow = durationNs >= mSlowThresholdNs;
+
+        violation.mCount++;
+        violation.mTotalNs += durationNs;
+        violation.mMaxNs = Math.max(violation.mMaxNs, durationNs);
+        if (slow) {
+            violation.mSlowCount++;
+        }
+
+        return slow;
+    }
+
+    /**
+     * @return The violations, the ones that blocked the longest first.
+     */
+    public synchronized List<Violation> getViolations() {
+        List<Violation> violations = new ArrayList<>(mViolations.size());
+        for (Violation violation : mViolations.values()) {
+            violations.add(violation.copy());
+        }
+
+        Collections.sort(violations, new Comparator<Violation>() {
+            @Override
+            public int compare(Violation first, Violation second) {
+                return Long.compare(second.mTotalNs, first.mTotalNs);
+            }
+        });
+
+        return violations;
+    }
+
+    /**
+     * @return How many blocking calls have been made on the main thread.
+     */
+    public synchronized long getCount() {
+        long count = 0;
+        for (Violation violation : mViolations.values()) {
+            count += violation.mCount;
+        }
+
+        return count;
+    }
+
+    /**
+     * Forget all the recorded violations.
+     */
+    public synchronized void reset() {
+        mViolations.clear();
+    }
+
+    /**
+     * @return A readable report, one violation per line, the worst first.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (Violation violation : getViolations()) {
+            report.append(violation.mOperation)
+                    .append(" at ").append(violation.mCallSite)
+                    .append(": calls=").append(violation.mCount)
+                    .append(" slow=").append(violation.mSlowCount)
+                    .append(" total=").append(violation.mTotalNs / 1000000).append("ms")
+                    .append(" max=").append(violation.mMaxNs / 1000000).append("ms")
+                    .append('\n');
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Find the frame that made the blocking call: the first one outside of the monitoring
+     * and wrapping code, e.g. the Activity method calling a helper.
+     *
+     * @param stackTrace      The stack trace of the call.
+     * @param skippedPrefixes The prefixes of the class names to skip, like packages.
+     * @return The frame, or "unknown" if there's none.
+     */
+    public static String findCallSite(StackTraceElement[] stackTrace, String... skippedPrefixes) {
+        for (StackTraceElement frame : stackTrace) {
+            boolean skipped = false;
+            for (String skippedPrefix : skippedPrefixes) {
+                if (frame.getClassName().startsWith(skippedPrefix)) {
+                    skipped = true;
+                    break;
+                }
+            }
+
+            if (!skipped) {
+                return frame.toString();
+            }
+        }
+
+        return "unknown";
+    }
+
+    /**
+     * The blocking calls of an operation made from a call site.
+     */
+    public static class Violation {
+
+        private final String mOperation;
+        private final String mCallSite;
+
+        private long mCount;
+        private long mSlowCount;
+        private long mTotalNs;
+        private long mMaxNs;
+
+        private Violation(String operation, String callSite) {
+            mOperation = operation;
+            mCallSite = callSite;
+        }
+
+        public String getOperation() {
+            return mOperation;
+        }
+
+        public String getCallSite() {
+            return mCallSite;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return How many of the calls were slower than the threshold.
+         */
+        public long getSlowCount() {
+            return mSlowCount;
+        }
+
+        public long getTotalNs() {
+            return mTotalNs;
+        }
+
+        public long getMaxNs() {
+            return mMaxNs;
+        }
+
+        private Violation copy() {
+            Violation copy = new Violation(mOperation, mCallSite);
+            copy.mCount = mCount;
+            copy.mSlowCount = mSlowCount;
+            copy.mTotalNs = mTotalNs;
+            copy.mMaxNs = mMaxNs;
+
+            return copy;
+        }
+    }
+}
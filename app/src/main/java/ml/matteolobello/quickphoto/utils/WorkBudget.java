@@ -0,0 +1,55 @@
+package ml.matteolobello.quickphoto.utils;
+
+/**
+ * A time and I/O allowance for background maintenance, so that a single run never
+ * hogs the device: work checks it between steps and stops once it's spent or cancelled.
+ * The remaining work is picked up by the next run.
+ * This is plain Java, the clock is passed in.
+ */
+public class WorkBudget {
+
+    private final long mDeadlineMillis;
+    private final long mMaxBytes;
+
+    private long mBytes;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param startMillis The current time.
+     * @param maxMillis   How long the work may take.
+     * @param maxBytes    How many bytes the work may read.
+     */
+    public WorkBudget(long startMillis, long maxMillis, long maxBytes) {
+        mDeadlineMillis = startMillis + maxMillis;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Account for bytes read.
+     *
+     * @param bytes The bytes.
+     */
+    public void addBytes(long bytes) {
+        mBytes += bytes;
+    }
+
+    /**
+     * Stop the work at its next check, e.g. when the system asks to.
+     * This can be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @param nowMillis The current time.
+     * @return true if the work must stop.
+     */
+    public boolean isSpent(long nowMillis) {
+        return mCancelled || nowMillis >= mDeadlineMillis || mBytes >= mMaxBytes;
+    }
+}
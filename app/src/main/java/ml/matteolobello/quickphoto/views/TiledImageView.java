@@ -0,0 +1,359 @@
+package ml.matteolobello.quickphoto.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+
+import java.util.Collections;
+import java.util.List;
+
+import ml.matteolobello.quickphoto.imaging.CropRect;
+import ml.matteolobello.quickphoto.imaging.Orientation;
+import ml.matteolobello.quickphoto.imaging.TileGrid;
+import ml.matteolobello.quickphoto.utils.TileLoader;
+
+/**
+ * A zoomable and pannable photo, drawn from a screen-sized preview and, once zoomed in
+ * past the preview resolution, from the full resolution tiles of the part on screen.
+ * <p>
+ * Everything is drawn in stored pixel coordinates, through a matrix applying the EXIF
+ * orientation and then the zoom and pan, so that tiles can be decoded as stored.
+ */
+public class TiledImageView extends View {
+
+    /**
+     * The maximum zoom, in screen pixels per photo pixel.
+     */
+    private static final float MAX_SCALE = 2f;
+
+    /**
+     * How much a double tap zooms in from the fit zoom.
+     */
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final ScaleGestureDetector mScaleGestureDetector;
+    private final GestureDetector mGestureDetector;
+    private final OverScroller mScroller;
+
+    private int mImageWidth;
+    private int mImageHeight;
+    private int mOrientation = Orientation.NORMAL;
+
+    private Bitmap mPreview;
+    private TileLoader mTileLoader;
+    private TileGrid mTileGrid;
+
+    /**
+     * The tiles on screen and their sample size, empty while the preview is enough.
+     */
+    private List<CropRect> mVisibleTiles = Collections.emptyList();
+    private int mTileSampleSize;
+
+    /**
+     * The stored photo to upright photo transformation.
+     */
+    private final Matrix mOrientationMatrix = new Matrix();
+
+    /**
+     * The stored photo to View transformation.
+     */
+    private final Matrix mDrawMatrix = new Matrix();
+    private final Matrix mInverseMatrix = new Matrix();
+
+    private float mFitScale;
+    private float mScale;
+    private float mTranslateX;
+    private float mTranslateY;
+
+    private final RectF mImageRect = new RectF();
+    private final RectF mViewportRect = new RectF();
+    private final Rect mTileRect = new Rect();
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        mScroller = new OverScroller(context);
+        mScaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(mScale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+
+                return true;
+            }
+        });
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                mScroller.forceFinished(true);
+
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                panTo(mTranslateX - distanceX, mTranslateY - distanceY);
+
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                float scaledWidth = getUprightWidth() * mScale;
+                float scaledHeight = getUprightHeight() * mScale;
+
+                mScroller.fling(Math.round(mTranslateX), Math.round(mTranslateY),
+                        Math.round(velocityX), Math.round(velocityY),
+                        Math.round(Math.min(0, getWidth() - scaledWidth)), 0,
+                        Math.round(Math.min(0, getHeight() - scaledHeight)), 0);
+                postInvalidateOnAnimation();
+
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                if (mScale > mFitScale * 1.01f) {
+                    zoomTo(mFitScale, e.getX(), e.getY());
+                } else {
+                    zoomTo(mFitScale * DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                }
+
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Set the photo to show, zoomed to fit.
+     *
+     * @param width       The width of the stored photo.
+     * @param height      The height of the stored photo.
+     * @param orientation The EXIF {@link Orientation} of the photo.
+     * @param tileLoader  The loader of the tiles, or null to only show the preview.
+     */
+    public void setImage(int width, int height, int orientation, TileLoader tileLoader) {
+        mImageWidth = width;
+        mImageHeight = height;
+        mOrientation = orientation;
+        mTileLoader = tileLoader;
+        mTileGrid = new TileGrid(width, height, TileLoader.TILE_SIZE);
+
+        mImageRect.set(0, 0, width, height);
+        setOrientationMatrix(mOrientationMatrix, orientation, width, height);
+
+        resetZoom();
+    }
+
+    /**
+     * Set the preview covering the whole photo, at any resolution.
+     *
+     * @param preview The preview, in the stored orientation.
+     */
+    public void setPreview(Bitmap preview) {
+        mPreview = preview;
+
+        updateTiles();
+        invalidate();
+    }
+
+    /**
+     * Draw the tiles that have been loaded meanwhile.
+     */
+    public void onTileLoaded() {
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+
+        resetZoom();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleGestureDetector.onTouchEvent(event);
+        if (!mScaleGestureDetector.isInProgress()) {
+            handled |= mGestureDetector.onTouchEvent(event);
+        }
+
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            panTo(mScroller.getCurrX(), mScroller.getCurrY());
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mImageWidth <= 0) {
+            return;
+        }
+
+        canvas.save();
+        canvas.concat(mDrawMatrix);
+
+        if (mPreview != null) {
+            canvas.drawBitmap(mPreview, null, mImageRect, mPaint);
+        }
+
+        for (int i = 0; i < mVisibleTiles.size(); i++) {
+            CropRect tile = mVisibleTiles.get(i);
+
+            Bitmap bitmap = mTileLoader.getTile(tile, mTileSampleSize);
+            if (bitmap != null) {
+                mTileRect.set(tile.getLeft(), tile.getTop(), tile.getRight(), tile.getBottom());
+                canvas.drawBitmap(bitmap, null, mTileRect, mPaint);
+            }
+        }
+
+        canvas.restore();
+    }
+
+    private int getUprightWidth() {
+        return Orientation.swapsDimensions(mOrientation) ? mImageHeight : mImageWidth;
+    }
+
+    private int getUprightHeight() {
+        return Orientation.swapsDimensions(mOrientation) ? mImageWidth : mImageHeight;
+    }
+
+    private void resetZoom() {
+        if (mImageWidth <= 0 || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+
+        mFitScale = Math.min((float) getWidth() / getUprightWidth(), (float) getHeight() / getUprightHeight());
+        mScale = mFitScale;
+        mScroller.forceFinished(true);
+
+        panTo(0, 0);
+    }
+
+    /**
+     * Zoom keeping the given View point on the same photo point.
+     */
+    private void zoomTo(float scale, float focusX, float focusY) {
+        scale = Math.max(mFitScale, Math.min(Math.max(MAX_SCALE, mFitScale), scale));
+
+        float ratio = scale / mScale;
+        mScale = scale;
+
+        panTo(focusX - (focusX - mTranslateX) * ratio, focusY - (focusY - mTranslateY) * ratio);
+    }
+
+    /**
+     * Pan, keeping the photo centered when it's smaller than the View and its edges on
+     * the View edges otherwise.
+     */
+    private void panTo(float translateX, float translateY) {
+        mTranslateX = clampTranslation(translateX, getWidth(), getUprightWidth() * mScale);
+        mTranslateY = clampTranslation(translateY, getHeight(), getUprightHeight() * mScale);
+
+        mDrawMatrix.set(mOrientationMatrix);
+        mDrawMatrix.postScale(mScale, mScale);
+        mDrawMatrix.postTranslate(mTranslateX, mTranslateY);
+
+        updateTiles();
+        invalidate();
+    }
+
+    private static float clampTranslation(float translation, int viewSize, float scaledSize) {
+        if (scaledSize <= viewSize) {
+            return (viewSize - scaledSize) / 2;
+        }
+
+        return Math.max(viewSize - scaledSize, Math.min(0, translation));
+    }
+
+    /**
+     * Work out the tiles on screen and request them, if the preview isn't sharp enough.
+     */
+    private void updateTiles() {
+        if (mTileLoader == null || mPreview == null || !mTileLoader.isTilesSupported()) {
+            mVisibleTiles = Collections.emptyList();
+
+            return;
+        }
+
+        // The preview has enough pixels, no tiles needed
+        if ((float) mPreview.getWidth() / mImageWidth >= mScale) {
+            mVisibleTiles = Collections.emptyList();
+
+            return;
+        }
+
+        mDrawMatrix.invert(mInverseMatrix);
+        mViewportRect.set(0, 0, getWidth(), getHeight());
+        mInverseMatrix.mapRect(mViewportRect);
+
+        mTileSampleSize = TileGrid.sampleSizeForScale(mScale);
+        mVisibleTiles = mTileGrid.getVisibleTiles(mTileSampleSize,
+                (int) Math.floor(mViewportRect.left), (int) Math.floor(mViewportRect.top),
+                (int) Math.ceil(mViewportRect.right), (int) Math.ceil(mViewportRect.bottom));
+
+        mTileLoader.requestTiles(mVisibleTiles, mTileSampleSize);
+    }
+
+    /**
+     * Build the transformation showing stored pixels upright, for the given EXIF
+     * orientation: the result maps the stored photo onto (0, 0, uprightWidth, uprightHeight).
+     */
+    private static void setOrientationMatrix(Matrix matrix, int orientation, int width, int height) {
+        matrix.reset();
+
+        switch (orientation) {
+            case Orientation.FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                matrix.postTranslate(width, 0);
+                break;
+            case Orientation.ROTATE_180:
+                matrix.postRotate(180);
+                matrix.postTranslate(width, height);
+                break;
+            case Orientation.FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                matrix.postTranslate(0, height);
+                break;
+            case Orientation.TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case Orientation.ROTATE_90:
+                matrix.postRotate(90);
+                matrix.postTranslate(height, 0);
+                break;
+            case Orientation.TRANSVERSE:
+                matrix.postRotate(270);
+                matrix.postScale(-1, 1);
+                matrix.postTranslate(height, width);
+                break;
+            case Orientation.ROTATE_270:
+                matrix.postRotate(270);
+                matrix.postTranslate(0, width);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class IconSizesTest {
+
+    @Test
+    public void getDensityBucket_roundsUpToTheResourcesBucket() throws Exception {
+        assertEquals("ldpi", IconSizes.getDensityBucket(120));
+        assertEquals("mdpi", IconSizes.getDensityBucket(160));
+        assertEquals("hdpi", IconSizes.getDensityBucket(213));
+        assertEquals("hdpi", IconSizes.getDensityBucket(240));
+        assertEquals("xhdpi", IconSizes.getDensityBucket(320));
+        assertEquals("xxhdpi", IconSizes.getDensityBucket(420));
+        assertEquals("xxhdpi", IconSizes.getDensityBucket(480));
+        assertEquals("xxxhdpi", IconSizes.getDensityBucket(560));
+        assertEquals("xxxhdpi", IconSizes.getDensityBucket(640));
+    }
+
+    @Test
+    public void getLegacyIconSize_prefersTheLauncherSize() throws Exception {
+        assertEquals(192, IconSizes.getLegacyIconSize(192, 3f));
+        assertEquals(144, IconSizes.getLegacyIconSize(0, 3f));
+        assertEquals(63, IconSizes.getLegacyIconSize(-1, 1.3125f));
+    }
+
+    @Test
+    public void getShortcutIconSize_isBoundedByTheShortcutManager() throws Exception {
+        assertEquals(192, IconSizes.getShortcutIconSize(192, 192, 192));
+        assertEquals(168, IconSizes.getShortcutIconSize(192, 168, 192));
+        assertEquals(144, IconSizes.getShortcutIconSize(192, 192, 144));
+        assertEquals(144, IconSizes.getShortcutIconSize(144, 192, 192));
+    }
+}
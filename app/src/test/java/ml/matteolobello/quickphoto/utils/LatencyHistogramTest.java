@@ -0,0 +1,62 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void percentiles_areBoundedByTheBucket() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * MS);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100 * MS, histogram.getMaxNs());
+        assertEquals(50500000, histogram.getMeanNs());
+
+        // Buckets are powers of two: the estimate is at most 2x the real value
+        long p50 = histogram.getPercentileNs(50);
+        assertTrue(p50 >= 50 * MS && p50 <= 100 * MS);
+        assertEquals(100 * MS, histogram.getPercentileNs(99));
+    }
+
+    @Test
+    public void record_isSafeFromManyThreads() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMaxNs());
+    }
+
+    @Test
+    public void reset_clearsEverything() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5 * MS);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNs(50));
+    }
+}
@@ -0,0 +1,87 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MediaIndexTableTest {
+
+    @Test
+    public void upsert_updatesBothLookups() throws Exception {
+        MediaIndexTable table = new MediaIndexTable();
+        assertTrue(table.upsert(new MediaEntry(1, "/sdcard/DCIM/a.jpg", 100, 1000, 0)));
+        assertFalse(table.upsert(new MediaEntry(1, "/sdcard/DCIM/a.jpg", 100, 1000, 0)));
+
+        // Moved
+        MediaEntry moved = new MediaEntry(1, "/sdcard/Pictures/a.jpg", 100, 1001, 90);
+        assertTrue(table.upsert(moved));
+
+        assertSame(moved, table.getById(1));
+        assertSame(moved, table.getByPath("/sdcard/Pictures/a.jpg"));
+        assertNull(table.getByPath("/sdcard/DCIM/a.jpg"));
+        assertEquals(1, table.size());
+        assertEquals(1001, table.getMaxDateModified());
+    }
+
+    @Test
+    public void retainAll_dropsDeletedImages() throws Exception {
+        MediaIndexTable table = new MediaIndexTable();
+        for (int id = 1; id <= 5; id++) {
+            table.upsert(new MediaEntry(id, "/sdcard/" + id + ".jpg", id, id, 0));
+        }
+
+        assertFalse(table.retainAll(new long[]{1, 2, 3, 4, 5, 6}));
+        assertTrue(table.retainAll(new long[]{1, 3, 5}));
+
+        assertEquals(3, table.size());
+        assertNull(table.getById(2));
+        assertNull(table.getByPath("/sdcard/4.jpg"));
+        assertEquals(5, table.getMaxId());
+    }
+
+    @Test
+    public void newestFirst_isPagedByOlderIds() throws Exception {
+        MediaIndexTable table = new MediaIndexTable();
+        for (long id : new long[]{7, 3, 42, 10, 1}) {
+            table.upsert(new MediaEntry(id, null, 0, 0, 0));
+        }
+
+        MediaEntry[] newestFirst = table.getNewestFirst();
+        assertEquals(42, newestFirst[0].getId());
+        assertEquals(1, newestFirst[4].getId());
+
+        assertEquals(0, MediaIndexTable.indexOfFirstOlderThan(newestFirst, Long.MAX_VALUE));
+        assertEquals(2, MediaIndexTable.indexOfFirstOlderThan(newestFirst, 10));
+        assertEquals(2, MediaIndexTable.indexOfFirstOlderThan(newestFirst, 9));
+        assertEquals(5, MediaIndexTable.indexOfFirstOlderThan(newestFirst, 1));
+    }
+
+    @Test
+    public void writeAndRead_roundTrip() throws Exception {
+        MediaIndexTable table = new MediaIndexTable();
+        table.upsert(new MediaEntry(1, "/sdcard/a.jpg", 100, 1000, 270));
+        table.upsert(new MediaEntry(2, null, 200, 2000, 0));
+        table.upsert(new MediaEntry(3, "/sdcard/c.jpg", 300, 3000, 0));
+        table.retainAll(new long[]{1, 2});
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        table.write(new DataOutputStream(byteStream));
+        MediaIndexTable read = MediaIndexTable.read(
+                new DataInputStream(new ByteArrayInputStream(byteStream.toByteArray())));
+
+        assertEquals(2, read.size());
+        assertTrue(read.getById(1).isSameAs(table.getById(1)));
+        assertNull(read.getById(2).getPath());
+        assertEquals(3, read.getMaxId());
+        assertEquals(3000, read.getMaxDateModified());
+    }
+}
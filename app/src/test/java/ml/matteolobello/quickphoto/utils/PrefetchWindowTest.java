@@ -0,0 +1,41 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrefetchWindowTest {
+
+    @Test
+    public void ahead_followsTheScrollDirection() throws Exception {
+        PrefetchWindow down = PrefetchWindow.ahead(100, 119, 12, 12, 50000);
+        assertEquals(120, down.getStart());
+        assertEquals(132, down.getEnd());
+
+        PrefetchWindow up = PrefetchWindow.ahead(100, 119, -12, 12, 50000);
+        assertEquals(88, up.getStart());
+        assertEquals(100, up.getEnd());
+    }
+
+    @Test
+    public void ahead_isClampedToTheItems() throws Exception {
+        PrefetchWindow end = PrefetchWindow.ahead(40, 47, 1, 12, 50);
+        assertEquals(48, end.getStart());
+        assertEquals(50, end.getEnd());
+
+        PrefetchWindow start = PrefetchWindow.ahead(4, 23, -1, 12, 50);
+        assertEquals(0, start.getStart());
+        assertEquals(4, start.getEnd());
+
+        assertTrue(PrefetchWindow.ahead(30, 49, 1, 12, 50).isEmpty());
+        assertTrue(PrefetchWindow.ahead(0, 19, -1, 12, 50).isEmpty());
+    }
+
+    @Test
+    public void ahead_isEmptyWithoutScrollOrItems() throws Exception {
+        assertTrue(PrefetchWindow.ahead(0, 19, 0, 12, 50).isEmpty());
+        assertTrue(PrefetchWindow.ahead(-1, -1, 1, 12, 0).isEmpty());
+        assertTrue(PrefetchWindow.ahead(0, 19, 1, 0, 50).isEmpty());
+    }
+}
@@ -0,0 +1,33 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShortcutNameTemplateTest {
+
+    private static SimpleDateFormat dateFormat() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return dateFormat;
+    }
+
+    @Test
+    public void format_replacesEveryToken() throws Exception {
+        ShortcutNameTemplate template = new ShortcutNameTemplate("{name} {date} #{index}", dateFormat());
+
+        assertEquals("IMG_001 1970-01-02 #3", template.format("IMG_001.jpg", 24L * 60 * 60 * 1000, 2));
+    }
+
+    @Test
+    public void format_fallsBackWhenMetadataIsMissing() throws Exception {
+        assertEquals("Photo", new ShortcutNameTemplate("{name}", dateFormat()).format(null, 0, 0));
+        assertEquals("Photo 2", new ShortcutNameTemplate("{date}", dateFormat()).format("a.jpg", -1, 1));
+        assertEquals(".hidden", new ShortcutNameTemplate("{name}", dateFormat()).format(".hidden", 0, 0));
+    }
+}
@@ -0,0 +1,80 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShortcutRecordTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    private static final long NOW = 100 * DAY;
+
+    @Test
+    public void selectEvictions_prefersUnusedShortcuts() throws Exception {
+        ShortcutRecord used = new ShortcutRecord("used", "content://a", "A", NOW - 30 * DAY);
+        for (int i = 0; i < 10; i++) {
+            used.recordLaunch(NOW - 2 * DAY);
+        }
+        ShortcutRecord unused = new ShortcutRecord("unused", "content://b", "B", NOW - DAY);
+
+        List<String> evictedIds = ShortcutRecord.selectEvictions(
+                Arrays.asList(used, unused), 1, Collections.<String>emptySet(), NOW);
+
+        assertEquals(Collections.singletonList("unused"), evictedIds);
+    }
+
+    @Test
+    public void selectEvictions_forgetsOldUsage() throws Exception {
+        ShortcutRecord stale = new ShortcutRecord("stale", "content://a", "A", NOW - 90 * DAY);
+        stale.recordLaunch(NOW - 60 * DAY);
+        stale.recordLaunch(NOW - 60 * DAY);
+        ShortcutRecord fresh = new ShortcutRecord("fresh", "content://b", "B", NOW - DAY);
+        fresh.recordLaunch(NOW);
+
+        List<String> evictedIds = ShortcutRecord.selectEvictions(
+                Arrays.asList(fresh, stale), 1, Collections.<String>emptySet(), NOW);
+
+        assertEquals(Collections.singletonList("stale"), evictedIds);
+    }
+
+    @Test
+    public void selectEvictions_keepsTheGivenIds() throws Exception {
+        ShortcutRecord first = new ShortcutRecord("first", "content://a", "A", NOW - 10 * DAY);
+        ShortcutRecord second = new ShortcutRecord("second", "content://b", "B", NOW);
+
+        List<String> evictedIds = ShortcutRecord.selectEvictions(
+                Arrays.asList(first, second), 2, Collections.singleton("first"), NOW);
+
+        assertEquals(Collections.singletonList("second"), evictedIds);
+        assertTrue(ShortcutRecord.selectEvictions(
+                Arrays.asList(first, second), 0, Collections.<String>emptySet(), NOW).isEmpty());
+    }
+
+    @Test
+    public void writeAndRead_roundTrip() throws Exception {
+        ShortcutRecord record = new ShortcutRecord("id", "content://media/1", "Beach", NOW - DAY);
+        record.recordLaunch(NOW);
+        record.setSize(123456);
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        record.write(new DataOutputStream(byteStream));
+        ShortcutRecord readRecord = ShortcutRecord.read(
+                new DataInputStream(new ByteArrayInputStream(byteStream.toByteArray())));
+
+        assertEquals("id", readRecord.getId());
+        assertEquals("content://media/1", readRecord.getUri());
+        assertEquals("Beach", readRecord.getName());
+        assertEquals(123456, readRecord.getSize());
+        assertEquals(NOW, readRecord.getLastUsedMillis());
+        assertEquals(1, readRecord.getLaunchCount());
+    }
+}
@@ -0,0 +1,58 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ViolationLogTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void record_aggregatesByOperationAndCallSite() throws Exception {
+        ViolationLog log = new ViolationLog(16 * MS);
+
+        assertFalse(log.record("decode", "MainActivity.onActivityResult(MainActivity.java:250)", 5 * MS));
+        assertTrue(log.record("decode", "MainActivity.onActivityResult(MainActivity.java:250)", 40 * MS));
+        assertFalse(log.record("ipc", "MainActivity.onActivityResult(MainActivity.java:261)", 2 * MS));
+
+        List<ViolationLog.Violation> violations = log.getViolations();
+        assertEquals(2, violations.size());
+        assertEquals(3, log.getCount());
+
+        // The worst first
+        ViolationLog.Violation decode = violations.get(0);
+        assertEquals("decode", decode.getOperation());
+        assertEquals(2, decode.getCount());
+        assertEquals(1, decode.getSlowCount());
+        assertEquals(45 * MS, decode.getTotalNs());
+        assertEquals(40 * MS, decode.getMaxNs());
+
+        assertTrue(log.getReport().startsWith(
+                "decode at MainActivity.onActivityResult(MainActivity.java:250): calls=2 slow=1 total=45ms max=40ms\n"));
+
+        log.reset();
+        assertEquals(0, log.getCount());
+        assertEquals("", log.getReport());
+    }
+
+    @Test
+    public void findCallSite_skipsTheMonitoringFrames() throws Exception {
+        StackTraceElement[] stackTrace = {
+                new StackTraceElement("ml.matteolobello.quickphoto.utils.MainThreadMonitor", "begin", "MainThreadMonitor.java", 80),
+                new StackTraceElement("ml.matteolobello.quickphoto.utils.BitmapUtils$1", "run", "BitmapUtils.java", 10),
+                new StackTraceElement("ml.matteolobello.quickphoto.utils.BitmapUtils", "readExif", "BitmapUtils.java", 106),
+                new StackTraceElement("ml.matteolobello.quickphoto.activities.MainActivity", "selectPhoto", "MainActivity.java", 360),
+        };
+
+        assertEquals("ml.matteolobello.quickphoto.activities.MainActivity.selectPhoto(MainActivity.java:360)",
+                ViolationLog.findCallSite(stackTrace, "ml.matteolobello.quickphoto.utils."));
+        assertEquals("ml.matteolobello.quickphoto.utils.BitmapUtils$1.run(BitmapUtils.java:10)",
+                ViolationLog.findCallSite(stackTrace, "ml.matteolobello.quickphoto.utils.MainThreadMonitor"));
+        assertEquals("unknown", ViolationLog.findCallSite(new StackTraceElement[0]));
+    }
+}
@@ -0,0 +1,39 @@
+package ml.matteolobello.quickphoto.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkBudgetTest {
+
+    private static final long START = 1000;
+
+    @Test
+    public void isSpent_byTime() throws Exception {
+        WorkBudget budget = new WorkBudget(START, 500, Long.MAX_VALUE);
+
+        assertFalse(budget.isSpent(START));
+        assertFalse(budget.isSpent(START + 499));
+        assertTrue(budget.isSpent(START + 500));
+    }
+
+    @Test
+    public void isSpent_byBytes() throws Exception {
+        WorkBudget budget = new WorkBudget(START, 500, 1024);
+
+        budget.addBytes(1000);
+        assertFalse(budget.isSpent(START));
+        budget.addBytes(24);
+        assertTrue(budget.isSpent(START));
+    }
+
+    @Test
+    public void isSpent_whenCancelled() throws Exception {
+        WorkBudget budget = new WorkBudget(START, 500, 1024);
+
+        budget.cancel();
+        assertTrue(budget.isCancelled());
+        assertTrue(budget.isSpent(START));
+    }
+}
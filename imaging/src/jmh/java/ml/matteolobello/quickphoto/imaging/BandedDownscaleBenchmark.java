@@ -0,0 +1,86 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the banded downscale with the number of workers, for a 108 MP photo and
+ * a 40000x4000 panorama brought down to a 2048px long edge.
+ * <p>
+ * The band decode is simulated by generating the band pixels, so that the source never
+ * needs to be in memory, as on device where each band comes from a region decoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BandedDownscaleBenchmark {
+
+    private static final int DST_LONG_EDGE = 2048;
+
+    /**
+     * The band size the app uses, 1 MP.
+     */
+    private static final int BAND_PIXELS = 1024 * 1024;
+
+    @Param({"12000x9000", "40000x4000"})
+    public String source;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private ForkJoinPool mPool;
+    private BandedDownscaler mDownscaler;
+    private BandedDownscaler.BandSource mBandSource;
+    private int[] mDst;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] dimensions = source.split("x");
+        final int srcWidth = Integer.parseInt(dimensions[0]);
+        final int srcHeight = Integer.parseInt(dimensions[1]);
+
+        float scale = (float) DST_LONG_EDGE / Math.max(srcWidth, srcHeight);
+        int dstWidth = Math.max(1, Math.round(srcWidth * scale));
+        int dstHeight = Math.max(1, Math.round(srcHeight * scale));
+
+        mPool = new ForkJoinPool(workers);
+        mDownscaler = new BandedDownscaler(srcWidth, srcHeight, dstWidth, dstHeight,
+                BandedDownscaler.bandHeightFor(srcWidth, BAND_PIXELS, 1));
+        mDst = new int[dstWidth * dstHeight];
+        mBandSource = new BandedDownscaler.BandSource() {
+            @Override
+            public boolean readBand(int firstRow, int rowCount, int[] pixels) {
+                final int length = rowCount * srcWidth;
+                final long firstPixel = (long) firstRow * srcWidth;
+                for (int i = 0; i < length; i++) {
+                    pixels[i] = 0xff000000 | (int) ((firstPixel + i) * 2654435761L) & 0xffffff;
+                }
+
+                return true;
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int[] bandedDownscale() throws InterruptedException {
+        mDownscaler.scale(mBandSource, mPool, workers, mDst);
+
+        return mDst;
+    }
+}
@@ -0,0 +1,178 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Time to render an icon from a camera JPEG carrying a 160x120 EXIF thumbnail: from the
+ * thumbnail found by {@link ExifReader}, against decoding the main image sub-sampled,
+ * as BitmapFactory does with inSampleSize.
+ * <p>
+ * ImageIO stands in for the platform decoder, so the absolute numbers differ from a
+ * device, but both paths pay the same decoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExifThumbnailBenchmark {
+
+    private static final int ICON_SIZE = 128;
+
+    private static final int THUMBNAIL_WIDTH = 160;
+    private static final int THUMBNAIL_HEIGHT = 120;
+
+    @Param({"3", "12", "48"})
+    public int megapixels;
+
+    private byte[] mFile;
+    private int mWidth;
+    private int mHeight;
+
+    private final CircleIconKernel mKernel = new CircleIconKernel();
+    private final int[] mIcon = new int[ICON_SIZE * ICON_SIZE];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mWidth = (int) Math.sqrt(megapixels * 1000000 * 4 / 3.0);
+        mHeight = mWidth * 3 / 4;
+
+        byte[] image = encode(photo(mWidth, mHeight));
+        byte[] thumbnail = encode(photo(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT));
+        byte[] exifSegment = exifSegment(Orientation.ROTATE_90, thumbnail);
+
+        // Put the APP1 segment right after SOI, where cameras write it
+        ByteArrayOutputStream file = new ByteArrayOutputStream(image.length + exifSegment.length + 4);
+        file.write(image, 0, 2);
+        file.write(0xff);
+        file.write(0xe1);
+        file.write((exifSegment.length + 2) >> 8);
+        file.write(exifSegment.length + 2);
+        file.write(exifSegment);
+        file.write(image, 2, image.length - 2);
+        mFile = file.toByteArray();
+    }
+
+    /**
+     * Read the header, decode the embedded thumbnail and render the oriented icon.
+     */
+    @Benchmark
+    public int[] exifThumbnail() throws IOException {
+        ExifInfo exifInfo = ExifReader.read(new ByteArrayInputStream(mFile));
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(exifInfo.getThumbnail()));
+
+        int width = thumbnail.getWidth();
+        int height = thumbnail.getHeight();
+        int[] pixels = thumbnail.getRGB(0, 0, width, height, null, 0, width);
+        mKernel.render(pixels, width, height, exifInfo.getOrientation(), mIcon, ICON_SIZE);
+
+        return mIcon;
+    }
+
+    /**
+     * Decode the main image sub-sampled to about the icon size, then render the icon.
+     */
+    @Benchmark
+    public int[] sampledDecode() throws IOException {
+        ExifInfo exifInfo = ExifReader.read(new ByteArrayInputStream(mFile));
+        int sampleSize = SampleSize.calculate(mWidth, mHeight, ICON_SIZE, ICON_SIZE);
+
+        ImageInputStream imageInputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(mFile));
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+
+                BufferedImage image = reader.read(0, param);
+                int width = image.getWidth();
+                int height = image.getHeight();
+                int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+                mKernel.render(pixels, width, height, exifInfo.getOrientation(), mIcon, ICON_SIZE);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            imageInputStream.close();
+        }
+
+        return mIcon;
+    }
+
+    /**
+     * A smooth gradient with some noise, so that the JPEG is about as big as a photo.
+     */
+    private static BufferedImage photo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = x * 255 / width;
+                int green = y * 255 / height;
+                int blue = random.nextInt(64);
+                row[x] = (red << 16) | (green << 8) | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+
+        return output.toByteArray();
+    }
+
+    /**
+     * A little endian APP1 segment with the orientation in IFD0 and the thumbnail in IFD1.
+     */
+    private static byte[] exifSegment(int orientation, byte[] thumbnail) {
+        final int ifd0 = 8;
+        final int ifd1 = ifd0 + 2 + 12 + 4;
+        final int thumbnailOffset = ifd1 + 2 + 2 * 12 + 4;
+
+        ByteBuffer segment = ByteBuffer.allocate(6 + thumbnailOffset + thumbnail.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        segment.put(new byte[]{'E', 'x', 'i', 'f', 0, 0, 'I', 'I'});
+        segment.putShort((short) 42).putInt(ifd0);
+
+        segment.putShort((short) 1);
+        segment.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        segment.putInt(ifd1);
+
+        segment.putShort((short) 2);
+        segment.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbnailOffset);
+        segment.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        segment.putInt(0);
+
+        segment.put(thumbnail);
+
+        return segment.array();
+    }
+}
@@ -0,0 +1,108 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and allocation rate (with -prof gc) of the icon pipeline, from the
+ * decoded pixels to the round icon, for 4:3 sources from 1 MP to 108 MP.
+ * <p>
+ * The decoder sub-sampling is simulated by skipping pixels, as BitmapFactory would
+ * do with inSampleSize, then the area filter and the icon kernel run as on device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IconPipelineBenchmark {
+
+    private static final int ICON_SIZE = 128;
+
+    @Param({"1", "12", "48", "108"})
+    public int megapixels;
+
+    private int[] mSource;
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    private final CircleIconKernel mKernel = new CircleIconKernel();
+    private final int[] mIcon = new int[ICON_SIZE * ICON_SIZE];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSourceWidth = (int) Math.sqrt(megapixels * 1000000 * 4 / 3.0);
+        mSourceHeight = mSourceWidth * 3 / 4;
+        mSource = new int[mSourceWidth * mSourceHeight];
+
+        Random random = new Random(42);
+        for (int i = 0; i < mSource.length; i++) {
+            mSource[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+    }
+
+    /**
+     * Sample, filter to the exact size and render the icon, as the app does.
+     */
+    @Benchmark
+    public int[] sampledPipeline() {
+        int sampleSize = SampleSize.calculate(mSourceWidth, mSourceHeight, ICON_SIZE, ICON_SIZE);
+        int sampledWidth = SampleSize.sampledDimension(mSourceWidth, sampleSize);
+        int sampledHeight = SampleSize.sampledDimension(mSourceHeight, sampleSize);
+
+        int[] sampled = new int[sampledWidth * sampledHeight];
+        for (int y = 0; y < sampledHeight; y++) {
+            int sourceRow = Math.min(y * sampleSize, mSourceHeight - 1) * mSourceWidth;
+            for (int x = 0; x < sampledWidth; x++) {
+                sampled[y * sampledWidth + x] = mSource[sourceRow + Math.min(x * sampleSize, mSourceWidth - 1)];
+            }
+        }
+
+        float scale = SampleSize.fillScale(sampledWidth, sampledHeight, ICON_SIZE, ICON_SIZE);
+        int scaledWidth = Math.max(ICON_SIZE, Math.round(sampledWidth * scale));
+        int scaledHeight = Math.max(ICON_SIZE, Math.round(sampledHeight * scale));
+
+        int[] scaled = new int[scaledWidth * scaledHeight];
+        new AreaDownscaler(sampledWidth, sampledHeight, scaledWidth, scaledHeight).scale(sampled, scaled);
+
+        mKernel.render(scaled, scaledWidth, scaledHeight, mIcon, ICON_SIZE);
+
+        return mIcon;
+    }
+
+    /**
+     * Filter the whole source at once, the cost we pay without sub-sampling.
+     */
+    @Benchmark
+    public int[] fullResolutionPipeline() {
+        float scale = SampleSize.fillScale(mSourceWidth, mSourceHeight, ICON_SIZE, ICON_SIZE);
+        int scaledWidth = Math.max(ICON_SIZE, Math.round(mSourceWidth * scale));
+        int scaledHeight = Math.max(ICON_SIZE, Math.round(mSourceHeight * scale));
+
+        int[] scaled = new int[scaledWidth * scaledHeight];
+        new AreaDownscaler(mSourceWidth, mSourceHeight, scaledWidth, scaledHeight).scale(mSource, scaled);
+
+        mKernel.render(scaled, scaledWidth, scaledHeight, mIcon, ICON_SIZE);
+
+        return mIcon;
+    }
+
+    /**
+     * The icon kernel alone, point sampling the whole source.
+     */
+    @Benchmark
+    public int[] kernelOnly() {
+        mKernel.render(mSource, mSourceWidth, mSourceHeight,
+                (mSourceWidth - mSourceHeight) / 2f, 0f, mSourceHeight, mIcon, ICON_SIZE);
+
+        return mIcon;
+    }
+}
@@ -0,0 +1,58 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the saliency analysis on one core, which must stay well under the few
+ * milliseconds the app gives it before falling back to the center crop.
+ * <p>
+ * The sources are the sizes the app analyzes: a 160x120 EXIF thumbnail, a 4:3 decode
+ * filling a 192px icon and a full 12 MP photo, the worst case.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SaliencyCropBenchmark {
+
+    @Param({"160x120", "256x192", "4000x3000"})
+    public String source;
+
+    private int[] mSource;
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    private final SaliencyCrop mSaliencyCrop = new SaliencyCrop();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] dimensions = source.split("x");
+        mSourceWidth = Integer.parseInt(dimensions[0]);
+        mSourceHeight = Integer.parseInt(dimensions[1]);
+        mSource = new int[mSourceWidth * mSourceHeight];
+
+        // A noisy subject on the left of a flat background
+        Random random = new Random(42);
+        for (int y = 0; y < mSourceHeight; y++) {
+            for (int x = 0; x < mSourceWidth; x++) {
+                mSource[y * mSourceWidth + x] = x < mSourceWidth / 4
+                        ? 0xff000000 | random.nextInt(0x1000000) : 0xff808080;
+            }
+        }
+    }
+
+    @Benchmark
+    public float findSquare() {
+        return mSaliencyCrop.findSquare(mSource, mSourceWidth, mSourceHeight, Long.MAX_VALUE / 2);
+    }
+}
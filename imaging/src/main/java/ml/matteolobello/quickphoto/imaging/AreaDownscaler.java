@@ -0,0 +1,200 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import java.util.Arrays;
+
+/**
+ * Downscales ARGB pixels with an area (box) filter: every output pixel is the exact,
+ * coverage-weighted average of the source pixels below it.
+ * <p>
+ * Source rows can be pushed in any number of bands, each one into its own accumulator,
+ * so that a big image never needs to be fully in memory and bands can be processed
+ * concurrently, see {@link BandedDownscaler}. Instances are immutable and can be shared
+ * between threads.
+ */
+public class AreaDownscaler {
+
+    private static final int CHANNELS = 4;
+
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mDstWidth;
+    private final int mDstHeight;
+
+    /**
+     * For every source column (or row): the first output column (or row) it falls in,
+     * the part of it falling there and the part falling in the next one.
+     */
+    private final int[] mColumnTarget;
+    private final float[] mColumnWeight;
+    private final float[] mColumnRemainder;
+    private final int[] mRowTarget;
+    private final float[] mRowWeight;
+    private final float[] mRowRemainder;
+
+    public AreaDownscaler(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        if (dstWidth <= 0 || dstHeight <= 0 || dstWidth > srcWidth || dstHeight > srcHeight) {
+            throw new IllegalArgumentException("Can't downscale " + srcWidth + "x" + srcHeight
+                    + " to " + dstWidth + "x" + dstHeight);
+        }
+
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mDstWidth = dstWidth;
+        mDstHeight = dstHeight;
+
+        mColumnTarget = new int[srcWidth];
+        mColumnWeight = new float[srcWidth];
+        mColumnRemainder = new float[srcWidth];
+        computeWeights(srcWidth, dstWidth, mColumnTarget, mColumnWeight, mColumnRemainder);
+
+        mRowTarget = new int[srcHeight];
+        mRowWeight = new float[srcHeight];
+        mRowRemainder = new float[srcHeight];
+        computeWeights(srcHeight, dstHeight, mRowTarget, mRowWeight, mRowRemainder);
+    }
+
+    /**
+     * Split every source pixel between the (at most two) output pixels it covers,
+     * measuring the coverage in output pixels, so that the weights of an output
+     * pixel sum to 1.
+     */
+    private static void computeWeights(int srcSize, int dstSize, int[] target, float[] weight, float[] remainder) {
+        final double ratio = (double) dstSize / srcSize;
+
+        for (int i = 0; i < srcSize; i++) {
+            double start = i * ratio;
+            double end = Math.min((i + 1) * ratio, dstSize);
+            int first = Math.min((int) start, dstSize - 1);
+
+            target[i] = first;
+            weight[i] = (float) (Math.min(end, first + 1) - start);
+            remainder[i] = first + 1 < dstSize ? (float) Math.max(0, end - (first + 1)) : 0f;
+        }
+    }
+
+    public int getDstWidth() {
+        return mDstWidth;
+    }
+
+    public int getDstHeight() {
+        return mDstHeight;
+    }
+
+    /**
+     * @return A new, empty accumulator for the whole output.
+     */
+    public float[] newAccumulator() {
+        return new float[mDstWidth * mDstHeight * CHANNELS];
+    }
+
+    /**
+     * @return The first output row touched by the given source row.
+     */
+    public int getFirstTargetRow(int srcRow) {
+        return mRowTarget[srcRow];
+    }
+
+    /**
+     * @return The last output row touched by the given source row.
+     */
+    public int getLastTargetRow(int srcRow) {
+        return mRowRemainder[srcRow] > 0f ? mRowTarget[srcRow] + 1 : mRowTarget[srcRow];
+    }
+
+    /**
+     * Accumulate a band of source rows.
+     *
+     * @param band        The pixels of the band, ARGB, row by row, mSrcWidth wide.
+     * @param firstRow    The source row of the first row of the band.
+     * @param rowCount    The number of rows of the band.
+     * @param accumulator The accumulator, as returned by {@link #newAccumulator()}.
+     */
+    public void accumulate(int[] band, int firstRow, int rowCount, float[] accumulator) {
+        accumulate(band, firstRow, rowCount, accumulator, 0);
+    }
+
+    /**
+     * Accumulate a band of source rows into an accumulator covering only the output rows
+     * the band touches, from {@link #getFirstTargetRow(int)} of its first row to
+     * {@link #getLastTargetRow(int)} of its last one.
+     *
+     * @param band           The pixels of the band, ARGB, row by row, mSrcWidth wide.
+     * @param firstRow       The source row of the first row of the band.
+     * @param rowCount       The number of rows of the band.
+     * @param accumulator    The accumulator, dstWidth * 4 floats per output row.
+     * @param firstTargetRow The output row of the first row of the accumulator.
+     */
+    public void accumulate(int[] band, int firstRow, int rowCount, float[] accumulator, int firstTargetRow) {
+        final float[] rowSum = new float[mDstWidth * CHANNELS];
+
+        for (int row = 0; row < rowCount; row++) {
+            final int srcRow = firstRow + row;
+            final int offset = row * mSrcWidth;
+
+            Arrays.fill(rowSum, 0f);
+            for (int x = 0; x < mSrcWidth; x++) {
+                final int color = band[offset + x];
+                final int target = mColumnTarget[x] * CHANNELS;
+
+                addColor(rowSum, target, color, mColumnWeight[x]);
+                if (mColumnRemainder[x] > 0f) {
+                    addColor(rowSum, target + CHANNELS, color, mColumnRemainder[x]);
+                }
+            }
+
+            addRow(accumulator, mRowTarget[srcRow] - firstTargetRow, rowSum, mRowWeight[srcRow]);
+            if (mRowRemainder[srcRow] > 0f) {
+                addRow(accumulator, mRowTarget[srcRow] + 1 - firstTargetRow, rowSum, mRowRemainder[srcRow]);
+            }
+        }
+    }
+
+    /**
+     * Write the accumulated average into ARGB pixels.
+     *
+     * @param accumulator The accumulator, with all the source rows pushed.
+     * @param dst         The output, at least dstWidth * dstHeight long.
+     */
+    public void resolve(float[] accumulator, int[] dst) {
+        final int length = mDstWidth * mDstHeight;
+
+        for (int i = 0; i < length; i++) {
+            final int index = i * CHANNELS;
+            dst[i] = (toChannel(accumulator[index]) << 24)
+                    | (toChannel(accumulator[index + 1]) << 16)
+                    | (toChannel(accumulator[index + 2]) << 8)
+                    | toChannel(accumulator[index + 3]);
+        }
+    }
+
+    /**
+     * Downscale a whole image at once.
+     *
+     * @param src The source pixels, ARGB, row by row.
+     * @param dst The output, at least dstWidth * dstHeight long.
+     */
+    public void scale(int[] src, int[] dst) {
+        float[] accumulator = newAccumulator();
+        accumulate(src, 0, mSrcHeight, accumulator);
+        resolve(accumulator, dst);
+    }
+
+    private static void addColor(float[] sum, int index, int color, float weight) {
+        sum[index] += (color >>> 24) * weight;
+        sum[index + 1] += ((color >> 16) & 0xff) * weight;
+        sum[index + 2] += ((color >> 8) & 0xff) * weight;
+        sum[index + 3] += (color & 0xff) * weight;
+    }
+
+    private void addRow(float[] accumulator, int targetRow, float[] rowSum, float weight) {
+        final int offset = targetRow * mDstWidth * CHANNELS;
+
+        for (int i = 0; i < rowSum.length; i++) {
+            accumulator[offset + i] += rowSum[i] * weight;
+        }
+    }
+
+    private static int toChannel(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
@@ -0,0 +1,204 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downscales an image too big to be held in memory, or to be filtered on one core, with
+ * an {@link AreaDownscaler}: the source is read in horizontal bands, the bands are
+ * filtered concurrently, each into an accumulator covering only its own output rows,
+ * and the partial results are summed into the output.
+ * <p>
+ * The calling thread works on the bands too, and the executor threads join it: with
+ * n workers, at most n bands and n partial accumulators are in memory at once, whatever
+ * the source size. Instances are immutable and can be shared between threads.
+ */
+public class BandedDownscaler {
+
+    private static final int CHANNELS = 4;
+
+    /**
+     * Reads the bands of the source, from any of the worker threads.
+     */
+    public interface BandSource {
+
+        /**
+         * Read source rows.
+         *
+         * @param firstRow The first source row to read.
+         * @param rowCount The number of rows to read.
+         * @param pixels   The buffer to read the rows into, ARGB, row by row, as wide as
+         *                 the source and at least rowCount rows long.
+         * @return false if the rows couldn't be read, which stops the downscale.
+         */
+        boolean readBand(int firstRow, int rowCount, int[] pixels);
+    }
+
+    private final AreaDownscaler mDownscaler;
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mBandHeight;
+
+    /**
+     * @param srcWidth   The source width.
+     * @param srcHeight  The source height.
+     * @param dstWidth   The output width.
+     * @param dstHeight  The output height.
+     * @param bandHeight The source rows read at once.
+     */
+    public BandedDownscaler(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int bandHeight) {
+        if (bandHeight <= 0) {
+            throw new IllegalArgumentException("Invalid band height " + bandHeight);
+        }
+
+        mDownscaler = new AreaDownscaler(srcWidth, srcHeight, dstWidth, dstHeight);
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mBandHeight = Math.min(bandHeight, srcHeight);
+    }
+
+    /**
+     * Pick the band height keeping a band within the given number of pixels, so that the
+     * memory of a downscale is bounded by the band size.
+     *
+     * @param srcWidth    The source width.
+     * @param maxPixels   The maximum pixels of a band.
+     * @param rowMultiple The band height is rounded down to a multiple of this, e.g. the
+     *                    sample size the bands are decoded with, so that sampled bands
+     *                    line up.
+     * @return The band height, at least rowMultiple.
+     */
+    public static int bandHeightFor(int srcWidth, int maxPixels, int rowMultiple) {
+        final int rows = maxPixels / Math.max(1, srcWidth);
+
+        return Math.max(rowMultiple, rows / rowMultiple * rowMultiple);
+    }
+
+    public int getBandHeight() {
+        return mBandHeight;
+    }
+
+    public int getBandCount() {
+        return (mSrcHeight + mBandHeight - 1) / mBandHeight;
+    }
+
+    /**
+     * Downscale the whole source.
+     *
+     * @param source      The source of the bands.
+     * @param executor    The executor the extra workers run on, or null to run on the
+     *                    calling thread only.
+     * @param parallelism The number of workers, the calling thread included.
+     * @param dst         The output, at least dstWidth * dstHeight long.
+     * @return false if a band couldn't be read.
+     * @throws InterruptedException If interrupted while waiting for the other workers.
+     */
+    public boolean scale(final BandSource source, ExecutorService executor, int parallelism, int[] dst)
+            throws InterruptedException {
+        final float[] accumulator = mDownscaler.newAccumulator();
+        final AtomicInteger nextBand = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        final int workerCount = executor == null ? 1 : Math.max(1, Math.min(parallelism, getBandCount()));
+        final List<Future<Void>> workers = new ArrayList<>(workerCount - 1);
+        final Callable<Void> worker = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                work(source, nextBand, failed, accumulator);
+
+                return null;
+            }
+        };
+
+        boolean joined = false;
+        try {
+            for (int i = 1; i < workerCount; i++) {
+                workers.add(executor.submit(worker));
+            }
+
+            work(source, nextBand, failed, accumulator);
+
+            for (Future<Void> future : workers) {
+                future.get();
+            }
+            joined = true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // Stop the other workers if this one threw or was interrupted
+            if (!joined) {
+                failed.set(true);
+                for (Future<Void> future : workers) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        if (failed.get()) {
+            return false;
+        }
+
+        mDownscaler.resolve(accumulator, dst);
+
+        return true;
+    }
+
+    /**
+     * Filter bands until there are none left, each into a partial accumulator then into
+     * the shared one.
+     */
+    private void work(BandSource source, AtomicInteger nextBand, AtomicBoolean failed, float[] accumulator) {
+        final int rowLength = mDownscaler.getDstWidth() * CHANNELS;
+
+        int[] pixels = null;
+        float[] partial = new float[0];
+
+        int band;
+        while (!failed.get() && (band = nextBand.getAndIncrement()) < getBandCount()) {
+            final int firstRow = band * mBandHeight;
+            final int rowCount = Math.min(mBandHeight, mSrcHeight - firstRow);
+
+            if (pixels == null) {
+                pixels = new int[mSrcWidth * mBandHeight];
+            }
+            if (!source.readBand(firstRow, rowCount, pixels)) {
+                failed.set(true);
+
+                return;
+            }
+
+            final int firstTargetRow = mDownscaler.getFirstTargetRow(firstRow);
+            final int partialLength = (mDownscaler.getLastTargetRow(firstRow + rowCount - 1) - firstTargetRow + 1)
+                    * rowLength;
+            if (partial.length < partialLength) {
+                partial = new float[partialLength];
+            } else {
+                Arrays.fill(partial, 0, partialLength, 0f);
+            }
+
+            mDownscaler.accumulate(pixels, firstRow, rowCount, partial, firstTargetRow);
+
+            // The partial only covers the output rows of the band, so the lock is held briefly
+            synchronized (accumulator) {
+                final int offset = firstTargetRow * rowLength;
+                for (int i = 0; i < partialLength; i++) {
+                    accumulator[offset + i] += partial[i];
+                }
+            }
+        }
+    }
+}
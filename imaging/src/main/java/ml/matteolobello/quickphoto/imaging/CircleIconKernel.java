@@ -0,0 +1,232 @@
+package ml.matteolobello.quickphoto.imaging;
+
+/**
+ * Renders a round icon from ARGB pixels in a single pass: every output pixel is
+ * resampled (bilinear), cropped to a square, rotated to its {@link Orientation} and masked
+ * by a {@link CircleMask} at once.
+ * <p>
+ * Instances keep some scratch tables, so they should not be shared between threads.
+ */
+public class CircleIconKernel {
+
+    /**
+     * Bits used by the fixed point interpolation weights.
+     */
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    /**
+     * Offsets of the two source pixels and weight of every output column and row,
+     * reused between calls.
+     */
+    private int[] mColumnOffset0 = new int[0];
+    private int[] mColumnOffset1 = new int[0];
+    private int[] mColumnWeight = new int[0];
+    private int[] mRowOffset0 = new int[0];
+    private int[] mRowOffset1 = new int[0];
+    private int[] mRowWeight = new int[0];
+
+    /**
+     * Render the center-cropped, round icon.
+     *
+     * @param src       The source pixels, ARGB, row by row.
+     * @param srcWidth  The source width.
+     * @param srcHeight The source height.
+     * @param dst       The output buffer, at least size * size long.
+     * @param size      The icon size.
+     */
+    public void render(int[] src, int srcWidth, int srcHeight, int[] dst, int size) {
+        render(src, srcWidth, srcHeight, Orientation.NORMAL, dst, size);
+    }
+
+    /**
+     * Render the center-cropped, round icon of the source displayed with the given orientation.
+     *
+     * @param src         The source pixels, ARGB, row by row, as stored.
+     * @param srcWidth    The stored source width.
+     * @param srcHeight   The stored source height.
+     * @param orientation The {@link Orientation} of the source.
+     * @param dst         The output buffer, at least size * size long.
+     * @param size        The icon size.
+     */
+    public void render(int[] src, int srcWidth, int srcHeight, int orientation, int[] dst, int size) {
+        render(src, srcWidth, srcHeight, orientation, SaliencyCrop.CENTER, dst, size);
+    }
+
+    /**
+     * Render the round icon of the biggest square of the source displayed with the given
+     * orientation, at the given position along the long edge.
+     *
+     * @param src         The source pixels, ARGB, row by row, as stored.
+     * @param srcWidth    The stored source width.
+     * @param srcHeight   The stored source height.
+     * @param orientation The {@link Orientation} of the source.
+     * @param position    The position of the square along the stored long edge, from 0
+     *                    (left or top) to 1 (right or bottom), as found by {@link SaliencyCrop}.
+     * @param dst         The output buffer, at least size * size long.
+     * @param size        The icon size.
+     */
+    public void render(int[] src, int srcWidth, int srcHeight, int orientation, float position,
+                       int[] dst, int size) {
+        final boolean swapsDimensions = Orientation.swapsDimensions(orientation);
+        final int width = swapsDimensions ? srcHeight : srcWidth;
+        final int height = swapsDimensions ? srcWidth : srcHeight;
+        final float cropSize = Math.min(width, height);
+
+        // The position is along the stored edge, which the orientation may read backwards
+        final boolean flipped = srcWidth > srcHeight
+                ? Orientation.flipsStoredX(orientation) : Orientation.flipsStoredY(orientation);
+        final float displayedPosition = flipped ? 1f - position : position;
+
+        render(src, srcWidth, srcHeight, orientation,
+                (width - cropSize) * displayedPosition, (height - cropSize) * displayedPosition, cropSize,
+                dst, size);
+    }
+
+    /**
+     * Render the round icon from the given square region of the source.
+     *
+     * @param src       The source pixels, ARGB, row by row.
+     * @param srcWidth  The source width.
+     * @param srcHeight The source height.
+     * @param cropLeft  The left edge of the region, in source pixels.
+     * @param cropTop   The top edge of the region, in source pixels.
+     * @param cropSize  The side of the region, in source pixels.
+     * @param dst       The output buffer, at least size * size long.
+     * @param size      The icon size.
+     */
+    public void render(int[] src, int srcWidth, int srcHeight,
+                       float cropLeft, float cropTop, float cropSize,
+                       int[] dst, int size) {
+        render(src, srcWidth, srcHeight, Orientation.NORMAL, cropLeft, cropTop, cropSize, dst, size);
+    }
+
+    /**
+     * Render the round icon from the given square region of the source displayed with
+     * the given orientation. The orientation costs nothing: it only changes which source
+     * pixels are read.
+     *
+     * @param src         The source pixels, ARGB, row by row, as stored.
+     * @param srcWidth    The stored source width.
+     * @param srcHeight   The stored source height.
+     * @param orientation The {@link Orientation} of the source.
+     * @param cropLeft    The left edge of the region, in displayed pixels.
+     * @param cropTop     The top edge of the region, in displayed pixels.
+     * @param cropSize    The side of the region, in displayed pixels.
+     * @param dst         The output buffer, at least size * size long.
+     * @param size        The icon size.
+     */
+    public void render(int[] src, int srcWidth, int srcHeight, int orientation,
+                       float cropLeft, float cropTop, float cropSize,
+                       int[] dst, int size) {
+        if (dst.length < size * size) {
+            throw new IllegalArgumentException("The output buffer is too small for a " + size + "px icon");
+        }
+        if (!Orientation.isValid(orientation)) {
+            throw new IllegalArgumentException("Unknown orientation " + orientation);
+        }
+
+        final CircleMask mask = CircleMask.forSize(size);
+        final float step = cropSize / size;
+
+        ensureCapacity(size);
+
+        // Output columns walk along the stored rows, or down the stored columns when
+        // the orientation swaps the dimensions, and output rows the other way around
+        final boolean swapsDimensions = Orientation.swapsDimensions(orientation);
+        final boolean flipsX = Orientation.flipsStoredX(orientation);
+        final boolean flipsY = Orientation.flipsStoredY(orientation);
+        if (swapsDimensions) {
+            prepareAxis(mColumnOffset0, mColumnOffset1, mColumnWeight, size, cropLeft, step, srcHeight, srcWidth, flipsY);
+            prepareAxis(mRowOffset0, mRowOffset1, mRowWeight, size, cropTop, step, srcWidth, 1, flipsX);
+        } else {
+            prepareAxis(mColumnOffset0, mColumnOffset1, mColumnWeight, size, cropLeft, step, srcWidth, 1, flipsX);
+            prepareAxis(mRowOffset0, mRowOffset1, mRowWeight, size, cropTop, step, srcHeight, srcWidth, flipsY);
+        }
+
+        for (int y = 0; y < size; y++) {
+            final int rowOffset = y * size;
+            final int rowStart = mask.rowStart(y);
+            final int rowEnd = mask.rowEnd(y);
+
+            final int row0 = mRowOffset0[y];
+            final int row1 = mRowOffset1[y];
+            final int weightY = mRowWeight[y];
+
+            for (int x = 0; x < rowStart; x++) {
+                dst[rowOffset + x] = 0;
+            }
+
+            for (int x = rowStart; x < rowEnd; x++) {
+                final int column0 = mColumnOffset0[x];
+                final int column1 = mColumnOffset1[x];
+                final int weightX = mColumnWeight[x];
+
+                final int top = lerp(src[row0 + column0], src[row0 + column1], weightX);
+                final int bottom = lerp(src[row1 + column0], src[row1 + column1], weightX);
+                final int color = lerp(top, bottom, weightY);
+
+                final int alpha = ((color >>> 24) * mask.alphaAt(x, y) + 127) / 255;
+                dst[rowOffset + x] = (alpha << 24) | (color & 0x00ffffff);
+            }
+
+            for (int x = rowEnd; x < size; x++) {
+                dst[rowOffset + x] = 0;
+            }
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (mColumnOffset0.length < size) {
+            mColumnOffset0 = new int[size];
+            mColumnOffset1 = new int[size];
+            mColumnWeight = new int[size];
+            mRowOffset0 = new int[size];
+            mRowOffset1 = new int[size];
+            mRowWeight = new int[size];
+        }
+    }
+
+    /**
+     * Compute, once per call, the offsets of the two source pixels and the weight of
+     * every output position along one axis.
+     *
+     * @param start  The start of the region along the displayed axis.
+     * @param step   The source pixels per output pixel.
+     * @param length The source length of the stored axis.
+     * @param stride The distance between two source pixels along the stored axis.
+     * @param flip   true if the stored axis is read backwards.
+     */
+    private static void prepareAxis(int[] offset0, int[] offset1, int[] weight, int size,
+                                    float start, float step, int length, int stride, boolean flip) {
+        for (int i = 0; i < size; i++) {
+            float source = start + (i + 0.5f) * step - 0.5f;
+            source = Math.max(0f, Math.min(source, length - 1));
+            if (flip) {
+                source = length - 1 - source;
+            }
+
+            final int index = (int) source;
+            offset0[i] = index * stride;
+            offset1[i] = Math.min(index + 1, length - 1) * stride;
+            weight[i] = (int) ((source - index) * WEIGHT_ONE);
+        }
+    }
+
+    /**
+     * Interpolate every channel of two ARGB colors.
+     */
+    private static int lerp(int from, int to, int weight) {
+        if (from == to || weight == 0) {
+            return from;
+        }
+
+        final int inverse = WEIGHT_ONE - weight;
+
+        // Alpha and green, then red and blue: two channels per multiplication
+        final int ag = (((from >>> 8) & 0x00ff00ff) * inverse + ((to >>> 8) & 0x00ff00ff) * weight) & 0xff00ff00;
+        final int rb = ((((from & 0x00ff00ff) * inverse + (to & 0x00ff00ff) * weight) >>> WEIGHT_BITS)) & 0x00ff00ff;
+
+        return ag | rb;
+    }
+}
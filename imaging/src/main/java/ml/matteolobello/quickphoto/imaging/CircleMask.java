@@ -0,0 +1,135 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An anti-aliased circular alpha mask, precomputed once for every icon size.
+ */
+public class CircleMask {
+
+    /**
+     * Sub-pixel samples per axis used to compute the coverage of the edge pixels.
+     */
+    private static final int SUPERSAMPLING = 16;
+
+    /**
+     * The masks already computed, by size.
+     */
+    private static final Map<Integer, CircleMask> sMasks = new HashMap<>();
+
+    /**
+     * The mask size, in pixels.
+     */
+    private final int mSize;
+
+    /**
+     * The alpha of every pixel, from 0 to 255, row by row.
+     */
+    private final byte[] mAlpha;
+
+    /**
+     * The first and the last (exclusive) visible pixel of every row.
+     */
+    private final int[] mRowStart;
+    private final int[] mRowEnd;
+
+    private CircleMask(int size) {
+        mSize = size;
+        mAlpha = new byte[size * size];
+        mRowStart = new int[size];
+        mRowEnd = new int[size];
+
+        final float radius = size / 2f;
+        final float radiusSquared = radius * radius;
+        final float step = 1f / SUPERSAMPLING;
+        final int samples = SUPERSAMPLING * SUPERSAMPLING;
+
+        for (int y = 0; y < size; y++) {
+            int rowStart = size;
+            int rowEnd = 0;
+
+            for (int x = 0; x < size; x++) {
+                int alpha = coverage(x, y, radius, radiusSquared, step, samples);
+                mAlpha[y * size + x] = (byte) alpha;
+
+                if (alpha > 0) {
+                    rowStart = Math.min(rowStart, x);
+                    rowEnd = x + 1;
+                }
+            }
+
+            mRowStart[y] = rowStart;
+            mRowEnd[y] = Math.max(rowStart, rowEnd);
+        }
+    }
+
+    /**
+     * Compute the alpha of a pixel, supersampling only the ones crossed by the edge.
+     */
+    private static int coverage(int x, int y, float radius, float radiusSquared, float step, int samples) {
+        float centerDistance = (float) Math.hypot(x + 0.5f - radius, y + 0.5f - radius);
+        if (centerDistance <= radius - 0.75f) {
+            return 255;
+        }
+        if (centerDistance >= radius + 0.75f) {
+            return 0;
+        }
+
+        int covered = 0;
+        for (int sy = 0; sy < SUPERSAMPLING; sy++) {
+            float dy = y + (sy + 0.5f) * step - radius;
+            for (int sx = 0; sx < SUPERSAMPLING; sx++) {
+                float dx = x + (sx + 0.5f) * step - radius;
+                if (dx * dx + dy * dy <= radiusSquared) {
+                    covered++;
+                }
+            }
+        }
+
+        return (covered * 255 + samples / 2) / samples;
+    }
+
+    /**
+     * Get the mask for the given size, computing it only the first time.
+     *
+     * @param size The icon size.
+     * @return The mask.
+     */
+    public static CircleMask forSize(int size) {
+        synchronized (sMasks) {
+            CircleMask mask = sMasks.get(size);
+            if (mask == null) {
+                mask = new CircleMask(size);
+                sMasks.put(size, mask);
+            }
+
+            return mask;
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return The alpha of the given pixel, from 0 to 255.
+     */
+    public int alphaAt(int x, int y) {
+        return mAlpha[y * mSize + x] & 0xff;
+    }
+
+    /**
+     * @return The first visible pixel of the given row.
+     */
+    public int rowStart(int y) {
+        return mRowStart[y];
+    }
+
+    /**
+     * @return The pixel after the last visible one of the given row.
+     */
+    public int rowEnd(int y) {
+        return mRowEnd[y];
+    }
+}
@@ -0,0 +1,144 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fast 64 bit fingerprint of a file content, to recognize the same photo behind
+ * different Uris without reading it all.
+ * <p>
+ * Only the first {@link #HEADER_BYTES} and the file size are hashed: for photos the
+ * header holds the EXIF data, with its timestamps and thumbnail, or the first part of
+ * the compressed pixels, so two different photos sharing both are not a real concern.
+ * This is not a cryptographic hash.
+ */
+public final class ContentFingerprint {
+
+    /**
+     * The fingerprint of a file that couldn't be read. No file hashes to it.
+     */
+    public static final long UNKNOWN = 0;
+
+    /**
+     * How much of the file is hashed.
+     */
+    public static final int HEADER_BYTES = 64 * 1024;
+
+    private static final long MULTIPLIER_1 = 0x87c37b91114253d5L;
+    private static final long MULTIPLIER_2 = 0x4cf5ad432745937fL;
+
+    /**
+     * The header buffer of every thread, so that hashing doesn't allocate.
+     */
+    private static final ThreadLocal<ByteBuffer> sHeaderBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(HEADER_BYTES);
+        }
+    };
+
+    private ContentFingerprint() {
+    }
+
+    /**
+     * Fingerprint the file behind the given channel, reading only its header with
+     * positional reads, so that the channel position is left untouched.
+     *
+     * @param channel The file channel.
+     * @return The fingerprint, never {@link #UNKNOWN}.
+     * @throws IOException If the file can't be read.
+     */
+    public static long compute(FileChannel channel) throws IOException {
+        final long size = channel.size();
+
+        ByteBuffer header = sHeaderBuffer.get();
+        header.clear();
+        header.limit((int) Math.min(HEADER_BYTES, size));
+
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.flip();
+
+        return compute(header, size);
+    }
+
+    /**
+     * Fingerprint a file from its header and size.
+     *
+     * @param header The first bytes of the file, from its position to its limit.
+     * @param size   The file size.
+     * @return The fingerprint, never {@link #UNKNOWN}.
+     */
+    public static long compute(ByteBuffer header, long size) {
+        final ByteBuffer buffer = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int length = buffer.remaining();
+
+        // MurmurHash3 style mixing, 8 bytes at a time, seeded with the size
+        long hash = mix(size) ^ length;
+        while (buffer.remaining() >= 8) {
+            long word = buffer.getLong();
+            hash ^= Long.rotateLeft(word * MULTIPLIER_1, 31) * MULTIPLIER_2;
+            hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+        }
+
+        long tail = 0;
+        for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+            tail |= (buffer.get() & 0xffL) << shift;
+        }
+        hash ^= Long.rotateLeft(tail * MULTIPLIER_1, 31) * MULTIPLIER_2;
+
+        hash = mix(hash ^ size);
+
+        return hash != UNKNOWN ? hash : 1;
+    }
+
+    /**
+     * @param fingerprint The fingerprint.
+     * @return The fingerprint as 16 hex digits, safe to be used as a key or a file name.
+     */
+    public static String toHexString(long fingerprint) {
+        String hex = Long.toHexString(fingerprint);
+
+        StringBuilder builder = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) {
+            builder.append('0');
+        }
+
+        return builder.append(hex).toString();
+    }
+
+    /**
+     * @param hex A fingerprint written by {@link #toHexString(long)}.
+     * @return The fingerprint, or {@link #UNKNOWN} if the string isn't one.
+     */
+    public static long fromHexString(String hex) {
+        if (hex.length() != 16) {
+            return UNKNOWN;
+        }
+
+        try {
+            // Long.parseLong can't read the 64 bits at once when the top one is set
+            return Long.parseLong(hex.substring(0, 8), 16) << 32 | Long.parseLong(hex.substring(8), 16);
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * The MurmurHash3 finalizer, so that every input bit affects every output bit.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+
+        return value;
+    }
+}
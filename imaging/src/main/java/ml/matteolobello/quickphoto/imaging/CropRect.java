@@ -0,0 +1,115 @@
+package ml.matteolobello.quickphoto.imaging;
+
+/**
+ * A rectangle of source pixels to decode, worked out from the image bounds alone,
+ * before anything is decoded.
+ */
+public final class CropRect {
+
+    private final int mLeft;
+    private final int mTop;
+    private final int mWidth;
+    private final int mHeight;
+
+    public CropRect(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid crop " + left + "," + top + " " + width + "x" + height);
+        }
+
+        mLeft = left;
+        mTop = top;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Get the biggest centered square of an image. The center square is the same whatever
+     * the EXIF orientation, so the stored bounds are enough.
+     * When the long edge can't be split evenly, the extra pixel goes to the right or bottom.
+     *
+     * @param width  The image width.
+     * @param height The image height.
+     * @return The center square.
+     */
+    public static CropRect centerSquare(int width, int height) {
+        return square(width, height, SaliencyCrop.CENTER);
+    }
+
+    /**
+     * Get the biggest square of an image, at the given position along its long edge.
+     *
+     * @param width    The image width.
+     * @param height   The image height.
+     * @param position The position along the stored long edge, from 0 (left or top) to 1
+     *                 (right or bottom), as found by {@link SaliencyCrop}.
+     * @return The square.
+     */
+    public static CropRect square(int width, int height, float position) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+
+        final int size = Math.min(width, height);
+        final float clampedPosition = Math.max(0f, Math.min(position, 1f));
+
+        return new CropRect((int) ((width - size) * clampedPosition), (int) ((height - size) * clampedPosition),
+                size, size);
+    }
+
+    /**
+     * Shrink the crop so that both sides are multiples of the given sample size, which
+     * decoders then divide exactly, whether they round up or down. The right and bottom
+     * edges lose less than a sampled pixel. A side shorter than the sample size is kept.
+     *
+     * @param sampleSize The sample size.
+     * @return The aligned crop, possibly this one.
+     */
+    public CropRect alignTo(int sampleSize) {
+        final int width = alignDimension(mWidth, sampleSize);
+        final int height = alignDimension(mHeight, sampleSize);
+        if (width == mWidth && height == mHeight) {
+            return this;
+        }
+
+        return new CropRect(mLeft, mTop, width, height);
+    }
+
+    private static int alignDimension(int dimension, int sampleSize) {
+        final int aligned = dimension - dimension % sampleSize;
+
+        return aligned > 0 ? aligned : dimension;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mLeft + mWidth;
+    }
+
+    public int getBottom() {
+        return mTop + mHeight;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @param width  The image width.
+     * @param height The image height.
+     * @return true if the crop is the whole image, so decoding a region saves nothing.
+     */
+    public boolean coversImage(int width, int height) {
+        return mLeft == 0 && mTop == 0 && mWidth == width && mHeight == height;
+    }
+}
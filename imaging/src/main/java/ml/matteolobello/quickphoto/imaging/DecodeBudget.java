@@ -0,0 +1,228 @@
+package ml.matteolobello.quickphoto.imaging;
+
+/**
+ * Admission control for concurrent decodes: every decode reserves the bytes of its
+ * Bitmap before starting and releases them when done, and the reservations never
+ * exceed the budget.
+ * <p>
+ * A decode that doesn't fit waits for others to finish. If it still doesn't fit after
+ * its maximum wait, or if it could never fit, it's degraded instead: first to 2 bytes
+ * per pixel (RGB_565), then to larger sample sizes, so that we show a coarser image
+ * rather than run out of memory.
+ * This is thread safe.
+ */
+public final class DecodeBudget {
+
+    /**
+     * Bytes used by a single RGB_565 pixel.
+     */
+    public static final int RGB_565_BYTES_PER_PIXEL = 2;
+
+    private long mMaxBytes;
+    private long mReservedBytes;
+
+    private long mAdmissions;
+    private long mWaits;
+    private long mDowngrades;
+
+    /**
+     * @param maxBytes The bytes all the decodes in flight may allocate together.
+     */
+    public DecodeBudget(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Reserve the bytes of a decode, waiting or degrading it if needed.
+     *
+     * @param width       The width of the region to decode.
+     * @param height      The height of the region to decode.
+     * @param sampleSize  The wanted sample size.
+     * @param maxWaitNs   How long to wait for room before degrading.
+     * @return The admitted decode, to be released once its Bitmap has been decoded.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Ticket acquire(int width, int height, int sampleSize, long maxWaitNs) throws InterruptedException {
+        final long startNs = System.nanoTime();
+        final Ticket wanted = new Ticket(width, height, sampleSize, SampleSize.ARGB_8888_BYTES_PER_PIXEL);
+
+        synchronized (this) {
+            // What could never fit is degraded at once
+            Ticket ticket = degradeToFit(wanted, mMaxBytes);
+
+            boolean waited = false;
+            while (mReservedBytes + ticket.mBytes > mMaxBytes) {
+                waited = true;
+
+                long remainingNs = maxWaitNs - (System.nanoTime() - startNs);
+                if (remainingNs > 0) {
+                    wait(Math.max(1, remainingNs / 1000000));
+                    continue;
+                }
+
+                Ticket degraded = degradeToFit(ticket, mMaxBytes - mReservedBytes);
+                if (mReservedBytes + degraded.mBytes <= mMaxBytes) {
+                    ticket = degraded;
+                    break;
+                }
+
+                // Nothing coarser fits, wait for a release
+                wait();
+            }
+
+            ticket.mWaitNs = System.nanoTime() - startNs;
+            ticket.mDowngraded = ticket.mSampleSize != wanted.mSampleSize
+                    || ticket.mBytesPerPixel != wanted.mBytesPerPixel;
+
+            mReservedBytes += ticket.mBytes;
+            mAdmissions++;
+            if (waited) {
+                mWaits++;
+            }
+            if (ticket.mDowngraded) {
+                mDowngrades++;
+            }
+
+            return ticket;
+        }
+    }
+
+    /**
+     * Give back the bytes of an admitted decode.
+     *
+     * @param ticket The ticket from {@link #acquire(int, int, int, long)}.
+     */
+    public synchronized void release(Ticket ticket) {
+        if (ticket.mReleased) {
+            return;
+        }
+        ticket.mReleased = true;
+
+        mReservedBytes -= ticket.mBytes;
+        notifyAll();
+    }
+
+    /**
+     * Change the budget, e.g. when the system is low on memory. Decodes in flight are not
+     * affected.
+     *
+     * @param maxBytes The new budget.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        notifyAll();
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return mReservedBytes;
+    }
+
+    public synchronized long getAdmissions() {
+        return mAdmissions;
+    }
+
+    /**
+     * @return How many decodes had to wait for room.
+     */
+    public synchronized long getWaits() {
+        return mWaits;
+    }
+
+    /**
+     * @return How many decodes have been degraded.
+     */
+    public synchronized long getDowngrades() {
+        return mDowngrades;
+    }
+
+    /**
+     * Degrade the decode until it fits in the given bytes, first to RGB_565 then to
+     * larger sample sizes, down to a single pixel.
+     *
+     * @param ticket         The decode.
+     * @param availableBytes The bytes it must fit in.
+     * @return The degraded decode, or the coarsest one if it never fits.
+     */
+    static Ticket degradeToFit(Ticket ticket, long availableBytes) {
+        Ticket degraded = ticket;
+
+        if (degraded.mBytes > availableBytes && degraded.mBytesPerPixel > RGB_565_BYTES_PER_PIXEL) {
+            degraded = new Ticket(ticket.mWidth, ticket.mHeight, degraded.mSampleSize, RGB_565_BYTES_PER_PIXEL);
+        }
+
+        while (degraded.mBytes > availableBytes
+                && (degraded.getDecodedWidth() > 1 || degraded.getDecodedHeight() > 1)) {
+            degraded = new Ticket(ticket.mWidth, ticket.mHeight, degraded.mSampleSize * 2, degraded.mBytesPerPixel);
+        }
+
+        return degraded;
+    }
+
+    /**
+     * An admitted decode: how to decode, and the bytes reserved for it.
+     */
+    public static final class Ticket {
+
+        private final int mWidth;
+        private final int mHeight;
+        private final int mSampleSize;
+        private final int mBytesPerPixel;
+        private final long mBytes;
+
+        private long mWaitNs;
+        private boolean mDowngraded;
+        private boolean mReleased;
+
+        Ticket(int width, int height, int sampleSize, int bytesPerPixel) {
+            mWidth = width;
+            mHeight = height;
+            mSampleSize = sampleSize;
+            mBytesPerPixel = bytesPerPixel;
+            mBytes = (long) getDecodedWidth() * getDecodedHeight() * bytesPerPixel;
+        }
+
+        /**
+         * @return The sample size to decode with, maybe larger than the wanted one.
+         */
+        public int getSampleSize() {
+            return mSampleSize;
+        }
+
+        /**
+         * @return true if the decode must use RGB_565.
+         */
+        public boolean isRgb565() {
+            return mBytesPerPixel == RGB_565_BYTES_PER_PIXEL;
+        }
+
+        public int getDecodedWidth() {
+            return SampleSize.sampledDimension(mWidth, mSampleSize);
+        }
+
+        public int getDecodedHeight() {
+            return SampleSize.sampledDimension(mHeight, mSampleSize);
+        }
+
+        /**
+         * @return The reserved bytes.
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /**
+         * @return How long the decode waited to be admitted.
+         */
+        public long getWaitNs() {
+            return mWaitNs;
+        }
+
+        public boolean isDowngraded() {
+            return mDowngraded;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ml.matteolobello.quickphoto.imaging;
+
+/**
+ * What {@link ExifReader} found in the header of a JPEG: the orientation, the embedded
+ * thumbnail and the size of the main image, when they are there.
+ */
+public final class ExifInfo {
+
+    /**
+     * The info of a file without EXIF data.
+     */
+    public static final ExifInfo NONE = new ExifInfo(Orientation.NORMAL, null, -1, -1);
+
+    /**
+     * The smallest thumbnail we render an icon from, relative to the icon size: the
+     * usual 160x120 thumbnail is slightly upscaled for 128px icons, which can't be told
+     * apart once masked, but anything smaller would be blurry.
+     */
+    static final float MIN_THUMBNAIL_COVERAGE = 0.75f;
+
+    /**
+     * How much the thumbnail aspect ratio may differ from the image one. Some cameras pad
+     * the thumbnail with black bars instead, which would show up in the icon.
+     */
+    static final float ASPECT_RATIO_TOLERANCE = 0.02f;
+
+    private final int mOrientation;
+    private final byte[] mThumbnail;
+    private final int mImageWidth;
+    private final int mImageHeight;
+
+    ExifInfo(int orientation, byte[] thumbnail, int imageWidth, int imageHeight) {
+        mOrientation = Orientation.isValid(orientation) ? orientation : Orientation.NORMAL;
+        mThumbnail = thumbnail;
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+    }
+
+    /**
+     * @return The {@link Orientation} of the image.
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * @return The embedded JPEG thumbnail, or null if there is none.
+     */
+    public byte[] getThumbnail() {
+        return mThumbnail;
+    }
+
+    /**
+     * @return The stored width of the main image, or -1 if unknown.
+     */
+    public int getImageWidth() {
+        return mImageWidth;
+    }
+
+    /**
+     * @return The stored height of the main image, or -1 if unknown.
+     */
+    public int getImageHeight() {
+        return mImageHeight;
+    }
+
+    /**
+     * Check if the decoded thumbnail can replace the main image to render an icon: it
+     * must be about as big as the icon and show the whole image.
+     *
+     * @param thumbnailWidth  The decoded thumbnail width.
+     * @param thumbnailHeight The decoded thumbnail height.
+     * @param iconSize        The icon size.
+     * @return true if the icon can be rendered from the thumbnail.
+     */
+    public boolean isThumbnailUsable(int thumbnailWidth, int thumbnailHeight, int iconSize) {
+        return Math.min(thumbnailWidth, thumbnailHeight) >= iconSize * MIN_THUMBNAIL_COVERAGE
+                && isThumbnailComplete(thumbnailWidth, thumbnailHeight);
+    }
+
+    /**
+     * Check if the decoded thumbnail shows the whole image, with the same aspect ratio,
+     * so that it can be analyzed in place of the main image whatever its size.
+     *
+     * @param thumbnailWidth  The decoded thumbnail width.
+     * @param thumbnailHeight The decoded thumbnail height.
+     * @return true if the thumbnail shows the whole image.
+     */
+    public boolean isThumbnailComplete(int thumbnailWidth, int thumbnailHeight) {
+        if (mThumbnail == null || thumbnailWidth <= 0 || thumbnailHeight <= 0) {
+            return false;
+        }
+
+        if (mImageWidth <= 0 || mImageHeight <= 0) {
+            return true;
+        }
+
+        float imageAspectRatio = (float) mImageWidth / mImageHeight;
+        float thumbnailAspectRatio = (float) thumbnailWidth / thumbnailHeight;
+
+        return Math.abs(thumbnailAspectRatio / imageAspectRatio - 1f) <= ASPECT_RATIO_TOLERANCE;
+    }
+}
@@ -0,0 +1,297 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A streaming reader of the EXIF (APP1) segment of JPEG files.
+ * <p>
+ * Only the segments before the image data are read, usually a few KB and never more
+ * than {@link #MAX_HEADER_BYTES}: the stream is left right after the EXIF segment,
+ * or where we gave up looking for it. Broken or missing EXIF data is not an error,
+ * it gives {@link ExifInfo#NONE}.
+ */
+public final class ExifReader {
+
+    /**
+     * The most we read looking for the EXIF segment. An APP1 segment is at most 64 KB,
+     * and it's always one of the first segments.
+     */
+    static final int MAX_HEADER_BYTES = 128 * 1024;
+
+    private static final int MARKER = 0xff;
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_APP0 = 0xe0;
+    private static final int MARKER_APP1 = 0xe1;
+    private static final int MARKER_APP15 = 0xef;
+
+    private static final byte[] EXIF_IDENTIFIER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int TIFF_MAGIC = 42;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    private static final int TAG_PIXEL_X_DIMENSION = 0xa002;
+    private static final int TAG_PIXEL_Y_DIMENSION = 0xa003;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private static final int IFD_ENTRY_BYTES = 12;
+
+    private ExifReader() {
+    }
+
+    /**
+     * Read the EXIF data at the start of the given stream.
+     *
+     * @param inputStream The stream of the file, at its start.
+     * @return The EXIF data, or {@link ExifInfo#NONE} if there is none.
+     * @throws IOException If the stream can't be read.
+     */
+    public static ExifInfo read(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+
+        try {
+            if (input.readUnsignedByte() != MARKER || input.readUnsignedByte() != MARKER_SOI) {
+                return ExifInfo.NONE;
+            }
+
+            int bytesRead = 2;
+            while (bytesRead < MAX_HEADER_BYTES) {
+                if (input.readUnsignedByte() != MARKER) {
+                    return ExifInfo.NONE;
+                }
+
+                int marker = input.readUnsignedByte();
+                while (marker == MARKER) {
+                    // Fill bytes
+                    marker = input.readUnsignedByte();
+                    bytesRead++;
+                }
+
+                // The application segments come first, past them there is no EXIF
+                if (marker < MARKER_APP0 || marker > MARKER_APP15) {
+                    return ExifInfo.NONE;
+                }
+
+                int length = input.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return ExifInfo.NONE;
+                }
+
+                if (marker == MARKER_APP1 && length >= EXIF_IDENTIFIER.length) {
+                    byte[] segment = new byte[length];
+                    input.readFully(segment);
+
+                    if (startsWith(segment, EXIF_IDENTIFIER)) {
+                        return parseTiff(segment, EXIF_IDENTIFIER.length);
+                    }
+                } else {
+                    skipFully(input, length);
+                }
+
+                bytesRead += 4 + length;
+            }
+        } catch (EOFException e) {
+            // A truncated header, there's nothing to read
+        }
+
+        return ExifInfo.NONE;
+    }
+
+    /**
+     * Parse the TIFF structure of the EXIF segment: IFD0 holds the orientation and points
+     * to the EXIF IFD, with the image size, and to IFD1, with the thumbnail.
+     */
+    private static ExifInfo parseTiff(byte[] segment, int start) {
+        TiffBuffer tiff = new TiffBuffer(segment, start);
+        if (!tiff.readByteOrder() || tiff.readUnsignedShort(2) != TIFF_MAGIC) {
+            return ExifInfo.NONE;
+        }
+
+        int orientation = Orientation.NORMAL;
+        int exifIfdOffset = -1;
+        int imageWidth = -1;
+        int imageHeight = -1;
+        int thumbnailOffset = -1;
+        int thumbnailLength = -1;
+
+        int ifd0Offset = tiff.readInt(4);
+        int ifd0Count = tiff.getEntryCount(ifd0Offset);
+        for (int i = 0; i < ifd0Count; i++) {
+            int entryOffset = ifd0Offset + 2 + i * IFD_ENTRY_BYTES;
+            int tag = tiff.readUnsignedShort(entryOffset);
+            if (tag == TAG_ORIENTATION) {
+                orientation = tiff.readEntryValue(entryOffset);
+            } else if (tag == TAG_EXIF_IFD_POINTER) {
+                exifIfdOffset = tiff.readEntryValue(entryOffset);
+            }
+        }
+
+        int exifIfdCount = tiff.getEntryCount(exifIfdOffset);
+        for (int i = 0; i < exifIfdCount; i++) {
+            int entryOffset = exifIfdOffset + 2 + i * IFD_ENTRY_BYTES;
+            int tag = tiff.readUnsignedShort(entryOffset);
+            if (tag == TAG_PIXEL_X_DIMENSION) {
+                imageWidth = tiff.readEntryValue(entryOffset);
+            } else if (tag == TAG_PIXEL_Y_DIMENSION) {
+                imageHeight = tiff.readEntryValue(entryOffset);
+            }
+        }
+
+        int ifd1Offset = ifd0Count > 0 ? tiff.readInt(ifd0Offset + 2 + ifd0Count * IFD_ENTRY_BYTES) : -1;
+        int ifd1Count = tiff.getEntryCount(ifd1Offset);
+        for (int i = 0; i < ifd1Count; i++) {
+            int entryOffset = ifd1Offset + 2 + i * IFD_ENTRY_BYTES;
+            int tag = tiff.readUnsignedShort(entryOffset);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                thumbnailOffset = tiff.readEntryValue(entryOffset);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                thumbnailLength = tiff.readEntryValue(entryOffset);
+            }
+        }
+
+        byte[] thumbnail = null;
+        if (thumbnailLength > 2 && tiff.has(thumbnailOffset, thumbnailLength)
+                && tiff.readUnsignedByte(thumbnailOffset) == MARKER
+                && tiff.readUnsignedByte(thumbnailOffset + 1) == MARKER_SOI) {
+            thumbnail = tiff.copy(thumbnailOffset, thumbnailLength);
+        }
+
+        return new ExifInfo(orientation, thumbnail, imageWidth, imageHeight);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void skipFully(DataInputStream input, int length) throws IOException {
+        while (length > 0) {
+            int skipped = input.skipBytes(length);
+            if (skipped <= 0) {
+                // skipBytes() gives up at the end of the stream, check if we're there
+                input.readUnsignedByte();
+                skipped = 1;
+            }
+
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Bounds-checked reads of the TIFF structure, in its byte order. Offsets are relative
+     * to the TIFF header, reads out of the segment give -1.
+     */
+    private static final class TiffBuffer {
+
+        private final byte[] mData;
+        private final int mStart;
+
+        private boolean mLittleEndian;
+
+        TiffBuffer(byte[] data, int start) {
+            mData = data;
+            mStart = start;
+        }
+
+        boolean readByteOrder() {
+            if (!has(0, 2)) {
+                return false;
+            }
+
+            if (mData[mStart] == 'I' && mData[mStart + 1] == 'I') {
+                mLittleEndian = true;
+            } else if (mData[mStart] == 'M' && mData[mStart + 1] == 'M') {
+                mLittleEndian = false;
+            } else {
+                return false;
+            }
+
+            return true;
+        }
+
+        boolean has(int offset, int length) {
+            return offset >= 0 && length >= 0 && offset <= mData.length - mStart - length;
+        }
+
+        int readUnsignedByte(int offset) {
+            return has(offset, 1) ? mData[mStart + offset] & 0xff : -1;
+        }
+
+        int readUnsignedShort(int offset) {
+            if (!has(offset, 2)) {
+                return -1;
+            }
+
+            int first = mData[mStart + offset] & 0xff;
+            int second = mData[mStart + offset + 1] & 0xff;
+
+            return mLittleEndian ? (second << 8) | first : (first << 8) | second;
+        }
+
+        /**
+         * Read a 32 bit value, or -1 if it doesn't fit in an int: offsets and sizes that
+         * big can't be valid here anyway.
+         */
+        int readInt(int offset) {
+            if (!has(offset, 4)) {
+                return -1;
+            }
+
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int shift = mLittleEndian ? i * 8 : (3 - i) * 8;
+                value |= (mData[mStart + offset + i] & 0xff) << shift;
+            }
+
+            return value;
+        }
+
+        /**
+         * @return The number of entries of the IFD at the given offset, only counting the
+         * ones inside the segment.
+         */
+        int getEntryCount(int ifdOffset) {
+            int count = readUnsignedShort(ifdOffset);
+            if (count <= 0) {
+                return 0;
+            }
+
+            return Math.min(count, (mData.length - mStart - ifdOffset - 2) / IFD_ENTRY_BYTES);
+        }
+
+        /**
+         * @return The value of a single SHORT or LONG entry, or -1 for other types.
+         */
+        int readEntryValue(int entryOffset) {
+            switch (readUnsignedShort(entryOffset + 2)) {
+                case TYPE_SHORT:
+                    return readUnsignedShort(entryOffset + 8);
+                case TYPE_LONG:
+                    return readInt(entryOffset + 8);
+                default:
+                    return -1;
+            }
+        }
+
+        byte[] copy(int offset, int length) {
+            return Arrays.copyOfRange(mData, mStart + offset, mStart + offset + length);
+        }
+    }
+}
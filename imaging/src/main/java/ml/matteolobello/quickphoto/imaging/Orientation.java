@@ -0,0 +1,54 @@
+package ml.matteolobello.quickphoto.imaging;
+
+/**
+ * The EXIF orientations: how the stored pixels must be transformed to be displayed
+ * upright. The values are the ones of the EXIF Orientation tag.
+ */
+public final class Orientation {
+
+    public static final int NORMAL = 1;
+    public static final int FLIP_HORIZONTAL = 2;
+    public static final int ROTATE_180 = 3;
+    public static final int FLIP_VERTICAL = 4;
+    public static final int TRANSPOSE = 5;
+    public static final int ROTATE_90 = 6;
+    public static final int TRANSVERSE = 7;
+    public static final int ROTATE_270 = 8;
+
+    private Orientation() {
+    }
+
+    /**
+     * @param orientation The orientation.
+     * @return true if it's one of the eight EXIF values.
+     */
+    public static boolean isValid(int orientation) {
+        return orientation >= NORMAL && orientation <= ROTATE_270;
+    }
+
+    /**
+     * @param orientation The orientation.
+     * @return true if the displayed width is the stored height.
+     */
+    public static boolean swapsDimensions(int orientation) {
+        return orientation >= TRANSPOSE && orientation <= ROTATE_270;
+    }
+
+    /**
+     * @param orientation The orientation.
+     * @return true if the stored x axis is read backwards.
+     */
+    static boolean flipsStoredX(int orientation) {
+        return orientation == FLIP_HORIZONTAL || orientation == ROTATE_180
+                || orientation == TRANSVERSE || orientation == ROTATE_270;
+    }
+
+    /**
+     * @param orientation The orientation.
+     * @return true if the stored y axis is read backwards.
+     */
+    static boolean flipsStoredY(int orientation) {
+        return orientation == ROTATE_180 || orientation == FLIP_VERTICAL
+                || orientation == ROTATE_90 || orientation == TRANSVERSE;
+    }
+}
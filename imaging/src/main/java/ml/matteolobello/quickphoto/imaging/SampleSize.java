@@ -0,0 +1,95 @@
+package ml.matteolobello.quickphoto.imaging;
+
+/**
+ * Pure Java math used to decode images at (roughly) the size we really need.
+ * It has no Android dependencies, so that it can be tested on the JVM.
+ */
+public class SampleSize {
+
+    /**
+     * Bytes used by a single ARGB_8888 pixel.
+     */
+    public static final int ARGB_8888_BYTES_PER_PIXEL = 4;
+
+    private SampleSize() {
+    }
+
+    /**
+     * Calculate the largest power-of-two sample size that keeps both dimensions
+     * of the decoded image bigger than or equal to the requested ones.
+     *
+     * @param sourceWidth  The width of the encoded image.
+     * @param sourceHeight The height of the encoded image.
+     * @param reqWidth     The width we need.
+     * @param reqHeight    The height we need.
+     * @return The sample size to use as BitmapFactory.Options.inSampleSize.
+     */
+    public static int calculate(int sourceWidth, int sourceHeight, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+
+        if (sourceWidth <= 0 || sourceHeight <= 0 || reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+
+        while (sourceWidth / (sampleSize * 2) >= reqWidth
+                && sourceHeight / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Get the size of a dimension once decoded with the given sample size.
+     * Decoders round up, so we do the same to never underestimate.
+     *
+     * @param sourceDimension The encoded dimension.
+     * @param sampleSize      The sample size.
+     * @return The decoded dimension.
+     */
+    public static int sampledDimension(int sourceDimension, int sampleSize) {
+        return (sourceDimension + sampleSize - 1) / sampleSize;
+    }
+
+    /**
+     * Get the scale factor to apply to a decoded image so that it fills the
+     * requested size, as a center crop would need.
+     *
+     * @param width     The decoded width.
+     * @param height    The decoded height.
+     * @param reqWidth  The width we need.
+     * @param reqHeight The height we need.
+     * @return The scale factor, never bigger than 1.
+     */
+    public static float fillScale(int width, int height, int reqWidth, int reqHeight) {
+        float scale = Math.max((float) reqWidth / width, (float) reqHeight / height);
+
+        return Math.min(scale, 1f);
+    }
+
+    /**
+     * Estimate the peak amount of bytes allocated to decode an image and to
+     * scale it to the requested size: both Bitmaps are alive at the same time.
+     *
+     * @param sourceWidth  The width of the encoded image.
+     * @param sourceHeight The height of the encoded image.
+     * @param reqWidth     The width we need.
+     * @param reqHeight    The height we need.
+     * @return The peak amount of bytes.
+     */
+    public static long peakDecodedBytes(int sourceWidth, int sourceHeight, int reqWidth, int reqHeight) {
+        int sampleSize = calculate(sourceWidth, sourceHeight, reqWidth, reqHeight);
+        int sampledWidth = sampledDimension(sourceWidth, sampleSize);
+        int sampledHeight = sampledDimension(sourceHeight, sampleSize);
+
+        long peakBytes = (long) sampledWidth * sampledHeight * ARGB_8888_BYTES_PER_PIXEL;
+
+        float scale = fillScale(sampledWidth, sampledHeight, reqWidth, reqHeight);
+        if (scale < 1f) {
+            peakBytes += (long) Math.round(sampledWidth * scale) * Math.round(sampledHeight * scale)
+                    * ARGB_8888_BYTES_PER_PIXEL;
+        }
+
+        return peakBytes;
+    }
+}
@@ -0,0 +1,105 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an image into square tiles to be decoded on their own, so that a zoomed-in
+ * viewer only decodes the part of the image on screen, at the resolution it's shown at.
+ * <p>
+ * Every sample size has its own grid: a tile always decodes to at most
+ * tileSize x tileSize pixels, so it covers tileSize * sampleSize source pixels.
+ */
+public final class TileGrid {
+
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final int mTileSize;
+
+    /**
+     * @param imageWidth  The width of the encoded image.
+     * @param imageHeight The height of the encoded image.
+     * @param tileSize    The size of the decoded tiles.
+     */
+    public TileGrid(int imageWidth, int imageHeight, int tileSize) {
+        if (imageWidth <= 0 || imageHeight <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid grid " + imageWidth + "x" + imageHeight + " / " + tileSize);
+        }
+
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mTileSize = tileSize;
+    }
+
+    /**
+     * Get the largest power-of-two sample size that still shows at least one decoded
+     * pixel per screen pixel.
+     *
+     * @param scale The screen pixels per source pixel.
+     * @return The sample size.
+     */
+    public static int sampleSizeForScale(float scale) {
+        int sampleSize = 1;
+
+        while (scale > 0 && scale * sampleSize * 2 <= 1f) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Get the tiles intersecting the given rectangle of source pixels, row by row.
+     *
+     * @param sampleSize The sample size the tiles are decoded with.
+     * @param left       The left edge of the rectangle.
+     * @param top        The top edge of the rectangle.
+     * @param right      The right edge of the rectangle, exclusive.
+     * @param bottom     The bottom edge of the rectangle, exclusive.
+     * @return The tiles, clamped to the image, empty if the rectangle is outside of it.
+     */
+    public List<CropRect> getVisibleTiles(int sampleSize, int left, int top, int right, int bottom) {
+        final int tileSourceSize = mTileSize * sampleSize;
+
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(mImageWidth, right);
+        bottom = Math.min(mImageHeight, bottom);
+
+        if (left >= right || top >= bottom) {
+            return new ArrayList<>(0);
+        }
+
+        final int firstColumn = left / tileSourceSize;
+        final int lastColumn = (right - 1) / tileSourceSize;
+        final int firstRow = top / tileSourceSize;
+        final int lastRow = (bottom - 1) / tileSourceSize;
+
+        List<CropRect> tiles = new ArrayList<>((lastColumn - firstColumn + 1) * (lastRow - firstRow + 1));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int tileLeft = column * tileSourceSize;
+                int tileTop = row * tileSourceSize;
+
+                tiles.add(new CropRect(tileLeft, tileTop,
+                        Math.min(tileSourceSize, mImageWidth - tileLeft),
+                        Math.min(tileSourceSize, mImageHeight - tileTop)));
+            }
+        }
+
+        return tiles;
+    }
+
+    /**
+     * Get a key identifying a tile of any grid, for caches.
+     *
+     * @param tile       The tile.
+     * @param sampleSize The sample size the tile is decoded with.
+     * @return The key.
+     */
+    public static long getKey(CropRect tile, int sampleSize) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 58)
+                | ((long) tile.getLeft() << 29)
+                | tile.getTop();
+    }
+}
@@ -0,0 +1,77 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class AreaDownscalerTest {
+
+    @Test
+    public void scale_keepsUniformColors() throws Exception {
+        int[] src = new int[1000 * 700];
+        Arrays.fill(src, 0xff336699);
+        int[] dst = new int[37 * 29];
+
+        new AreaDownscaler(1000, 700, 37, 29).scale(src, dst);
+
+        for (int color : dst) {
+            assertEquals(0xff336699, color);
+        }
+    }
+
+    @Test
+    public void scale_averagesWholeBlocks() throws Exception {
+        int[] src = {
+                0xff000000, 0xff0000ff,
+                0xff0000ff, 0xff000000
+        };
+        int[] dst = new int[1];
+
+        new AreaDownscaler(2, 2, 1, 1).scale(src, dst);
+
+        assertEquals(0xff000080, dst[0]);
+    }
+
+    @Test
+    public void scale_splitsPixelsAcrossOutputPixels() throws Exception {
+        // 3 -> 2: the middle pixel is split in half between both outputs
+        int[] src = {0xff000000, 0xff000090, 0xff0000f0};
+        int[] dst = new int[2];
+
+        new AreaDownscaler(3, 1, 2, 1).scale(src, dst);
+
+        assertEquals(0xff000030, dst[0]);
+        assertEquals(0xff0000d0, dst[1]);
+    }
+
+    @Test
+    public void accumulate_inBandsMatchesWholeImage() throws Exception {
+        int width = 97;
+        int height = 61;
+        int[] src = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = 0xff000000 | (int) (i * 2654435761L) & 0xffffff;
+        }
+
+        AreaDownscaler downscaler = new AreaDownscaler(width, height, 13, 8);
+        int[] expected = new int[13 * 8];
+        downscaler.scale(src, expected);
+
+        float[] accumulator = downscaler.newAccumulator();
+        for (int top = 0; top < height; top += 10) {
+            int rows = Math.min(10, height - top);
+            downscaler.accumulate(Arrays.copyOfRange(src, top * width, (top + rows) * width), top, rows, accumulator);
+        }
+        int[] actual = new int[13 * 8];
+        downscaler.resolve(accumulator, actual);
+
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUpscaling() throws Exception {
+        new AreaDownscaler(10, 10, 20, 5);
+    }
+}
@@ -0,0 +1,123 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BandedDownscalerTest {
+
+    @Test
+    public void scale_matchesWholeImage() throws Exception {
+        final int width = 397;
+        final int height = 211;
+        final int[] src = noise(width, height);
+
+        int[] expected = new int[31 * 17];
+        new AreaDownscaler(width, height, 31, 17).scale(src, expected);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int bandHeight : new int[]{1, 7, 64, 1000}) {
+                for (int parallelism : new int[]{1, 4}) {
+                    BandedDownscaler downscaler = new BandedDownscaler(width, height, 31, 17, bandHeight);
+
+                    int[] actual = new int[31 * 17];
+                    assertTrue(downscaler.scale(copyingSource(src, width), executor, parallelism, actual));
+
+                    // Only the summation order differs
+                    for (int i = 0; i < expected.length; i++) {
+                        for (int shift = 0; shift < 32; shift += 8) {
+                            assertTrue(Math.abs(((expected[i] >>> shift) & 0xff) - ((actual[i] >>> shift) & 0xff)) <= 1);
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void scale_readsEveryRowOnceInBoundedBands() throws Exception {
+        final int width = 300;
+        final int height = 1000;
+        final int[] src = noise(width, height);
+        final int[] reads = new int[height];
+        final AtomicInteger maxRows = new AtomicInteger();
+
+        BandedDownscaler downscaler = new BandedDownscaler(width, height, 30, 100,
+                BandedDownscaler.bandHeightFor(width, 64 * width, 8));
+        assertEquals(64, downscaler.getBandHeight());
+        assertEquals(16, downscaler.getBandCount());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertTrue(downscaler.scale(new BandedDownscaler.BandSource() {
+                @Override
+                public boolean readBand(int firstRow, int rowCount, int[] pixels) {
+                    synchronized (reads) {
+                        for (int row = firstRow; row < firstRow + rowCount; row++) {
+                            reads[row]++;
+                        }
+                        maxRows.set(Math.max(maxRows.get(), rowCount));
+                    }
+                    System.arraycopy(src, firstRow * width, pixels, 0, rowCount * width);
+
+                    return true;
+                }
+            }, executor, 4, new int[30 * 100]));
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int read : reads) {
+            assertEquals(1, read);
+        }
+        assertEquals(64, maxRows.get());
+    }
+
+    @Test
+    public void scale_stopsOnUnreadableBands() throws Exception {
+        BandedDownscaler downscaler = new BandedDownscaler(100, 100, 10, 10, 10);
+
+        assertFalse(downscaler.scale(new BandedDownscaler.BandSource() {
+            @Override
+            public boolean readBand(int firstRow, int rowCount, int[] pixels) {
+                return firstRow < 50;
+            }
+        }, null, 1, new int[10 * 10]));
+    }
+
+    @Test
+    public void bandHeightFor_alignsToTheSampleSize() throws Exception {
+        assertEquals(96, BandedDownscaler.bandHeightFor(10000, 1000000, 32));
+        // Never less than one sampled row
+        assertEquals(16, BandedDownscaler.bandHeightFor(100000, 1000, 16));
+    }
+
+    private static BandedDownscaler.BandSource copyingSource(final int[] src, final int width) {
+        return new BandedDownscaler.BandSource() {
+            @Override
+            public boolean readBand(int firstRow, int rowCount, int[] pixels) {
+                System.arraycopy(src, firstRow * width, pixels, 0, rowCount * width);
+
+                return true;
+            }
+        };
+    }
+
+    private static int[] noise(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (int) (i * 2654435761L);
+        }
+
+        return pixels;
+    }
+}
@@ -0,0 +1,209 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CircleIconKernelTest {
+
+    private static final int ICON_SIZE = 128;
+
+    /**
+     * Maximum difference allowed for every channel against the two-pass reference.
+     */
+    private static final int COLOR_TOLERANCE = 4;
+    private static final int ALPHA_TOLERANCE = 16;
+
+    @Test
+    public void render_matchesTwoPassPipeline() throws Exception {
+        int[][] sources = {
+                {300, 200}, {200, 300}, {128, 128}, {1000, 130}
+        };
+
+        for (int[] source : sources) {
+            int width = source[0];
+            int height = source[1];
+            int[] pixels = gradient(width, height);
+
+            int[] expected = referenceRender(pixels, width, height, ICON_SIZE);
+            int[] actual = new int[ICON_SIZE * ICON_SIZE];
+            new CircleIconKernel().render(pixels, width, height, actual, ICON_SIZE);
+
+            for (int i = 0; i < expected.length; i++) {
+                assertChannel(expected[i], actual[i], 24, ALPHA_TOLERANCE);
+                if ((expected[i] >>> 24) == 0xff) {
+                    assertChannel(expected[i], actual[i], 16, COLOR_TOLERANCE);
+                    assertChannel(expected[i], actual[i], 8, COLOR_TOLERANCE);
+                    assertChannel(expected[i], actual[i], 0, COLOR_TOLERANCE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void render_clearsPixelsOutsideTheCircle() throws Exception {
+        int[] pixels = gradient(256, 256);
+        int[] icon = new int[ICON_SIZE * ICON_SIZE];
+        java.util.Arrays.fill(icon, 0xffffffff);
+
+        new CircleIconKernel().render(pixels, 256, 256, icon, ICON_SIZE);
+
+        assertEquals(0, icon[0]);
+        assertEquals(0, icon[ICON_SIZE - 1]);
+        assertEquals(0, icon[icon.length - 1]);
+        assertEquals(0xff, icon[ICON_SIZE / 2 * ICON_SIZE + ICON_SIZE / 2] >>> 24);
+    }
+
+    @Test
+    public void render_reusesTheCallerBuffer() throws Exception {
+        CircleIconKernel kernel = new CircleIconKernel();
+        int[] icon = new int[ICON_SIZE * ICON_SIZE];
+
+        kernel.render(gradient(400, 300), 400, 300, icon, ICON_SIZE);
+        int[] first = icon.clone();
+        kernel.render(gradient(400, 300), 400, 300, icon, ICON_SIZE);
+
+        assertTrue(java.util.Arrays.equals(first, icon));
+        assertTrue(CircleMask.forSize(ICON_SIZE) == CircleMask.forSize(ICON_SIZE));
+    }
+
+    @Test
+    public void render_appliesTheOrientation() throws Exception {
+        int width = 300;
+        int height = 200;
+        int[] pixels = gradient(width, height);
+        CircleIconKernel kernel = new CircleIconKernel();
+
+        for (int orientation = Orientation.NORMAL; orientation <= Orientation.ROTATE_270; orientation++) {
+            boolean swapsDimensions = Orientation.swapsDimensions(orientation);
+            int[] upright = orient(pixels, width, height, orientation);
+
+            int[] expected = new int[ICON_SIZE * ICON_SIZE];
+            kernel.render(upright, swapsDimensions ? height : width, swapsDimensions ? width : height,
+                    expected, ICON_SIZE);
+            int[] actual = new int[ICON_SIZE * ICON_SIZE];
+            kernel.render(pixels, width, height, orientation, actual, ICON_SIZE);
+
+            for (int i = 0; i < expected.length; i++) {
+                assertChannel(expected[i], actual[i], 24, 1);
+                assertChannel(expected[i], actual[i], 16, 1);
+                assertChannel(expected[i], actual[i], 8, 1);
+                assertChannel(expected[i], actual[i], 0, 1);
+            }
+        }
+    }
+
+    @Test
+    public void render_positionIsAlongTheStoredEdge() throws Exception {
+        int width = 300;
+        int height = 200;
+        int[] pixels = gradient(width, height);
+        CircleIconKernel kernel = new CircleIconKernel();
+
+        // The stored left square, whatever the orientation makes of it
+        int[] leftSquare = new int[height * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, y * width, leftSquare, y * height, height);
+        }
+
+        for (int orientation = Orientation.NORMAL; orientation <= Orientation.ROTATE_270; orientation++) {
+            int[] expected = new int[ICON_SIZE * ICON_SIZE];
+            kernel.render(leftSquare, height, height, orientation, expected, ICON_SIZE);
+            int[] actual = new int[ICON_SIZE * ICON_SIZE];
+            kernel.render(pixels, width, height, orientation, 0f, actual, ICON_SIZE);
+
+            for (int i = 0; i < expected.length; i++) {
+                assertChannel(expected[i], actual[i], 16, 1);
+                assertChannel(expected[i], actual[i], 8, 1);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void render_rejectsUnknownOrientations() throws Exception {
+        new CircleIconKernel().render(gradient(10, 10), 10, 10, 9, new int[ICON_SIZE * ICON_SIZE], ICON_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void render_rejectsSmallBuffers() throws Exception {
+        new CircleIconKernel().render(gradient(10, 10), 10, 10, new int[10], ICON_SIZE);
+    }
+
+    private static void assertChannel(int expected, int actual, int shift, int tolerance) {
+        int difference = Math.abs(((expected >>> shift) & 0xff) - ((actual >>> shift) & 0xff));
+        assertTrue("Channel " + shift + " differs by " + difference, difference <= tolerance);
+    }
+
+    private static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = x * 255 / Math.max(1, width - 1);
+                int green = y * 255 / Math.max(1, height - 1);
+                pixels[y * width + x] = 0xff000000 | (red << 16) | (green << 8) | 0x80;
+            }
+        }
+
+        return pixels;
+    }
+
+    /**
+     * Transform stored pixels to their upright version, as a viewer would display them.
+     */
+    private static int[] orient(int[] pixels, int width, int height, int orientation) {
+        boolean swapsDimensions = Orientation.swapsDimensions(orientation);
+        int uprightWidth = swapsDimensions ? height : width;
+        int uprightHeight = swapsDimensions ? width : height;
+
+        int[] upright = new int[pixels.length];
+        for (int v = 0; v < uprightHeight; v++) {
+            for (int u = 0; u < uprightWidth; u++) {
+                int x = swapsDimensions ? v : u;
+                int y = swapsDimensions ? u : v;
+                if (Orientation.flipsStoredX(orientation)) {
+                    x = width - 1 - x;
+                }
+                if (Orientation.flipsStoredY(orientation)) {
+                    y = height - 1 - y;
+                }
+
+                upright[v * uprightWidth + u] = pixels[y * width + x];
+            }
+        }
+
+        return upright;
+    }
+
+    /**
+     * The previous pipeline: a center-crop scale into an intermediate Bitmap,
+     * then a second pass drawing it through an anti-aliased circle.
+     */
+    private static int[] referenceRender(int[] pixels, int width, int height, int size) {
+        float scale = Math.max((float) size / width, (float) size / height);
+        float left = (size - scale * width) / 2;
+        float top = (size - scale * height) / 2;
+
+        int[] scaled = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int sourceX = Math.min(width - 1, (int) ((x + 0.5f - left) / scale));
+                int sourceY = Math.min(height - 1, (int) ((y + 0.5f - top) / scale));
+                scaled[y * size + x] = pixels[sourceY * width + sourceX];
+            }
+        }
+
+        float radius = size / 2;
+        int[] rounded = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float distance = (float) Math.hypot(x + 0.5f - radius, y + 0.5f - radius);
+                float coverage = Math.max(0f, Math.min(1f, radius - distance + 0.5f));
+                int alpha = Math.round(coverage * 255);
+                rounded[y * size + x] = (alpha << 24) | (scaled[y * size + x] & 0x00ffffff);
+            }
+        }
+
+        return rounded;
+    }
+}
@@ -0,0 +1,101 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ContentFingerprintTest {
+
+    @Test
+    public void compute_matchesForTheSameContent() throws Exception {
+        byte[] content = randomBytes(200 * 1024, 1);
+
+        assertEquals(fingerprint(content), fingerprint(content.clone()));
+        assertEquals(ContentFingerprint.compute(ByteBuffer.wrap(content, 0, ContentFingerprint.HEADER_BYTES),
+                content.length), fingerprint(content));
+    }
+
+    @Test
+    public void compute_dependsOnTheHeaderAndTheSize() throws Exception {
+        byte[] content = randomBytes(200 * 1024, 2);
+        long expected = fingerprint(content);
+
+        byte[] changedHeader = content.clone();
+        changedHeader[1000] ^= 1;
+        assertNotEquals(expected, fingerprint(changedHeader));
+
+        byte[] longer = new byte[content.length + 1];
+        System.arraycopy(content, 0, longer, 0, content.length);
+        assertNotEquals(expected, fingerprint(longer));
+
+        // Past the header only the size counts
+        byte[] changedData = content.clone();
+        changedData[ContentFingerprint.HEADER_BYTES + 10] ^= 1;
+        assertEquals(expected, fingerprint(changedData));
+    }
+
+    @Test
+    public void compute_smallFiles() throws Exception {
+        assertNotEquals(ContentFingerprint.UNKNOWN, fingerprint(new byte[0]));
+        assertNotEquals(fingerprint(new byte[]{1, 2, 3}), fingerprint(new byte[]{1, 2, 4}));
+        assertNotEquals(fingerprint(new byte[]{0}), fingerprint(new byte[]{0, 0}));
+    }
+
+    @Test
+    public void toHexString_isPadded() throws Exception {
+        assertEquals("00000000000000ff", ContentFingerprint.toHexString(0xff));
+        assertEquals("ffffffffffffffff", ContentFingerprint.toHexString(-1));
+    }
+
+    @Test
+    public void fromHexString_roundTrips() throws Exception {
+        for (long fingerprint : new long[]{1, 0xff, -1, Long.MIN_VALUE, 0x87c37b91114253d5L}) {
+            assertEquals(fingerprint, ContentFingerprint.fromHexString(ContentFingerprint.toHexString(fingerprint)));
+        }
+
+        assertEquals(ContentFingerprint.UNKNOWN, ContentFingerprint.fromHexString("ff"));
+        assertEquals(ContentFingerprint.UNKNOWN, ContentFingerprint.fromHexString("content-00000001"));
+    }
+
+    private static long fingerprint(byte[] content) throws IOException {
+        File file = File.createTempFile("fingerprint", ".bin");
+        try {
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                outputStream.write(content);
+            } finally {
+                outputStream.close();
+            }
+
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                FileChannel channel = inputStream.getChannel();
+                long fingerprint = ContentFingerprint.compute(channel);
+                assertEquals(0, channel.position());
+
+                return fingerprint;
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+
+        return bytes;
+    }
+}
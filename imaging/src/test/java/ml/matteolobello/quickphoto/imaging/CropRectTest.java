@@ -0,0 +1,121 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CropRectTest {
+
+    private static final int ICON_SIZE = 128;
+
+    @Test
+    public void centerSquare_landscapeAndPortrait() throws Exception {
+        assertCrop(CropRect.centerSquare(4000, 3000), 500, 0, 3000);
+        assertCrop(CropRect.centerSquare(3000, 4000), 0, 500, 3000);
+    }
+
+    @Test
+    public void centerSquare_extremeAspectRatios() throws Exception {
+        // A 20:1 panorama keeps only 5% of its pixels
+        assertCrop(CropRect.centerSquare(20000, 1000), 9500, 0, 1000);
+        assertCrop(CropRect.centerSquare(1000, 20000), 0, 9500, 1000);
+
+        // Single pixel lines
+        assertCrop(CropRect.centerSquare(10000, 1), 4999, 0, 1);
+        assertCrop(CropRect.centerSquare(1, 10000), 0, 4999, 1);
+        assertCrop(CropRect.centerSquare(1, 1), 0, 0, 1);
+    }
+
+    @Test
+    public void centerSquare_staysInsideTheImage() throws Exception {
+        for (int width = 1; width <= 64; width++) {
+            for (int height = 1; height <= 64; height++) {
+                CropRect crop = CropRect.centerSquare(width, height);
+
+                assertEquals(Math.min(width, height), crop.getWidth());
+                assertTrue(crop.getRight() <= width && crop.getBottom() <= height);
+
+                // Never more than one pixel off center
+                assertTrue(Math.abs(crop.getLeft() - (width - crop.getRight())) <= 1);
+                assertTrue(Math.abs(crop.getTop() - (height - crop.getBottom())) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void centerSquare_ofASquareCoversTheImage() throws Exception {
+        assertTrue(CropRect.centerSquare(512, 512).coversImage(512, 512));
+        assertFalse(CropRect.centerSquare(513, 512).coversImage(513, 512));
+    }
+
+    @Test
+    public void square_atPositionAlongTheLongEdge() throws Exception {
+        assertCrop(CropRect.square(4000, 3000, 0f), 0, 0, 3000);
+        assertCrop(CropRect.square(4000, 3000, 1f), 1000, 0, 3000);
+        assertCrop(CropRect.square(3000, 4000, 0.25f), 0, 250, 3000);
+
+        // Out of range positions stay inside the image
+        assertCrop(CropRect.square(3000, 4000, 2f), 0, 1000, 3000);
+        assertCrop(CropRect.square(3000, 4000, -1f), 0, 0, 3000);
+    }
+
+    @Test
+    public void sampledRegion_stillFillsTheIcon() throws Exception {
+        int[][] sources = {{4000, 3000}, {20000, 1000}, {1000, 20000}, {12000, 200}, {130, 100000}};
+
+        for (int[] source : sources) {
+            CropRect crop = CropRect.centerSquare(source[0], source[1]);
+            int sampleSize = SampleSize.calculate(crop.getWidth(), crop.getHeight(), ICON_SIZE, ICON_SIZE);
+            int sampledSize = SampleSize.sampledDimension(crop.getWidth(), sampleSize);
+
+            assertTrue(sampledSize >= Math.min(ICON_SIZE, crop.getWidth()));
+            assertTrue(sampledSize < ICON_SIZE * 2);
+        }
+    }
+
+    @Test
+    public void alignTo_makesSidesMultiplesOfTheSampleSize() throws Exception {
+        CropRect crop = new CropRect(10, 20, 4001, 3003).alignTo(4);
+
+        assertEquals(10, crop.getLeft());
+        assertEquals(20, crop.getTop());
+        assertEquals(4000, crop.getWidth());
+        assertEquals(3000, crop.getHeight());
+
+        // Already aligned, or too short to be
+        CropRect aligned = new CropRect(0, 0, 4000, 3000);
+        assertTrue(aligned.alignTo(8) == aligned);
+        assertEquals(3, new CropRect(0, 0, 3, 4000).alignTo(4).getWidth());
+    }
+
+    @Test
+    public void alignTo_decodesToTheSameSizeWhateverTheRounding() throws Exception {
+        for (int width = 1000; width < 1100; width++) {
+            CropRect crop = new CropRect(0, 0, width, width * 7);
+            int sampleSize = SampleSize.calculate(crop.getWidth(), crop.getHeight(), ICON_SIZE, ICON_SIZE);
+            CropRect aligned = crop.alignTo(sampleSize);
+
+            // Region decoders round down, other decoders up
+            assertEquals(aligned.getWidth() / sampleSize, SampleSize.sampledDimension(aligned.getWidth(), sampleSize));
+            assertEquals(aligned.getHeight() / sampleSize, SampleSize.sampledDimension(aligned.getHeight(), sampleSize));
+
+            // And still big enough for the icon
+            assertTrue(aligned.getWidth() / sampleSize >= ICON_SIZE);
+            assertTrue(crop.getWidth() - aligned.getWidth() < sampleSize);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void centerSquare_rejectsEmptyImages() throws Exception {
+        CropRect.centerSquare(0, 100);
+    }
+
+    private static void assertCrop(CropRect crop, int left, int top, int size) {
+        assertEquals(left, crop.getLeft());
+        assertEquals(top, crop.getTop());
+        assertEquals(size, crop.getWidth());
+        assertEquals(size, crop.getHeight());
+    }
+}
@@ -0,0 +1,104 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeBudgetTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void acquire_admitsWhatFits() throws Exception {
+        DecodeBudget budget = new DecodeBudget(64 * MB);
+
+        // A 12 MP photo sampled by 2 is 3 MP, 12 MB
+        DecodeBudget.Ticket ticket = budget.acquire(4000, 3000, 2, 0);
+        assertEquals(2, ticket.getSampleSize());
+        assertFalse(ticket.isRgb565());
+        assertFalse(ticket.isDowngraded());
+        assertEquals(2000 * 1500 * 4, ticket.getBytes());
+        assertEquals(ticket.getBytes(), budget.getReservedBytes());
+
+        budget.release(ticket);
+        budget.release(ticket);
+        assertEquals(0, budget.getReservedBytes());
+        assertEquals(0, budget.getDowngrades());
+    }
+
+    @Test
+    public void acquire_degradesWhatCouldNeverFit() throws Exception {
+        DecodeBudget budget = new DecodeBudget(16 * MB);
+
+        // A 100 MP photo at full size is 400 MB
+        DecodeBudget.Ticket ticket = budget.acquire(10000, 10000, 1, TimeUnit.SECONDS.toNanos(10));
+        assertTrue(ticket.isRgb565());
+        assertTrue(ticket.isDowngraded());
+        assertEquals(4, ticket.getSampleSize());
+        assertTrue(ticket.getBytes() <= 16 * MB);
+        assertEquals(1, budget.getDowngrades());
+        assertEquals(0, budget.getWaits());
+    }
+
+    @Test
+    public void acquire_degradesAfterWaiting() throws Exception {
+        DecodeBudget budget = new DecodeBudget(20 * MB);
+        DecodeBudget.Ticket first = budget.acquire(2000, 2000, 1, 0);
+
+        // 16 MB in flight, only 4 MB left: RGB_565 and a sample size of 2
+        DecodeBudget.Ticket second = budget.acquire(2000, 2000, 1, TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(second.isDowngraded());
+        assertTrue(second.isRgb565());
+        assertEquals(2, second.getSampleSize());
+        assertTrue(second.getWaitNs() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(budget.getReservedBytes() <= 20 * MB);
+        assertEquals(1, budget.getWaits());
+
+        budget.release(first);
+        budget.release(second);
+    }
+
+    @Test
+    public void acquire_waitsForARelease() throws Exception {
+        final DecodeBudget budget = new DecodeBudget(20 * MB);
+        final DecodeBudget.Ticket first = budget.acquire(2000, 2000, 1, 0);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<DecodeBudget.Ticket> second = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    second.set(budget.acquire(2000, 2000, 1, TimeUnit.SECONDS.toNanos(10)));
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        thread.start();
+        started.await();
+
+        Thread.sleep(50);
+        budget.release(first);
+        thread.join(5000);
+
+        assertFalse(second.get().isDowngraded());
+        assertEquals(2000 * 2000 * 4, second.get().getBytes());
+        assertEquals(1, budget.getWaits());
+    }
+
+    @Test
+    public void degradeToFit_stopsAtOnePixel() throws Exception {
+        DecodeBudget.Ticket ticket = DecodeBudget.degradeToFit(new DecodeBudget.Ticket(100, 1, 1, 4), 0);
+
+        assertEquals(1, ticket.getDecodedWidth());
+        assertEquals(1, ticket.getDecodedHeight());
+        assertTrue(ticket.isRgb565());
+    }
+}
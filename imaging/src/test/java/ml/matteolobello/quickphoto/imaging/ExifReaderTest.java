@@ -0,0 +1,207 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExifReaderTest {
+
+    private static final byte[] THUMBNAIL = {(byte) 0xff, (byte) 0xd8, 1, 2, 3, 4, 5, (byte) 0xff, (byte) 0xd9};
+
+    @Test
+    public void read_littleEndian() throws Exception {
+        ExifInfo exifInfo = ExifReader.read(new ByteArrayInputStream(
+                jpeg(exifSegment(ByteOrder.LITTLE_ENDIAN, Orientation.ROTATE_90, 4000, 3000, THUMBNAIL), 1024)));
+
+        assertEquals(Orientation.ROTATE_90, exifInfo.getOrientation());
+        assertEquals(4000, exifInfo.getImageWidth());
+        assertEquals(3000, exifInfo.getImageHeight());
+        assertTrue(Arrays.equals(THUMBNAIL, exifInfo.getThumbnail()));
+    }
+
+    @Test
+    public void read_bigEndian() throws Exception {
+        ExifInfo exifInfo = ExifReader.read(new ByteArrayInputStream(
+                jpeg(exifSegment(ByteOrder.BIG_ENDIAN, Orientation.ROTATE_270, 640, 480, THUMBNAIL), 1024)));
+
+        assertEquals(Orientation.ROTATE_270, exifInfo.getOrientation());
+        assertEquals(640, exifInfo.getImageWidth());
+        assertTrue(Arrays.equals(THUMBNAIL, exifInfo.getThumbnail()));
+    }
+
+    @Test
+    public void read_onlyConsumesTheHeader() throws Exception {
+        byte[] segment = exifSegment(ByteOrder.LITTLE_ENDIAN, Orientation.NORMAL, 4000, 3000, THUMBNAIL);
+        byte[] file = jpeg(segment, 4 * 1024 * 1024);
+        CountingInputStream inputStream = new CountingInputStream(new ByteArrayInputStream(file));
+
+        ExifReader.read(inputStream);
+
+        // SOI, the APP0 segment and the APP1 segment
+        assertEquals(2 + (4 + 14) + (4 + segment.length), inputStream.mCount);
+    }
+
+    @Test
+    public void read_withoutExif() throws Exception {
+        assertSame(ExifInfo.NONE, ExifReader.read(new ByteArrayInputStream(jpeg(null, 1024))));
+        assertSame(ExifInfo.NONE, ExifReader.read(new ByteArrayInputStream(
+                new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'})));
+    }
+
+    @Test
+    public void read_toleratesBrokenFiles() throws Exception {
+        byte[] file = jpeg(exifSegment(ByteOrder.LITTLE_ENDIAN, Orientation.ROTATE_180, 4000, 3000, THUMBNAIL), 0);
+
+        // Truncated in the middle of the EXIF segment
+        assertSame(ExifInfo.NONE, ExifReader.read(new ByteArrayInputStream(Arrays.copyOf(file, 40))));
+
+        // The thumbnail offset points out of the segment
+        byte[] segment = exifSegment(ByteOrder.LITTLE_ENDIAN, Orientation.ROTATE_180, 4000, 3000, THUMBNAIL);
+        ExifInfo exifInfo = ExifReader.read(new ByteArrayInputStream(jpeg(corruptThumbnailOffset(segment), 0)));
+        assertEquals(Orientation.ROTATE_180, exifInfo.getOrientation());
+        assertNull(exifInfo.getThumbnail());
+    }
+
+    @Test
+    public void isThumbnailUsable() throws Exception {
+        ExifInfo exifInfo = new ExifInfo(Orientation.NORMAL, THUMBNAIL, 4000, 3000);
+        assertTrue(exifInfo.isThumbnailUsable(160, 120, 128));
+        assertFalse(exifInfo.isThumbnailUsable(80, 60, 128));
+
+        // 16:9 photo with a letterboxed 4:3 thumbnail
+        assertFalse(new ExifInfo(Orientation.NORMAL, THUMBNAIL, 1920, 1080).isThumbnailUsable(160, 120, 128));
+
+        // Unknown image size
+        assertTrue(new ExifInfo(Orientation.NORMAL, THUMBNAIL, -1, -1).isThumbnailUsable(160, 120, 128));
+        assertFalse(ExifInfo.NONE.isThumbnailUsable(160, 120, 128));
+    }
+
+    /**
+     * Build a JPEG header: SOI, a JFIF APP0 segment, the given APP1 segment, then a
+     * quantization table segment followed by filler standing for the image data.
+     */
+    static byte[] jpeg(byte[] exifSegment, int dataLength) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(new byte[]{(byte) 0xff, (byte) 0xd8});
+
+        output.write(new byte[]{(byte) 0xff, (byte) 0xe0, 0, 16});
+        output.write(new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+
+        if (exifSegment != null) {
+            output.write(new byte[]{(byte) 0xff, (byte) 0xe1,
+                    (byte) ((exifSegment.length + 2) >> 8), (byte) (exifSegment.length + 2)});
+            output.write(exifSegment);
+        }
+
+        output.write(new byte[]{(byte) 0xff, (byte) 0xdb, 0, 2});
+        output.write(new byte[dataLength]);
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Build the content of an APP1 segment: IFD0 with the orientation, the EXIF IFD with
+     * the image size and IFD1 with the thumbnail, stored right after.
+     */
+    static byte[] exifSegment(ByteOrder byteOrder, int orientation, int width, int height, byte[] thumbnail) {
+        final int ifd0 = 8;
+        final int exifIfd = ifd0 + 2 + 2 * 12 + 4;
+        final int ifd1 = exifIfd + 2 + 2 * 12 + 4;
+        final int thumbnailOffset = ifd1 + 2 + 2 * 12 + 4;
+
+        ByteBuffer tiff = ByteBuffer.allocate(thumbnailOffset + thumbnail.length).order(byteOrder);
+        tiff.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? new byte[]{'I', 'I'} : new byte[]{'M', 'M'});
+        tiff.putShort((short) 42).putInt(ifd0);
+
+        tiff.putShort((short) 2);
+        putEntry(tiff, 0x0112, 3, orientation);
+        putEntry(tiff, 0x8769, 4, exifIfd);
+        tiff.putInt(ifd1);
+
+        tiff.putShort((short) 2);
+        putEntry(tiff, 0xa002, 4, width);
+        putEntry(tiff, 0xa003, 3, height);
+        tiff.putInt(0);
+
+        tiff.putShort((short) 2);
+        putEntry(tiff, 0x0201, 4, thumbnailOffset);
+        putEntry(tiff, 0x0202, 4, thumbnail.length);
+        tiff.putInt(0);
+
+        tiff.put(thumbnail);
+
+        ByteBuffer segment = ByteBuffer.allocate(6 + tiff.capacity());
+        segment.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff.array());
+
+        return segment.array();
+    }
+
+    private static void putEntry(ByteBuffer tiff, int tag, int type, int value) {
+        tiff.putShort((short) tag).putShort((short) type).putInt(1);
+        if (type == 3) {
+            tiff.putShort((short) value).putShort((short) 0);
+        } else {
+            tiff.putInt(value);
+        }
+    }
+
+    /**
+     * Make the IFD1 thumbnail offset of a little endian segment point past its end.
+     */
+    private static byte[] corruptThumbnailOffset(byte[] segment) {
+        int thumbnailOffsetValue = 6 + 8 + 2 * (2 + 2 * 12 + 4) + 2 + 8;
+        ByteBuffer.wrap(segment).order(ByteOrder.LITTLE_ENDIAN).putInt(thumbnailOffsetValue, 1 << 20);
+
+        return segment;
+    }
+
+    private static class CountingInputStream extends InputStream {
+
+        private final InputStream mInputStream;
+        private long mCount;
+
+        CountingInputStream(InputStream inputStream) {
+            mInputStream = inputStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = mInputStream.read();
+            if (value != -1) {
+                mCount++;
+            }
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = mInputStream.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = mInputStream.skip(count);
+            mCount += skipped;
+
+            return skipped;
+        }
+    }
+}
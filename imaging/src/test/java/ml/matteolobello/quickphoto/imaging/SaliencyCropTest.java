@@ -0,0 +1,83 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SaliencyCropTest {
+
+    private static final long NO_BUDGET_LIMIT = Long.MAX_VALUE / 2;
+
+    private static final int BACKGROUND = 0xff808080;
+
+    @Test
+    public void findSquare_followsAnOffCenterSubject() throws Exception {
+        SaliencyCrop saliencyCrop = new SaliencyCrop();
+
+        // A textured subject on the left third of a flat landscape
+        int[] landscape = flat(4000, 3000);
+        paintNoise(landscape, 4000, 200, 1000, 1000, 1000);
+        float position = saliencyCrop.findSquare(landscape, 4000, 3000, NO_BUDGET_LIMIT);
+        assertTrue("Position " + position, position < 0.2f);
+
+        // And at the bottom of a portrait
+        int[] portrait = flat(300, 400);
+        paintNoise(portrait, 300, 100, 320, 80, 80);
+        position = saliencyCrop.findSquare(portrait, 300, 400, NO_BUDGET_LIMIT);
+        assertTrue("Position " + position, position > 0.8f);
+
+        // The square holds the whole subject
+        CropRect crop = CropRect.square(300, 400, position);
+        assertTrue(crop.getTop() <= 320 && crop.getBottom() >= 400);
+    }
+
+    @Test
+    public void findSquare_keepsTheCenterWhenNothingStandsOut() throws Exception {
+        SaliencyCrop saliencyCrop = new SaliencyCrop();
+
+        assertEquals(SaliencyCrop.CENTER, saliencyCrop.findSquare(flat(400, 300), 400, 300, NO_BUDGET_LIMIT), 0f);
+
+        int[] noise = flat(400, 300);
+        paintNoise(noise, 400, 0, 0, 400, 300);
+        assertEquals(SaliencyCrop.CENTER, saliencyCrop.findSquare(noise, 400, 300, NO_BUDGET_LIMIT), 0f);
+
+        // Squares, including the ones that are square once sampled
+        assertEquals(SaliencyCrop.CENTER, saliencyCrop.findSquare(noise, 256, 256, NO_BUDGET_LIMIT), 0f);
+        assertEquals(SaliencyCrop.CENTER, saliencyCrop.findSquare(noise, 257, 256, NO_BUDGET_LIMIT), 0f);
+    }
+
+    @Test
+    public void findSquare_fallsBackToTheCenterOverBudget() throws Exception {
+        int[] pixels = flat(400, 300);
+        paintNoise(pixels, 400, 0, 0, 100, 300);
+
+        SaliencyCrop saliencyCrop = new SaliencyCrop();
+        assertEquals(SaliencyCrop.CENTER, saliencyCrop.findSquare(pixels, 400, 300, 0), 0f);
+        assertEquals(0f, saliencyCrop.findSquare(pixels, 400, 300, NO_BUDGET_LIMIT), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findSquare_rejectsSmallBuffers() throws Exception {
+        new SaliencyCrop().findSquare(new int[10], 10, 5, NO_BUDGET_LIMIT);
+    }
+
+    private static int[] flat(int width, int height) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, BACKGROUND);
+
+        return pixels;
+    }
+
+    private static void paintNoise(int[] pixels, int stride, int left, int top, int width, int height) {
+        Random random = new Random(42);
+        for (int y = top; y < top + height; y++) {
+            for (int x = left; x < left + width; x++) {
+                pixels[y * stride + x] = 0xff000000 | random.nextInt(0x1000000);
+            }
+        }
+    }
+}
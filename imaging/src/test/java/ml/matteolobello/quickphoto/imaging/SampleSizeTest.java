@@ -0,0 +1,53 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleSizeTest {
+
+    private static final int ICON_SIZE = 128;
+
+    @Test
+    public void sampleSize_keepsBothDimensionsAboveTarget() throws Exception {
+        assertEquals(1, SampleSize.calculate(200, 200, ICON_SIZE, ICON_SIZE));
+        assertEquals(2, SampleSize.calculate(256, 256, ICON_SIZE, ICON_SIZE));
+        assertEquals(32, SampleSize.calculate(8000, 6000, ICON_SIZE, ICON_SIZE));
+        assertEquals(1, SampleSize.calculate(100, 100, ICON_SIZE, ICON_SIZE));
+    }
+
+    @Test
+    public void sampleSize_isLimitedByTheShortEdge() throws Exception {
+        // A panorama must keep enough height to fill the icon
+        int sampleSize = SampleSize.calculate(20000, 1000, ICON_SIZE, ICON_SIZE);
+
+        assertEquals(4, sampleSize);
+        assertTrue(SampleSize.sampledDimension(1000, sampleSize) >= ICON_SIZE);
+    }
+
+    @Test
+    public void peakDecodedBytes_isProportionalToTargetNotSource() throws Exception {
+        // 4:3 sources from 1 MP to 108 MP
+        int[][] sources = {
+                {1152, 864}, {4032, 3024}, {8000, 6000}, {12000, 9000}
+        };
+
+        // The sampled short edge is below 2x the target, the long edge follows the 4:3 ratio
+        long bound = 2L * (2 * ICON_SIZE) * (2 * ICON_SIZE) * 4 / 3 * SampleSize.ARGB_8888_BYTES_PER_PIXEL;
+
+        for (int[] source : sources) {
+            long fullBytes = (long) source[0] * source[1] * SampleSize.ARGB_8888_BYTES_PER_PIXEL;
+            long peakBytes = SampleSize.peakDecodedBytes(source[0], source[1], ICON_SIZE, ICON_SIZE);
+
+            assertTrue(source[0] + "x" + source[1] + " peaked at " + peakBytes + " bytes", peakBytes <= bound);
+            assertTrue(peakBytes < fullBytes);
+        }
+    }
+
+    @Test
+    public void fillScale_neverUpscales() throws Exception {
+        assertEquals(1f, SampleSize.fillScale(100, 100, ICON_SIZE, ICON_SIZE), 0f);
+        assertEquals(0.5f, SampleSize.fillScale(256, 512, ICON_SIZE, ICON_SIZE), 0f);
+    }
+}
@@ -0,0 +1,70 @@
+package ml.matteolobello.quickphoto.imaging;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileGridTest {
+
+    private static final int TILE_SIZE = 256;
+
+    @Test
+    public void sampleSizeForScale_keepsOnePixelPerScreenPixel() throws Exception {
+        assertEquals(1, TileGrid.sampleSizeForScale(2f));
+        assertEquals(1, TileGrid.sampleSizeForScale(1f));
+        assertEquals(1, TileGrid.sampleSizeForScale(0.6f));
+        assertEquals(2, TileGrid.sampleSizeForScale(0.5f));
+        assertEquals(2, TileGrid.sampleSizeForScale(0.3f));
+
+        // A 100 MP photo fit on a 1080 px wide screen
+        assertEquals(8, TileGrid.sampleSizeForScale(1080f / 12000));
+    }
+
+    @Test
+    public void getVisibleTiles_coversTheViewport() throws Exception {
+        TileGrid grid = new TileGrid(1000, 600, TILE_SIZE);
+
+        // At sample size 2, tiles cover 512 source pixels
+        List<CropRect> tiles = grid.getVisibleTiles(2, 100, 100, 700, 300);
+        assertEquals(2, tiles.size());
+        assertTile(tiles.get(0), 0, 0, 512, 512);
+        assertTile(tiles.get(1), 512, 0, 488, 512);
+
+        tiles = grid.getVisibleTiles(1, 300, 300, 800, 520);
+        assertEquals(6, tiles.size());
+        assertTile(tiles.get(0), 256, 256, 256, 256);
+        assertTile(tiles.get(5), 768, 512, 232, 88);
+    }
+
+    @Test
+    public void getVisibleTiles_clampsToTheImage() throws Exception {
+        TileGrid grid = new TileGrid(1000, 600, TILE_SIZE);
+
+        List<CropRect> tiles = grid.getVisibleTiles(4, -500, -500, 5000, 5000);
+        assertEquals(1, tiles.size());
+        assertTile(tiles.get(0), 0, 0, 1000, 600);
+
+        assertTrue(grid.getVisibleTiles(1, 1000, 0, 2000, 600).isEmpty());
+        assertTrue(grid.getVisibleTiles(1, -100, -100, 0, 0).isEmpty());
+    }
+
+    @Test
+    public void getKey_differsBySampleSize() throws Exception {
+        CropRect tile = new CropRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+        assertNotEquals(TileGrid.getKey(tile, 1), TileGrid.getKey(tile, 2));
+        assertNotEquals(TileGrid.getKey(new CropRect(TILE_SIZE, 0, TILE_SIZE, TILE_SIZE), 1),
+                TileGrid.getKey(new CropRect(0, TILE_SIZE, TILE_SIZE, TILE_SIZE), 1));
+    }
+
+    private static void assertTile(CropRect tile, int left, int top, int width, int height) {
+        assertEquals(left, tile.getLeft());
+        assertEquals(top, tile.getTop());
+        assertEquals(width, tile.getWidth());
+        assertEquals(height, tile.getHeight());
+    }
+}